@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+
+/** Benchmarks building the chooser's alphabetical section. */
+@LargeTest
+@RunWith(Parameterized::class)
+class ChooserListAdapterBenchmark(private val size: Int) {
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private val catalog = SyntheticCatalog(size)
+    @get:Rule
+    val benchmark = MicroBenchmark()
+
+    /** The work done by [ChooserListAdapter.updateAlphabeticalList] off the main thread. */
+    @Test
+    fun updateAlphabeticalList() {
+        benchmark.measure {
+            ChooserListAdapter.buildAlphabeticalList(context, catalog.displayResolveInfos)
+        }
+    }
+
+    companion object {
+        @JvmStatic
+        @Parameterized.Parameters(name = "size={0}")
+        fun sizes() = MicroBenchmark.CATALOG_SIZES
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import org.junit.rules.TestRule
+import org.junit.runner.Description
+import org.junit.runners.model.Statement
+
+/**
+ * Measures the benchmarks of this suite through a [BenchmarkRule], which warms up the operation,
+ * times it, counts the objects it allocates and reports the results (including the duration of
+ * every run, for tail latency) as instrumentation results and to the benchmark JSON output. Each
+ * result is named after the test and its parameters.
+ *
+ * Per-invocation state is produced by a `setup` step that runs outside of the measurement, so
+ * operations that consume their input (e.g. sort it in place) can be measured in isolation.
+ */
+class MicroBenchmark : TestRule {
+    private val benchmarkRule = BenchmarkRule()
+
+    override fun apply(base: Statement, description: Description): Statement =
+        benchmarkRule.apply(base, description)
+
+    /** Measure [operation], feeding it a fresh value from [setup] for every invocation. */
+    fun <S> measure(setup: () -> S, operation: (S) -> Unit) {
+        benchmarkRule.measureRepeated {
+            val state = runWithTimingDisabled { setup() }
+            operation(state)
+        }
+    }
+
+    /** Measure an [operation] that doesn't need per-invocation state. */
+    fun measure(operation: () -> Unit) {
+        benchmarkRule.measureRepeated { operation() }
+    }
+
+    companion object {
+        /** The catalog sizes every benchmark is run against. */
+        val CATALOG_SIZES = listOf(10, 100, 500, 2000)
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.intentresolver.model.BenchmarkResolverComparator
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+
+/** Benchmarks the list-building and ranking steps of [ResolverListController]. */
+@LargeTest
+@RunWith(Parameterized::class)
+class ResolverListControllerBenchmark(private val size: Int) {
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private val catalog = SyntheticCatalog(size)
+    @get:Rule
+    val benchmark = MicroBenchmark()
+    private val controller = ResolverListController(
+        context,
+        context.packageManager,
+        SyntheticCatalog.SEND_INTENT,
+        /* referrerPackage = */ context.packageName,
+        /* launchedFromUid = */ 0,
+        BenchmarkResolverComparator(context),
+        ResolveResultCache()
+    )
+
+    @Test
+    fun addResolveListDedupe() {
+        benchmark.measure {
+            val into = ArrayList<ResolvedComponentInfo>()
+            for ((intent, infos) in catalog.alternateResolutions) {
+                controller.addResolveListDedupe(into, intent, infos)
+            }
+        }
+    }
+
+    @Test
+    fun topK() {
+        benchmark.measure(
+            setup = { catalog.createResolvedComponentInfos() },
+            operation = { controller.topK(it, MAX_RANKED_TARGETS) }
+        )
+    }
+
+    @Test
+    fun sort() {
+        benchmark.measure(
+            setup = { catalog.createResolvedComponentInfos() },
+            operation = { controller.sort(it) }
+        )
+    }
+
+    companion object {
+        /** Two rows of four targets. */
+        private const val MAX_RANKED_TARGETS = 8
+
+        @JvmStatic
+        @Parameterized.Parameters(name = "size={0}")
+        fun sizes() = MicroBenchmark.CATALOG_SIZES
+    }
+}
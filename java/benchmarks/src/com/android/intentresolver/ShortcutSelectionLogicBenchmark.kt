@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.pm.ShortcutInfo
+import android.service.chooser.ChooserTarget
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+
+/**
+ * Benchmarks [ShortcutSelectionLogic.addServiceResults] as driven by the chooser when the
+ * shortcuts of every app in the catalog arrive.
+ */
+@LargeTest
+@RunWith(Parameterized::class)
+class ShortcutSelectionLogicBenchmark(private val size: Int) {
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private val catalog = SyntheticCatalog(size)
+    @get:Rule
+    val benchmark = MicroBenchmark()
+    private val shortcutInfos = HashMap<ChooserTarget, ShortcutInfo>().apply {
+        catalog.chooserTargetsByApp.forEachIndexed { app, targets ->
+            targets.forEachIndexed { i, target ->
+                put(target, catalog.shareShortcutsByApp[app][i].shortcutInfo)
+            }
+        }
+    }
+
+    @Test
+    fun addServiceResults() {
+        val logic = ShortcutSelectionLogic(
+            /* maxShortcutTargetsPerApp = */ 3,
+            /* applySharingAppLimits = */ true
+        )
+        benchmark.measure(
+            // addServiceResults() sorts the targets in place.
+            setup = { catalog.chooserTargetsByApp.map { ArrayList(it) } },
+            operation = { targetsByApp ->
+                val serviceTargets = ServiceTargetList(MAX_RANKED_TARGETS)
+                targetsByApp.forEachIndexed { app, targets ->
+                    logic.addServiceResults(
+                        catalog.displayResolveInfos[app],
+                        /* origTargetScore = */ 1f / (app + 1),
+                        targets,
+                        /* isShortcutResult = */ true,
+                        shortcutInfos,
+                        /* directShareToAppTargets = */ emptyMap(),
+                        context,
+                        SyntheticCatalog.SEND_INTENT,
+                        /* referrerFillInIntent = */ SyntheticCatalog.SEND_INTENT,
+                        serviceTargets
+                    )
+                }
+            }
+        )
+    }
+
+    companion object {
+        private const val MAX_RANKED_TARGETS = 8
+
+        @JvmStatic
+        @Parameterized.Parameters(name = "size={0}")
+        fun sizes() = MicroBenchmark.CATALOG_SIZES
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.Context
+import android.content.Intent
+import android.content.pm.ActivityInfo
+import android.content.pm.ApplicationInfo
+import android.content.pm.ResolveInfo
+import android.content.pm.ShortcutInfo
+import android.content.pm.ShortcutManager.ShareShortcutInfo
+import android.os.Bundle
+import android.os.UserHandle
+import android.service.chooser.ChooserTarget
+import com.android.intentresolver.chooser.DisplayResolveInfo
+import kotlin.random.Random
+import org.mockito.Mockito
+
+/**
+ * Deterministic synthetic share targets resembling a device with [size] share targets: labels are
+ * random words, some apps expose several activities with the same label, and each app publishes a
+ * few sharing shortcuts.
+ */
+class SyntheticCatalog(val size: Int) {
+    private val random = Random(size)
+
+    private val appLabels = List(size) { "${randomWord()} ${randomWord()}" }
+
+    val resolveInfos: List<ResolveInfo> = List(size) { i ->
+        // Roughly one app in eight exposes a second activity with the same label.
+        val app = if (i % 8 == 7) i - 1 else i
+        createResolveInfo(app, i, appLabels[app])
+    }
+
+    fun createResolvedComponentInfos(): MutableList<ResolvedComponentInfo> =
+        resolveInfos.mapTo(ArrayList(size)) { info ->
+            ResolvedComponentInfo(info.activityInfo.componentName, SEND_INTENT, info)
+        }
+
+    /** Per-intent resolution results, as produced when sharing several alternate intents. */
+    val alternateResolutions: List<Pair<Intent, List<ResolveInfo>>> =
+        ALTERNATE_INTENTS.mapIndexed { i, intent ->
+            // Each intent resolves to a different, overlapping two-thirds of the catalog.
+            intent to resolveInfos.filterIndexed { j, _ -> (j + i) % 3 != 0 }
+        }
+
+    val displayResolveInfos: List<DisplayResolveInfo> = resolveInfos.map { info ->
+        DisplayResolveInfo.newDisplayResolveInfo(
+            SEND_INTENT,
+            info,
+            info.nonLocalizedLabel,
+            /* extendedInfo = */ null,
+            SEND_INTENT,
+            /* presentationGetter = */ null
+        )
+    }
+
+    /** Sharing shortcuts, [SHORTCUTS_PER_APP] per app, grouped by app. */
+    val shareShortcutsByApp: List<List<ShareShortcutInfo>> = List(size) { i ->
+        val component = resolveInfos[i].activityInfo.componentName
+        val context = Mockito.mock(Context::class.java)
+        Mockito.`when`(context.packageName).thenReturn(component.packageName)
+        List(SHORTCUTS_PER_APP) { rank ->
+            val shortcut = ShortcutInfo.Builder(context, "shortcut-$i-$rank")
+                .setShortLabel("Shortcut $rank of ${appLabels[i]}")
+                .setActivity(component)
+                .setRank(rank)
+                .build()
+            ShareShortcutInfo(shortcut, component)
+        }
+    }
+
+    val allShareShortcuts: List<ShareShortcutInfo> = shareShortcutsByApp.flatten()
+
+    /** Chooser targets for every shortcut, grouped by app. */
+    val chooserTargetsByApp: List<List<ChooserTarget>> =
+        shareShortcutsByApp.map { shortcuts ->
+            shortcuts.map { shortcut ->
+                ChooserTarget(
+                    shortcut.shortcutInfo.shortLabel,
+                    null,
+                    random.nextFloat(),
+                    shortcut.targetComponent,
+                    Bundle().apply { putString(Intent.EXTRA_SHORTCUT_ID, shortcut.shortcutInfo.id) }
+                )
+            }
+        }
+
+    private fun randomWord(): String =
+        String(CharArray(random.nextInt(3, 10)) { 'a' + random.nextInt(26) })
+            .replaceFirstChar { it.uppercaseChar() }
+
+    companion object {
+        const val SHORTCUTS_PER_APP = 4
+
+        val SEND_INTENT: Intent = Intent(Intent.ACTION_SEND).setType("text/plain")
+
+        private val ALTERNATE_INTENTS = listOf(
+            SEND_INTENT,
+            Intent(Intent.ACTION_SEND).setType("image/png"),
+            Intent(Intent.ACTION_SEND_MULTIPLE).setType("image/png"),
+        )
+
+        private fun createResolveInfo(app: Int, activity: Int, label: String) =
+            ResolveInfo().apply {
+                activityInfo = ActivityInfo().apply {
+                    packageName = "com.example.app$app"
+                    name = "com.example.app$app.ShareActivity$activity"
+                    applicationInfo = ApplicationInfo().apply { packageName = "com.example.app$app" }
+                }
+                nonLocalizedLabel = label
+                targetUserId = UserHandle.USER_CURRENT
+            }
+    }
+}
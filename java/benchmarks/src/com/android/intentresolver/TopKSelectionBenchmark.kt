@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import androidx.test.filters.LargeTest
+import com.google.common.truth.Truth.assertThat
+import java.text.Collator
+import java.util.PriorityQueue
+import kotlin.random.Random
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+
+/**
+ * Microbenchmark comparing the index-based selection used by [ResolverListController.topK] with
+ * the heap-based selection it replaced. Each candidate mimics a ranked target: a score with
+ * frequent ties broken by a collated label.
+ */
+@LargeTest
+@RunWith(Parameterized::class)
+class TopKSelectionBenchmark(private val size: Int) {
+    private class Candidate(val score: Float, val label: String)
+
+    private val collator = Collator.getInstance()
+    private val comparator = Comparator<Candidate> { lhs, rhs ->
+        val result = rhs.score.compareTo(lhs.score)
+        if (result != 0) result else collator.compare(lhs.label, rhs.label)
+    }
+
+    @get:Rule
+    val benchmark = MicroBenchmark()
+    private val candidates = Random(size).let { random ->
+        List(size) {
+            // Quantized scores, so that the label tie-break matters.
+            Candidate(random.nextInt(20) / 20f, "Target ${random.nextInt()}")
+        }
+    }
+
+    @Test
+    fun heapTopK() {
+        benchmark.measure(
+            setup = { candidates.toMutableList() },
+            operation = { heapTopK(it, K) }
+        )
+    }
+
+    @Test
+    fun selectTopK() {
+        assertThat(selectTopK(candidates.toMutableList(), K).take(K))
+            .containsExactlyElementsIn(candidates.sortedWith(comparator).take(K))
+            .inOrder()
+
+        benchmark.measure(
+            setup = { candidates.toMutableList() },
+            operation = { selectTopK(it, K) }
+        )
+    }
+
+    /** The previous implementation: a bounded min-heap driven by the full comparator. */
+    private fun heapTopK(list: MutableList<Candidate>, k: Int): List<Candidate> {
+        val minHeap = PriorityQueue<Candidate>(k) { o1, o2 -> -comparator.compare(o1, o2) }
+        var pointer = list.size - 1
+        minHeap.addAll(list.subList(list.size - k, list.size))
+        for (i in list.size - k - 1 downTo 0) {
+            val candidate = list[i]
+            if (-comparator.compare(candidate, minHeap.peek()) > 0) {
+                list[pointer--] = minHeap.poll()
+                minHeap.add(candidate)
+            } else {
+                list[pointer--] = candidate
+            }
+        }
+        while (minHeap.isNotEmpty()) {
+            list[pointer--] = minHeap.poll()
+        }
+        return list
+    }
+
+    /** The current implementation: score once, then introselect over indices. */
+    private fun selectTopK(list: MutableList<Candidate>, k: Int): List<Candidate> {
+        val keys = FloatArray(list.size) { list[it].score }
+        val order = IntArray(list.size) { it }
+        TopKSelector.selectTopK(order, k) { lhs, rhs ->
+            if (keys[lhs] != keys[rhs]) {
+                if (keys[lhs] > keys[rhs]) -1 else 1
+            } else {
+                comparator.compare(list[lhs], list[rhs])
+            }
+        }
+        val snapshot = list.toTypedArray()
+        order.forEachIndexed { i, index -> list[i] = snapshot[index] }
+        return list
+    }
+
+    companion object {
+        private const val K = 8
+
+        @JvmStatic
+        @Parameterized.Parameters(name = "size={0}")
+        fun sizes() = MicroBenchmark.CATALOG_SIZES
+    }
+}
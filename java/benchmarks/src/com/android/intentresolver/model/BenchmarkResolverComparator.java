@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ResolveInfo;
+import android.os.Message;
+
+import com.android.intentresolver.ResolvedComponentInfo;
+
+import java.text.Collator;
+import java.util.List;
+
+/**
+ * A comparator with the same shape as the production ones, without any service connections: scores
+ * are derived from the component names, quantized so that there are plenty of ties, and ties are
+ * broken by collating the labels. Computing completes synchronously.
+ */
+public class BenchmarkResolverComparator extends AbstractResolverComparator {
+    private static final int SCORE_LEVELS = 20;
+
+    private final Collator mCollator;
+
+    public BenchmarkResolverComparator(Context context) {
+        super(context, new Intent(Intent.ACTION_SEND));
+        mCollator = Collator.getInstance(context.getResources().getConfiguration().locale);
+    }
+
+    @Override
+    int compare(ResolveInfo lhs, ResolveInfo rhs) {
+        final int result = Float.compare(getOrderingScore(rhs), getOrderingScore(lhs));
+        if (result != 0) {
+            return result;
+        }
+        return mCollator.compare(lhs.nonLocalizedLabel.toString(), rhs.nonLocalizedLabel.toString());
+    }
+
+    @Override
+    float getOrderingScore(ResolveInfo target) {
+        return getScore(target.getComponentInfo().getComponentName());
+    }
+
+    @Override
+    void beforeCompute() {
+        // No watchdog needed; doCompute() finishes synchronously.
+    }
+
+    @Override
+    void doCompute(List<ResolvedComponentInfo> targets) {
+        afterCompute();
+    }
+
+    @Override
+    public float getScore(ComponentName name) {
+        return (float) Math.floorMod(name.hashCode(), SCORE_LEVELS) / SCORE_LEVELS;
+    }
+
+    @Override
+    void handleResultMessage(Message message) {}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.shortcuts
+
+import android.app.prediction.AppTarget
+import android.app.prediction.AppTargetId
+import android.content.ComponentName
+import android.content.pm.ShortcutInfo
+import android.service.chooser.ChooserTarget
+import androidx.test.filters.LargeTest
+import com.android.intentresolver.MicroBenchmark
+import com.android.intentresolver.SyntheticCatalog
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+
+/**
+ * Benchmarks [ShortcutToChooserTargetConverter.convertToChooserTarget] as driven by the shortcut
+ * loader: the shortcuts returned for the share are indexed by component, then converted once for
+ * every app.
+ */
+@LargeTest
+@RunWith(Parameterized::class)
+class ShortcutToChooserTargetConverterBenchmark(private val size: Int) {
+    private val catalog = SyntheticCatalog(size)
+    @get:Rule
+    val benchmark = MicroBenchmark()
+    private val converter = ShortcutToChooserTargetConverter()
+
+    @Test
+    fun convertToChooserTarget_shortcutManager() {
+        benchmark.measure {
+            val shortcutInfos = HashMap<ChooserTarget, ShortcutInfo>()
+            for (positions in indexShortcuts().values) {
+                converter.convertToChooserTarget(
+                    positions.map { catalog.allShareShortcuts[it] },
+                    positions.toIntArray(),
+                    /* allAppTargets = */ null,
+                    /* directShareAppTargetCache = */ null,
+                    shortcutInfos
+                )
+            }
+        }
+    }
+
+    @Test
+    fun convertToChooserTarget_appPredictor() {
+        val appTargets = catalog.allShareShortcuts.map { shortcut ->
+            AppTarget(
+                AppTargetId(shortcut.shortcutInfo.id),
+                shortcut.shortcutInfo,
+                shortcut.targetComponent.className
+            )
+        }
+        benchmark.measure {
+            val appTargetCache = HashMap<ChooserTarget, AppTarget>()
+            val shortcutInfos = HashMap<ChooserTarget, ShortcutInfo>()
+            for (positions in indexShortcuts().values) {
+                converter.convertToChooserTarget(
+                    positions.map { catalog.allShareShortcuts[it] },
+                    positions.toIntArray(),
+                    appTargets,
+                    appTargetCache,
+                    shortcutInfos
+                )
+            }
+        }
+    }
+
+    private fun indexShortcuts(): Map<ComponentName, List<Int>> =
+        catalog.allShareShortcuts.indices.groupBy { catalog.allShareShortcuts[it].targetComponent }
+
+    companion object {
+        @JvmStatic
+        @Parameterized.Parameters(name = "size={0}")
+        fun sizes() = MicroBenchmark.CATALOG_SIZES
+    }
+}
@@ -62,6 +62,7 @@ import android.provider.DeviceConfig;
 import android.service.chooser.ChooserTarget;
 import android.util.Log;
 import android.util.Slog;
+import android.util.Size;
 import android.util.SparseArray;
 import android.view.View;
 import android.view.ViewGroup;
@@ -104,12 +105,14 @@ import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import java.io.File;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.text.Collator;
+import java.text.CollationKey;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
@@ -263,6 +266,8 @@ public class ChooserActivity extends ResolverActivity implements
         mFeatureFlagRepository = createFeatureFlagRepository();
         mIntegratedDeviceComponents = getIntegratedDeviceComponents();
 
+        final int requestParsingPhase = getChooserActivityLogger().beginPhase(
+                ChooserActivityLogger.Phase.REQUEST_PARSING, null);
         try {
             mChooserRequest = new ChooserRequestParameters(
                     getIntent(),
@@ -275,6 +280,8 @@ public class ChooserActivity extends ResolverActivity implements
             finish();
             super_onCreate(null);
             return;
+        } finally {
+            getChooserActivityLogger().endPhase(requestParsingPhase, null);
         }
 
         mRefinementManager = new ChooserRefinementManager(
@@ -311,6 +318,9 @@ public class ChooserActivity extends ResolverActivity implements
                 shouldDisplayLandscape(getResources().getConfiguration().orientation);
         setRetainInOnStop(mChooserRequest.shouldRetainInOnStop());
 
+        // Registered ahead of ResolverActivity#onCreate, since the profile records start loading.
+        PackageChangeMonitor.getInstance().register(this);
+
         createProfileRecords(
                 new AppPredictorFactory(
                         getApplicationContext(),
@@ -414,6 +424,11 @@ public class ChooserActivity extends ResolverActivity implements
                             userHandle,
                             targetIntentFilter,
                             shortcutsResult -> onShortcutsLoaded(userHandle, shortcutsResult));
+        if (shortcutLoader != null) {
+            // Fetch the share targets while the app targets are being resolved, so that both rows
+            // can be populated together.
+            shortcutLoader.prewarm();
+        }
         mProfileRecords.put(
                 userHandle.getIdentifier(),
                 new ProfileRecord(appPredictor, shortcutLoader));
@@ -758,6 +773,7 @@ public class ChooserActivity extends ResolverActivity implements
         mBackgroundThreadPoolExecutor.shutdownNow();
 
         destroyProfileRecords();
+        getChooserActivityLogger().logIconLoadStats();
     }
 
     private void destroyProfileRecords() {
@@ -1107,18 +1123,32 @@ public class ChooserActivity extends ResolverActivity implements
     }
 
     /**
-     * Sort intents alphabetically based on display label.
+     * Sort intents alphabetically based on display label. Each target's label is collated at most
+     * once per comparator, and the keys are shared across comparators through
+     * {@link CollationKeyCache}.
      */
     static class AzInfoComparator implements Comparator<DisplayResolveInfo> {
-        Collator mCollator;
+        private final Locale mLocale;
+        private final Map<DisplayResolveInfo, CollationKey> mKeys = new IdentityHashMap<>();
+
         AzInfoComparator(Context context) {
-            mCollator = Collator.getInstance(context.getResources().getConfiguration().locale);
+            mLocale = context.getResources().getConfiguration().locale;
         }
 
         @Override
         public int compare(
                 DisplayResolveInfo lhsp, DisplayResolveInfo rhsp) {
-            return mCollator.compare(lhsp.getDisplayLabel(), rhsp.getDisplayLabel());
+            return getCollationKey(lhsp).compareTo(getCollationKey(rhsp));
+        }
+
+        private CollationKey getCollationKey(DisplayResolveInfo info) {
+            CollationKey key = mKeys.get(info);
+            if (key == null) {
+                key = CollationKeyCache.getInstance().getCollationKey(
+                        mLocale, info.getDisplayLabel());
+                mKeys.put(info, key);
+            }
+            return key;
         }
     }
 
@@ -1303,15 +1333,31 @@ public class ChooserActivity extends ResolverActivity implements
 
     @VisibleForTesting
     protected ImageLoader createPreviewImageLoader() {
-        final int cacheSize;
         if (mFeatureFlagRepository.isEnabled(Flags.SHARESHEET_SCROLLABLE_IMAGE_PREVIEW)) {
             float chooserWidth = getResources().getDimension(R.dimen.chooser_width);
             float imageWidth = getResources().getDimension(R.dimen.chooser_preview_image_width);
-            cacheSize = (int) (Math.ceil(chooserWidth / imageWidth) + 2);
-        } else {
-            cacheSize = 3;
-        }
-        return new ImagePreviewImageLoader(this, getLifecycle(), cacheSize);
+            int cacheSize = (int) (Math.ceil(chooserWidth / imageWidth) + 2);
+            // Images are center-cropped into fixed size slots; decode them to cover a slot.
+            int thumbnailSize = Math.max(
+                    getResources().getDimensionPixelSize(R.dimen.chooser_preview_image_width),
+                    getResources().getDimensionPixelSize(R.dimen.chooser_preview_image_height));
+            return new ImagePreviewImageLoader(
+                    this,
+                    getLifecycle(),
+                    cacheSize,
+                    new Size(thumbnailSize, thumbnailSize),
+                    PreviewImageCache.getInstance(this),
+                    getChooserActivityLogger());
+        }
+        int thumbnailSize =
+                getResources().getDimensionPixelSize(R.dimen.chooser_preview_image_max_dimen);
+        return new ImagePreviewImageLoader(
+                this,
+                getLifecycle(),
+                3,
+                new Size(thumbnailSize, thumbnailSize),
+                PreviewImageCache.getInstance(this),
+                getChooserActivityLogger());
     }
 
     private ChooserActionFactory createChooserActionFactory() {
@@ -1576,6 +1622,11 @@ public class ChooserActivity extends ResolverActivity implements
             return;
         }
         record.loadingStartTime = SystemClock.elapsedRealtime();
+        // A load that is still running is superseded by this one; its result is never delivered.
+        getChooserActivityLogger().endPhase(
+                record.shortcutLoadPhase, ChooserActivityLogger.PHASE_OUTCOME_SUPERSEDED);
+        record.shortcutLoadPhase = getChooserActivityLogger().beginPhase(
+                ChooserActivityLogger.Phase.SHORTCUT_LOAD, null);
         record.shortcutLoader.queryShortcuts(chooserListAdapter.getDisplayResolveInfos());
     }
 
@@ -1602,6 +1653,21 @@ public class ChooserActivity extends ResolverActivity implements
             adapter.completeServiceTargetLoading();
         }
 
+        ProfileRecord record = getProfileRecord(userHandle);
+        if (record != null) {
+            getChooserActivityLogger().endPhase(
+                    record.shortcutLoadPhase,
+                    result.isFromAppPredictor() ? "app_predictor" : "shortcut_manager");
+            record.shortcutLoadPhase = 0;
+        }
+        if (result.getLoadMillis() > 0) {
+            // Waiting for the profile's loading lane is reported apart from the loading itself.
+            getChooserActivityLogger().logPhaseDuration(
+                    ChooserActivityLogger.Phase.SHORTCUT_LOAD, "queue_wait",
+                    result.getQueueWaitMillis());
+            getChooserActivityLogger().logPhaseDuration(
+                    ChooserActivityLogger.Phase.SHORTCUT_LOAD, "work", result.getLoadMillis());
+        }
         logDirectShareTargetReceived(userHandle);
         sendVoiceChoicesIfNeeded();
         getChooserActivityLogger().logSharesheetDirectLoadComplete();
@@ -1927,6 +1993,8 @@ public class ChooserActivity extends ResolverActivity implements
         @Nullable
         public final ShortcutLoader shortcutLoader;
         public long loadingStartTime;
+        /** The {@link ChooserActivityLogger} token of the ongoing shortcut load, or 0. */
+        public int shortcutLoadPhase;
 
         private ProfileRecord(
                 @Nullable AppPredictor appPredictor,
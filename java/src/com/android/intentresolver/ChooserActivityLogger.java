@@ -20,11 +20,14 @@ import android.annotation.Nullable;
 import android.content.Intent;
 import android.metrics.LogMaker;
 import android.net.Uri;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.provider.MediaStore;
 import android.util.HashedStringCache;
 import android.util.Log;
 
 import com.android.intentresolver.contentpreview.ContentPreviewType;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.logging.InstanceId;
 import com.android.internal.logging.InstanceIdSequence;
@@ -35,6 +38,12 @@ import com.android.internal.logging.UiEventLoggerImpl;
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.internal.util.FrameworkStatsLog;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Helper for writing Sharesheet atoms to statsd log.
  * @hide
@@ -52,6 +61,50 @@ public class ChooserActivityLogger {
     public static final int SELECTION_TYPE_MODIFY_SHARE = 7;
     public static final int SELECTION_TYPE_CUSTOM_ACTION = 8;
 
+    /** Outcome of a phase that produced its result. */
+    public static final String PHASE_OUTCOME_COMPLETED = "completed";
+    /** Outcome of a phase that was cut short by a timeout. */
+    public static final String PHASE_OUTCOME_TIMEOUT = "timeout";
+    /** Outcome of a phase that produced a provisional result, to be refined later. */
+    public static final String PHASE_OUTCOME_PROVISIONAL = "provisional";
+    /** Outcome of a phase that was abandoned because the same phase was started again. */
+    public static final String PHASE_OUTCOME_SUPERSEDED = "superseded";
+
+    /**
+     * Stages of loading the Sharesheet that are timed with {@link #beginPhase(Phase, String)} and
+     * {@link #endPhase(int, String)}.
+     */
+    public enum Phase {
+        /** Parsing the client's request in {@link ChooserRequestParameters}. */
+        REQUEST_PARSING("request_parsing"),
+        /** Resolving the app targets of one profile with the PackageManager. */
+        PACKAGE_RESOLUTION("package_resolution"),
+        /** Computing the ranking of the app targets, up to the ranker watchdog timeout. */
+        RANKER_COMPUTE("ranker_compute"),
+        /** Selecting the top ranked app targets. */
+        TOP_K("top_k"),
+        /** From the Sharesheet being triggered to binding the first target. */
+        FIRST_ROW_BIND("first_row_bind"),
+        /** Loading one target icon; reported as percentiles by {@link #logIconLoadStats()}. */
+        ICON_LOAD("icon_load"),
+        /** Loading the direct share targets of one profile. */
+        SHORTCUT_LOAD("shortcut_load"),
+        /** Waiting for the AppPredictor to call back with the app target ranking. */
+        APP_PREDICTOR_CALLBACK("app_predictor_callback"),
+        /** Loading and decoding one image for the content preview. */
+        PREVIEW_DECODE("preview_decode");
+
+        private final String mName;
+
+        Phase(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+    }
+
     /**
      * This shim is provided only for testing. In production, clients will only ever use a
      * {@link DefaultFrameworkStatsLogger}.
@@ -85,6 +138,15 @@ public class ChooserActivityLogger {
 
     private static final int SHARESHEET_INSTANCE_ID_MAX = (1 << 13);
 
+    private static final String PHASE_HISTOGRAM_PREFIX = "sharesheet_phase_";
+    private static final String PHASE_TRACE_PREFIX = "Sharesheet#";
+    // Bounds the memory used for the icon load percentiles in long-lived sessions.
+    private static final int MAX_ICON_LOAD_SAMPLES = 512;
+
+    // Trace cookies, which also identify the open phases; 0 is never used, so that it can stand
+    // for "no phase".
+    private static final AtomicInteger sPhaseCookies = new AtomicInteger();
+
     // A small per-notification ID, used for statsd logging.
     // TODO: consider precomputing and storing as final.
     private static InstanceIdSequence sInstanceIdSequence;
@@ -94,6 +156,14 @@ public class ChooserActivityLogger {
     private final FrameworkStatsLogger mFrameworkStatsLogger;
     private final MetricsLogger mMetricsLogger;
 
+    private final Map<Integer, OpenPhase> mOpenPhases = new ConcurrentHashMap<>();
+    private final AtomicInteger mFirstRowBindPhase = new AtomicInteger();
+    private final Object mIconLoadSamplesLock = new Object();
+    @GuardedBy("mIconLoadSamplesLock")
+    private long[] mIconLoadSamples = new long[MAX_ICON_LOAD_SAMPLES];
+    @GuardedBy("mIconLoadSamplesLock")
+    private int mIconLoadSampleCount;
+
     public ChooserActivityLogger() {
         this(new UiEventLoggerImpl(), new DefaultFrameworkStatsLogger(), new MetricsLogger());
     }
@@ -249,6 +319,93 @@ public class ChooserActivityLogger {
     /** Logs a UiEventReported event for the system sharesheet being triggered by the user. */
     public void logSharesheetTriggered() {
         log(SharesheetStandardEvent.SHARESHEET_TRIGGERED, getInstanceId());
+        final int firstRowBindPhase = beginPhase(Phase.FIRST_ROW_BIND, null);
+        final int previousPhase = mFirstRowBindPhase.getAndSet(firstRowBindPhase);
+        if (previousPhase != 0) {
+            endPhase(previousPhase, PHASE_OUTCOME_SUPERSEDED);
+        }
+    }
+
+    /**
+     * Start timing {@code phase}, as a trace section and for the phase duration histograms.
+     * Phases may be ended on a different thread than the one they were started on.
+     *
+     * @param qualifier distinguishes instances of a phase that are timed separately (e.g. per
+     * profile), or null.
+     * @return a token identifying the phase for {@link #endPhase(int, String)}.
+     */
+    public int beginPhase(Phase phase, @Nullable String qualifier) {
+        final int cookie = nextPhaseCookie();
+        final String name = (qualifier == null)
+                ? phase.getName() : phase.getName() + "_" + qualifier;
+        mOpenPhases.put(cookie, new OpenPhase(phase, name, SystemClock.elapsedRealtimeNanos()));
+        Trace.beginAsyncSection(PHASE_TRACE_PREFIX + name, cookie);
+        return cookie;
+    }
+
+    /**
+     * Stop timing the phase identified by {@code phaseToken}, and log its duration. Phases that
+     * were already ended (or the token 0) are ignored.
+     *
+     * @param outcome how the phase ended (e.g. {@link #PHASE_OUTCOME_TIMEOUT}), logged as part of
+     * the phase, or null.
+     */
+    public void endPhase(int phaseToken, @Nullable String outcome) {
+        final OpenPhase phase = mOpenPhases.remove(phaseToken);
+        if (phase == null) {
+            return;
+        }
+        Trace.endAsyncSection(PHASE_TRACE_PREFIX + phase.name, phaseToken);
+        final long durationNanos = SystemClock.elapsedRealtimeNanos() - phase.startNanos;
+        final String name = (outcome == null) ? phase.name : phase.name + "_" + outcome;
+        if (DEBUG) {
+            Log.d(TAG, "phase=" + name + " durationMs="
+                    + TimeUnit.NANOSECONDS.toMillis(durationNanos));
+        }
+        if (phase.phase == Phase.ICON_LOAD) {
+            addIconLoadSample(durationNanos);
+        } else {
+            mMetricsLogger.histogram(
+                    PHASE_HISTOGRAM_PREFIX + name, toHistogramMillis(durationNanos));
+        }
+    }
+
+    /**
+     * Log the duration of a phase that was timed elsewhere, e.g. by a component without access to
+     * this logger, as {@link #endPhase(int, String)} would.
+     */
+    public void logPhaseDuration(Phase phase, @Nullable String qualifier, long durationMillis) {
+        final String name = (qualifier == null)
+                ? phase.getName() : phase.getName() + "_" + qualifier;
+        mMetricsLogger.histogram(PHASE_HISTOGRAM_PREFIX + name,
+                toHistogramMillis(TimeUnit.MILLISECONDS.toNanos(durationMillis)));
+    }
+
+    /** Ends the {@link Phase#FIRST_ROW_BIND} phase, if this is the first target bound. */
+    public void logFirstRowBound() {
+        final int firstRowBindPhase = mFirstRowBindPhase.getAndSet(0);
+        if (firstRowBindPhase != 0) {
+            endPhase(firstRowBindPhase, null);
+        }
+    }
+
+    /**
+     * Logs the median and 99th percentile duration of the {@link Phase#ICON_LOAD} phases ended
+     * since the previous call, if any.
+     */
+    public void logIconLoadStats() {
+        final long[] samples;
+        synchronized (mIconLoadSamplesLock) {
+            if (mIconLoadSampleCount == 0) {
+                return;
+            }
+            samples = Arrays.copyOf(mIconLoadSamples, mIconLoadSampleCount);
+            mIconLoadSampleCount = 0;
+        }
+        Arrays.sort(samples);
+        final String name = PHASE_HISTOGRAM_PREFIX + Phase.ICON_LOAD.getName();
+        mMetricsLogger.histogram(name + "_p50", toHistogramMillis(percentile(samples, 50)));
+        mMetricsLogger.histogram(name + "_p99", toHistogramMillis(percentile(samples, 99)));
     }
 
     /** Logs a UiEventReported event for the system sharesheet completing loading app targets. */
@@ -324,6 +481,45 @@ public class ChooserActivityLogger {
         return mInstanceId;
     }
 
+    private void addIconLoadSample(long durationNanos) {
+        synchronized (mIconLoadSamplesLock) {
+            if (mIconLoadSampleCount < mIconLoadSamples.length) {
+                mIconLoadSamples[mIconLoadSampleCount++] = durationNanos;
+            }
+        }
+    }
+
+    /** @return the nearest-rank {@code percent}th percentile of the non-empty sorted samples. */
+    @VisibleForTesting
+    static long percentile(long[] sortedSamples, int percent) {
+        final int rank = (int) Math.ceil(percent / 100.0 * sortedSamples.length);
+        return sortedSamples[Math.max(rank, 1) - 1];
+    }
+
+    private static int toHistogramMillis(long durationNanos) {
+        return (int) Math.min(TimeUnit.NANOSECONDS.toMillis(durationNanos), Integer.MAX_VALUE);
+    }
+
+    private static int nextPhaseCookie() {
+        int cookie;
+        do {
+            cookie = sPhaseCookies.incrementAndGet();
+        } while (cookie == 0);
+        return cookie;
+    }
+
+    private static final class OpenPhase {
+        final Phase phase;
+        final String name;
+        final long startNanos;
+
+        OpenPhase(Phase phase, String name, long startNanos) {
+            this.phase = phase;
+            this.name = name;
+            this.startNanos = startNanos;
+        }
+    }
+
     /**
      * The UiEvent enums that this class can log.
      */
@@ -36,6 +36,7 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.Icon;
 import android.os.AsyncTask;
+import android.os.Process;
 import android.os.Trace;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -86,11 +87,13 @@ public class ChooserListAdapter extends ResolverListAdapter {
 
     private final ChooserActivityLogger mChooserActivityLogger;
 
-    private final Map<TargetInfo, AsyncTask> mIconLoaders = new HashMap<>();
+    private final Map<TargetInfo, LoadDirectShareIconTask> mIconLoaders = new HashMap<>();
+    @Nullable
+    private OnRankedTargetsMovedListener mOnRankedTargetsMovedListener;
 
     // Reserve spots for incoming direct share targets by adding placeholders
     private final TargetInfo mPlaceHolderTargetInfo;
-    private final List<TargetInfo> mServiceTargets = new ArrayList<>();
+    private final ServiceTargetList mServiceTargets;
     private final List<DisplayResolveInfo> mCallerTargets = new ArrayList<>();
 
     private final ShortcutSelectionLogic mShortcutSelectionLogic;
@@ -160,6 +163,7 @@ public class ChooserListAdapter extends ResolverListAdapter {
         mChooserRequest = chooserRequest;
         mMaxRankedTargets = maxRankedTargets;
 
+        mServiceTargets = new ServiceTargetList(maxRankedTargets);
         mPlaceHolderTargetInfo = NotSelectableTargetInfo.newPlaceHolderTargetInfo(context);
         createPlaceHolders();
         mChooserActivityLogger = chooserActivityLogger;
@@ -235,6 +239,7 @@ public class ChooserListAdapter extends ResolverListAdapter {
         if (DEBUG) {
             Log.d(TAG, "clearing queryTargets on package change");
         }
+        PackageChangeMonitor.getInstance().notifyPackagesChanged();
         createPlaceHolders();
         mResolverListCommunicator.onHandlePackagesChanged(this);
 
@@ -256,11 +261,13 @@ public class ChooserListAdapter extends ResolverListAdapter {
     @Override
     public void onBindView(View view, TargetInfo info, int position) {
         final ViewHolder holder = (ViewHolder) view.getTag();
+        onTargetBound(holder, info);
 
         if (info == null) {
             holder.icon.setImageDrawable(loadIconPlaceholder());
             return;
         }
+        mChooserActivityLogger.logFirstRowBound();
 
         holder.bindLabel(info.getDisplayLabel(), info.getExtendedInfo(), alwaysShowSubLabel());
         holder.bindIcon(info, /*animate =*/ true);
@@ -278,7 +285,10 @@ public class ChooserListAdapter extends ResolverListAdapter {
         } else if (info.isDisplayResolveInfo()) {
             DisplayResolveInfo dri = (DisplayResolveInfo) info;
             if (!dri.hasDisplayIcon()) {
-                loadIcon(dri);
+                // Icons in the alphabetical list yield to the ones in the rows above it.
+                loadIcon(dri, getPositionTargetType(position) == TARGET_STANDARD_AZ
+                        ? TargetLoaderExecutor.PRIORITY_LOW
+                        : TargetLoaderExecutor.PRIORITY_HIGH);
             }
         }
 
@@ -320,7 +330,7 @@ public class ChooserListAdapter extends ResolverListAdapter {
     }
 
     private void loadDirectShareIcon(SelectableTargetInfo info) {
-        LoadDirectShareIconTask task = (LoadDirectShareIconTask) mIconLoaders.get(info);
+        LoadDirectShareIconTask task = mIconLoaders.get(info);
         if (task == null) {
             task = createLoadDirectShareIconTask(info);
             mIconLoaders.put(info, task);
@@ -328,6 +338,24 @@ public class ChooserListAdapter extends ResolverListAdapter {
         }
     }
 
+    @Override
+    protected void cancelPendingLoads(TargetInfo info) {
+        super.cancelPendingLoads(info);
+        LoadDirectShareIconTask task = mIconLoaders.get(info);
+        if (task != null && task.cancelIfNotStarted()) {
+            mIconLoaders.remove(info);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        for (LoadDirectShareIconTask task : mIconLoaders.values()) {
+            task.cancel(false);
+        }
+        mIconLoaders.clear();
+    }
+
     @VisibleForTesting
     protected LoadDirectShareIconTask createLoadDirectShareIconTask(SelectableTargetInfo info) {
         return new LoadDirectShareIconTask(
@@ -335,6 +363,29 @@ public class ChooserListAdapter extends ResolverListAdapter {
                 info);
     }
 
+    /**
+     * Consolidate multiple targets from the same app and sort the result alphabetically, as
+     * presented in the alphabetical section.
+     */
+    @VisibleForTesting
+    static List<DisplayResolveInfo> buildAlphabeticalList(
+            Context context, List<DisplayResolveInfo> allTargets) {
+        return allTargets
+                .stream()
+                .collect(Collectors.groupingBy(target ->
+                        target.getResolvedComponentName().getPackageName()
+                        + "#" + target.getDisplayLabel()
+                ))
+                .values()
+                .stream()
+                .map(appTargets ->
+                        (appTargets.size() == 1)
+                        ? appTargets.get(0)
+                        : MultiDisplayResolveInfo.newMultiDisplayResolveInfo(appTargets))
+                .sorted(new ChooserActivity.AzInfoComparator(context))
+                .collect(Collectors.toList());
+    }
+
     void updateAlphabeticalList() {
         // TODO: this procedure seems like it should be relatively lightweight. Why does it need to
         // run in an `AsyncTask`?
@@ -344,22 +395,7 @@ public class ChooserListAdapter extends ResolverListAdapter {
                 List<DisplayResolveInfo> allTargets = new ArrayList<>();
                 allTargets.addAll(getTargetsInCurrentDisplayList());
                 allTargets.addAll(mCallerTargets);
-
-                // Consolidate multiple targets from same app.
-                return allTargets
-                        .stream()
-                        .collect(Collectors.groupingBy(target ->
-                                target.getResolvedComponentName().getPackageName()
-                                + "#" + target.getDisplayLabel()
-                        ))
-                        .values()
-                        .stream()
-                        .map(appTargets ->
-                                (appTargets.size() == 1)
-                                ? appTargets.get(0)
-                                : MultiDisplayResolveInfo.newMultiDisplayResolveInfo(appTargets))
-                        .sorted(new ChooserActivity.AzInfoComparator(mContext))
-                        .collect(Collectors.toList());
+                return buildAlphabeticalList(mContext, allTargets);
             }
             @Override
             protected void onPostExecute(List<DisplayResolveInfo> newList) {
@@ -530,7 +566,7 @@ public class ChooserListAdapter extends ResolverListAdapter {
      * Fetch surfaced direct share target info
      */
     public List<TargetInfo> getSurfacedTargetInfo() {
-        return mServiceTargets.subList(0,
+        return mServiceTargets.snapshot(
                 Math.min(mMaxRankedTargets, getSelectableServiceTargetCount()));
     }
 
@@ -561,7 +597,6 @@ public class ChooserListAdapter extends ResolverListAdapter {
                 mContext.createContextAsUser(getUserHandle(), 0),
                 mChooserRequest.getTargetIntent(),
                 mChooserRequest.getReferrerFillInIntent(),
-                mMaxRankedTargets,
                 mServiceTargets);
         if (isUpdated) {
             notifyDataSetChanged();
@@ -610,24 +645,62 @@ public class ChooserListAdapter extends ResolverListAdapter {
         return true;
     }
 
+    @Override
+    protected List<ResolvedComponentInfo> getResolversForUser(UserHandle userHandle) {
+        final int resolutionPhase = mChooserActivityLogger.beginPhase(
+                ChooserActivityLogger.Phase.PACKAGE_RESOLUTION,
+                userHandle.equals(Process.myUserHandle()) ? "current_profile" : "other_profile");
+        try {
+            return super.getResolversForUser(userHandle);
+        } finally {
+            mChooserActivityLogger.endPhase(resolutionPhase, null);
+        }
+    }
+
+    @Override
+    Drawable loadIconForResolveInfo(ResolveInfo ri) {
+        final int iconLoadPhase = mChooserActivityLogger.beginPhase(
+                ChooserActivityLogger.Phase.ICON_LOAD, null);
+        try {
+            return super.loadIconForResolveInfo(ri);
+        } finally {
+            mChooserActivityLogger.endPhase(iconLoadPhase, null);
+        }
+    }
+
     /**
      * Rather than fully sorting the input list, this sorting task will put the top k elements
      * in the head of input list and fill the tail with other elements in undetermined order.
+     * When the UI is being updated, the top k elements are presented as soon as they're selected,
+     * ahead of rearranging and processing the (much longer) unranked tail.
      */
     @Override
     AsyncTask<List<ResolvedComponentInfo>,
-                Void,
+                ?,
                 List<ResolvedComponentInfo>> createSortingTask(boolean doPostProcessing) {
         return new AsyncTask<List<ResolvedComponentInfo>,
-                Void,
+                List<ResolvedComponentInfo>,
                 List<ResolvedComponentInfo>>() {
             @Override
             protected List<ResolvedComponentInfo> doInBackground(
                     List<ResolvedComponentInfo>... params) {
                 Trace.beginSection("ChooserListAdapter#SortingTask");
-                mResolverListController.topK(params[0], mMaxRankedTargets);
+                final int topKPhase = mChooserActivityLogger.beginPhase(
+                        ChooserActivityLogger.Phase.TOP_K, null);
+                final List<ResolvedComponentInfo> components = params[0];
+                mResolverListController.topK(
+                        components,
+                        mMaxRankedTargets,
+                        doPostProcessing
+                                ? rankedPrefix -> publishProgress(components, rankedPrefix)
+                                : null);
+                mChooserActivityLogger.endPhase(topKPhase, null);
                 Trace.endSection();
-                return params[0];
+                return components;
+            }
+            @Override
+            protected void onProgressUpdate(List<ResolvedComponentInfo>... componentsAndPrefix) {
+                processRankedPrefix(componentsAndPrefix[0], componentsAndPrefix[1]);
             }
             @Override
             protected void onPostExecute(List<ResolvedComponentInfo> sortedComponents) {
@@ -640,11 +713,55 @@ public class ChooserListAdapter extends ResolverListAdapter {
         };
     }
 
+    @Override
+    void sortRankedComponents(List<ResolvedComponentInfo> components) {
+        mResolverListController.topK(components, mMaxRankedTargets);
+    }
+
+    @Override
+    int getRankedComponentCount(int sortedCount) {
+        return Math.min(mMaxRankedTargets, sortedCount);
+    }
+
+    @Override
+    int getRankedTargetDisplayCount() {
+        // The rest of the display list is only presented through the alphabetical list.
+        return getRankedTargetCount();
+    }
+
+    @Override
+    void onRankedTargetsMoved(int firstMoved, int lastMoved) {
+        if (mOnRankedTargetsMovedListener == null) {
+            super.onRankedTargetsMoved(firstMoved, lastMoved);
+            return;
+        }
+        final int offset = getServiceTargetCount() + getCallerTargetCount();
+        mOnRankedTargetsMovedListener.onRankedTargetsMoved(
+                offset + firstMoved, offset + lastMoved);
+    }
+
+    /**
+     * Set a listener to be told which positions changed when an updated ranking moved the ranked
+     * targets, rather than having all the observers notified of a data set change.
+     */
+    public void setOnRankedTargetsMovedListener(@Nullable OnRankedTargetsMovedListener listener) {
+        mOnRankedTargetsMovedListener = listener;
+    }
+
+    /** Listener for {@link #setOnRankedTargetsMovedListener}. */
+    public interface OnRankedTargetsMovedListener {
+        /**
+         * The targets at the positions between {@code firstPosition} and {@code lastPosition}
+         * (inclusive) were moved; the count of targets is unchanged.
+         */
+        void onRankedTargetsMoved(int firstPosition, int lastPosition);
+    }
+
     /**
      * Loads direct share targets icons.
      */
     @VisibleForTesting
-    public class LoadDirectShareIconTask extends AsyncTask<Void, Void, Drawable> {
+    public class LoadDirectShareIconTask extends TargetLoaderExecutor.Task<Drawable> {
         private final Context mContext;
         private final SelectableTargetInfo mTargetInfo;
 
@@ -654,7 +771,9 @@ public class ChooserListAdapter extends ResolverListAdapter {
         }
 
         @Override
-        protected Drawable doInBackground(Void... voids) {
+        protected Drawable loadInBackground() {
+            final int iconLoadPhase = mChooserActivityLogger.beginPhase(
+                    ChooserActivityLogger.Phase.ICON_LOAD, null);
             Drawable drawable;
             try {
                 drawable = getChooserTargetIconDrawable(
@@ -668,6 +787,8 @@ public class ChooserListAdapter extends ResolverListAdapter {
                                 + mTargetInfo.getChooserTargetComponentName(),
                         e);
                 drawable = loadIconPlaceholder();
+            } finally {
+                mChooserActivityLogger.endPhase(iconLoadPhase, null);
             }
             return drawable;
         }
@@ -702,6 +823,30 @@ public class ChooserListAdapter extends ResolverListAdapter {
                 return null;
             }
 
+            SimpleIconFactory sif = SimpleIconFactory.obtain(context);
+            try {
+                // The badge is shared by all the targets of the app
+                Bitmap badge = DirectShareBadgeCache.getInstance().getBadge(
+                        context,
+                        targetComponentName,
+                        sif.getBadgeBitmapSize(),
+                        () -> renderBadge(context, targetComponentName, sif));
+                if (badge == null) {
+                    return null;
+                }
+
+                // Raster target drawable with the app icon as a badge
+                Bitmap directShareBadgedIcon = sif.createBadgedIconBitmap(directShareIcon, badge);
+                return new BitmapDrawable(context.getResources(), directShareBadgedIcon);
+            } finally {
+                sif.recycle();
+            }
+        }
+
+        @WorkerThread
+        @Nullable
+        private Bitmap renderBadge(
+                Context context, ComponentName targetComponentName, SimpleIconFactory sif) {
             ActivityInfo info = null;
             try {
                 info = context.getPackageManager().getActivityInfo(targetComponentName, 0);
@@ -715,20 +860,17 @@ public class ChooserListAdapter extends ResolverListAdapter {
 
             // Now fetch app icon and raster with no badging even in work profile
             Bitmap appIcon = mPresentationFactory.makePresentationGetter(info).getIconBitmap(null);
-
-            // Raster target drawable with appIcon as a badge
-            SimpleIconFactory sif = SimpleIconFactory.obtain(context);
-            Bitmap directShareBadgedIcon = sif.createAppBadgedIconBitmap(directShareIcon, appIcon);
-            sif.recycle();
-
-            return new BitmapDrawable(context.getResources(), directShareBadgedIcon);
+            return sif.createAppBadgeBitmap(appIcon);
         }
 
         /**
-         * An alias for execute to use with unit tests.
+         * Start loading on the shared {@link TargetLoaderExecutor}; an alias to use with unit
+         * tests.
          */
         public void loadIcon() {
-            execute();
+            executeOnExecutor(
+                    TargetLoaderExecutor.getInstance().forPriority(
+                            TargetLoaderExecutor.PRIORITY_HIGH));
         }
     }
 }
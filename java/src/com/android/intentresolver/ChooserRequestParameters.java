@@ -35,6 +35,7 @@ import android.util.Pair;
 
 import com.android.intentresolver.flags.FeatureFlagRepository;
 import com.android.intentresolver.flags.Flags;
+import com.android.internal.annotations.VisibleForTesting;
 
 import com.google.common.collect.ImmutableList;
 
@@ -42,8 +43,16 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 /**
@@ -63,6 +72,14 @@ import java.util.stream.Stream;
  * parameters instead. For now, the other convention is still used in some places. Ideally we'd like
  * to normalize on a single source of truth, but we'll have to clean up the delegation up to the
  * resolver (or perhaps this needs to be a subclass of some `ResolverRequestParameters` class?).
+ *
+ * Parsing happens in two phases. The parameters needed to show the first frame (the target
+ * intent, title and the like) are parsed in the constructor, together with the alternate and
+ * initial intents, so that an invalid request fails there. The potentially large extras --
+ * caller-provided targets, custom actions, replacement extras and the target intent filter -- are
+ * unparceled concurrently on a background executor, so that they don't delay
+ * {@link ChooserActivity#onCreate}. Their getters block until the respective extra is ready (and
+ * rethrow any unexpected parsing error); the {@code *Async} variants can be used to avoid that.
  */
 public class ChooserRequestParameters {
     private static final String TAG = "ChooserActivity";
@@ -70,22 +87,27 @@ public class ChooserRequestParameters {
     private static final int LAUNCH_FLAGS_FOR_SEND_ACTION =
             Intent.FLAG_ACTIVITY_NEW_DOCUMENT | Intent.FLAG_ACTIVITY_MULTIPLE_TASK;
 
+    private static final int MAX_PARSE_THREADS = 4;
+    private static final long PARSE_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    private static ThreadPoolExecutor sParseExecutor;
+
     private final Intent mTarget;
     private final ChooserIntegratedDeviceComponents mIntegratedDeviceComponents;
     private final String mReferrerPackageName;
     private final Pair<CharSequence, Integer> mTitleSpec;
     private final Intent mReferrerFillInIntent;
     private final ImmutableList<ComponentName> mFilteredComponentNames;
-    private final ImmutableList<ChooserTarget> mCallerChooserTargets;
-    private final @NonNull ImmutableList<ChooserAction> mChooserActions;
+    private final CompletableFuture<ImmutableList<ChooserTarget>> mCallerChooserTargets;
+    private final CompletableFuture<ImmutableList<ChooserAction>> mChooserActions;
     private final PendingIntent mModifyShareAction;
     private final boolean mRetainInOnStop;
 
     @Nullable
     private final ImmutableList<Intent> mAdditionalTargets;
 
-    @Nullable
-    private final Bundle mReplacementExtras;
+    /** Completes with null if the client didn't provide any. */
+    private final CompletableFuture<Bundle> mReplacementExtras;
 
     @Nullable
     private final ImmutableList<Intent> mInitialIntents;
@@ -99,8 +121,8 @@ public class ChooserRequestParameters {
     @Nullable
     private final String mSharedText;
 
-    @Nullable
-    private final IntentFilter mTargetIntentFilter;
+    /** Completes with null if no filter could be built for the target intent. */
+    private final CompletableFuture<IntentFilter> mTargetIntentFilter;
 
     public ChooserRequestParameters(
             final Intent clientIntent,
@@ -108,26 +130,63 @@ public class ChooserRequestParameters {
             final Uri referrer,
             ChooserIntegratedDeviceComponents integratedDeviceComponents,
             FeatureFlagRepository featureFlags) {
+        this(
+                clientIntent,
+                referrerPackageName,
+                referrer,
+                integratedDeviceComponents,
+                featureFlags,
+                getParseExecutor());
+    }
+
+    @VisibleForTesting
+    ChooserRequestParameters(
+            final Intent clientIntent,
+            String referrerPackageName,
+            final Uri referrer,
+            ChooserIntegratedDeviceComponents integratedDeviceComponents,
+            FeatureFlagRepository featureFlags,
+            Executor parseExecutor) {
         final Intent requestedTarget = parseTargetIntentExtra(
                 clientIntent.getParcelableExtra(Intent.EXTRA_INTENT));
         mTarget = intentWithModifiedLaunchFlags(requestedTarget);
 
+        // Invalid alternate or initial intents reject the whole request, so they're parsed up
+        // front, before any background parsing is started.
+        mAdditionalTargets = intentsWithModifiedLaunchFlags(getParcelableArrayExtraIfPresent(
+                clientIntent, Intent.EXTRA_ALTERNATE_INTENTS, Intent.class));
+        mInitialIntents = intentsWithModifiedLaunchFlags(getParcelableArrayExtraIfPresent(
+                clientIntent, Intent.EXTRA_INITIAL_INTENTS, Intent.class));
+
+        // Start unparceling the deferred extras first so that they overlap with the rest of the
+        // synchronous parsing. Each parser reads its own copy of the client (or target) intent,
+        // since the bundle's map isn't safe to unparcel into from several threads at once.
+        final Intent callerTargetsIntent = new Intent(clientIntent);
+        mCallerChooserTargets = parseAsync(
+                () -> parseCallerTargetsFromClientIntent(callerTargetsIntent), parseExecutor);
+        if (featureFlags.isEnabled(Flags.SHARESHEET_CUSTOM_ACTIONS)) {
+            final Intent chooserActionsIntent = new Intent(clientIntent);
+            mChooserActions = parseAsync(
+                    () -> getChooserActions(chooserActionsIntent), parseExecutor);
+        } else {
+            mChooserActions = CompletableFuture.completedFuture(ImmutableList.of());
+        }
+        final Intent replacementExtrasIntent = new Intent(clientIntent);
+        mReplacementExtras = parseAsync(
+                () -> replacementExtrasIntent.getBundleExtra(Intent.EXTRA_REPLACEMENT_EXTRAS),
+                parseExecutor);
+        final Intent targetFilterIntent = new Intent(mTarget);
+        mTargetIntentFilter = parseAsync(
+                () -> getTargetIntentFilter(targetFilterIntent), parseExecutor);
+
         mIntegratedDeviceComponents = integratedDeviceComponents;
 
         mReferrerPackageName = referrerPackageName;
 
-        mAdditionalTargets = intentsWithModifiedLaunchFlagsFromExtraIfPresent(
-                clientIntent, Intent.EXTRA_ALTERNATE_INTENTS);
-
-        mReplacementExtras = clientIntent.getBundleExtra(Intent.EXTRA_REPLACEMENT_EXTRAS);
-
         mTitleSpec = makeTitleSpec(
                 clientIntent.getCharSequenceExtra(Intent.EXTRA_TITLE),
                 isSendAction(mTarget.getAction()));
 
-        mInitialIntents = intentsWithModifiedLaunchFlagsFromExtraIfPresent(
-                clientIntent, Intent.EXTRA_INITIAL_INTENTS);
-
         mReferrerFillInIntent = new Intent().putExtra(Intent.EXTRA_REFERRER, referrer);
 
         mChosenComponentSender = clientIntent.getParcelableExtra(
@@ -138,18 +197,11 @@ public class ChooserRequestParameters {
         mFilteredComponentNames = getFilteredComponentNames(
                 clientIntent, mIntegratedDeviceComponents.getNearbySharingComponent());
 
-        mCallerChooserTargets = parseCallerTargetsFromClientIntent(clientIntent);
-
         mRetainInOnStop = clientIntent.getBooleanExtra(
                 ChooserActivity.EXTRA_PRIVATE_RETAIN_IN_ON_STOP, false);
 
         mSharedText = mTarget.getStringExtra(Intent.EXTRA_TEXT);
 
-        mTargetIntentFilter = getTargetIntentFilter(mTarget);
-
-        mChooserActions = featureFlags.isEnabled(Flags.SHARESHEET_CUSTOM_ACTIONS)
-                ? getChooserActions(clientIntent)
-                : ImmutableList.of();
         mModifyShareAction = featureFlags.isEnabled(Flags.SHARESHEET_RESELECTION_ACTION)
                 ? getModifyShareAction(clientIntent)
                 : null;
@@ -195,12 +247,20 @@ public class ChooserRequestParameters {
     }
 
     public ImmutableList<ChooserTarget> getCallerChooserTargets() {
-        return mCallerChooserTargets;
+        return await(mCallerChooserTargets);
+    }
+
+    public CompletionStage<ImmutableList<ChooserTarget>> getCallerChooserTargetsAsync() {
+        return mCallerChooserTargets.minimalCompletionStage();
     }
 
     @NonNull
     public ImmutableList<ChooserAction> getChooserActions() {
-        return mChooserActions;
+        return await(mChooserActions);
+    }
+
+    public CompletionStage<ImmutableList<ChooserAction>> getChooserActionsAsync() {
+        return mChooserActions.minimalCompletionStage();
     }
 
     @Nullable
@@ -226,7 +286,12 @@ public class ChooserRequestParameters {
 
     @Nullable
     public Bundle getReplacementExtras() {
-        return mReplacementExtras;
+        return await(mReplacementExtras);
+    }
+
+    /** Completes with null if the client didn't provide replacement extras. */
+    public CompletionStage<Bundle> getReplacementExtrasAsync() {
+        return mReplacementExtras.minimalCompletionStage();
     }
 
     /**
@@ -255,13 +320,60 @@ public class ChooserRequestParameters {
 
     @Nullable
     public IntentFilter getTargetIntentFilter() {
-        return mTargetIntentFilter;
+        return await(mTargetIntentFilter);
+    }
+
+    /** Completes with null if no filter could be built for the target intent. */
+    public CompletionStage<IntentFilter> getTargetIntentFilterAsync() {
+        return mTargetIntentFilter.minimalCompletionStage();
     }
 
     public ChooserIntegratedDeviceComponents getIntegratedDeviceComponents() {
         return mIntegratedDeviceComponents;
     }
 
+    private static <T> CompletableFuture<T> parseAsync(Supplier<T> parser, Executor executor) {
+        return CompletableFuture.supplyAsync(parser, executor);
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    // Unparceling is short and bounded; finish waiting rather than returning
+                    // partial parameters, and restore the interrupt afterwards.
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static synchronized Executor getParseExecutor() {
+        if (sParseExecutor == null) {
+            sParseExecutor = new ThreadPoolExecutor(
+                    MAX_PARSE_THREADS,
+                    MAX_PARSE_THREADS,
+                    PARSE_THREAD_KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>());
+            sParseExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sParseExecutor;
+    }
+
     private static boolean isSendAction(@Nullable String action) {
         return (Intent.ACTION_SEND.equals(action) || Intent.ACTION_SEND_MULTIPLE.equals(action));
     }
@@ -372,14 +484,12 @@ public class ChooserRequestParameters {
     }
 
     @Nullable
-    private static ImmutableList<Intent> intentsWithModifiedLaunchFlagsFromExtraIfPresent(
-            Intent clientIntent, String extra) {
-        Stream<Intent> intents =
-                streamParcelableArrayExtra(clientIntent, extra, Intent.class, true, false);
+    private static ImmutableList<Intent> intentsWithModifiedLaunchFlags(
+            @Nullable Intent[] intents) {
         if (intents == null) {
             return null;
         }
-        return intents
+        return Arrays.stream(intents)
                 .map(ChooserRequestParameters::intentWithModifiedLaunchFlags)
                 .collect(toImmutableList());
     }
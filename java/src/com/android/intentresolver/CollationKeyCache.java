@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.annotation.Nullable;
+import android.util.LruCache;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * Process-wide cache of {@link CollationKey}s for target labels and package names, so that the
+ * alphabetical orderings of the resolver/chooser compare precomputed keys rather than collating the
+ * raw strings on every comparison, and reuse those keys across list rebuilds.
+ *
+ * Keys are only valid for a single locale; the cache is reset whenever a key is requested for a
+ * different locale than the cached ones.
+ */
+public final class CollationKeyCache {
+    private static final int MAX_ENTRIES = 1024;
+
+    private static CollationKeyCache sInstance;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final LruCache<String, CollationKey> mKeys;
+
+    @GuardedBy("mLock")
+    private Locale mLocale;
+
+    @GuardedBy("mLock")
+    private Collator mCollator;
+
+    /** @return the process-wide instance. */
+    public static synchronized CollationKeyCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new CollationKeyCache(MAX_ENTRIES);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    CollationKeyCache(int maxEntries) {
+        mKeys = new LruCache<>(maxEntries);
+    }
+
+    /**
+     * @return the key collating {@code source} (treated as empty if null) in {@code locale}. Keys
+     * returned for the same locale can be compared with each other.
+     */
+    public CollationKey getCollationKey(Locale locale, @Nullable CharSequence source) {
+        final String string = (source == null) ? "" : source.toString();
+        synchronized (mLock) {
+            if (!locale.equals(mLocale)) {
+                mLocale = locale;
+                mCollator = Collator.getInstance(locale);
+                mKeys.evictAll();
+            }
+            CollationKey key = mKeys.get(string);
+            if (key == null) {
+                key = mCollator.getCollationKey(string);
+                mKeys.put(string, key);
+            }
+            return key;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.annotation.Nullable;
+import android.annotation.WorkerThread;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide cache of the app icon badges drawn over direct share target icons, keyed by the
+ * target component, the user and the badge size.
+ *
+ * A badge is rendered once for all the direct share targets of an app: the icon loading tasks of
+ * an app's targets that run while its badge is being rendered wait for that rendering rather than
+ * rendering it again.
+ *
+ * Badges are dropped whenever packages change, through the {@link PackageChangeMonitor}.
+ * Cached badges are shared between callers and must not be modified.
+ */
+final class DirectShareBadgeCache {
+    private static final String TAG = "DirectShareBadgeCache";
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_BADGE_BYTES = 1024 * 1024;
+
+    private static DirectShareBadgeCache sInstance;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final LruCache<String, Bitmap> mBadges;
+
+    // Badges being rendered, by key.
+    @GuardedBy("mLock")
+    private final Map<String, CompletableFuture<Bitmap>> mPendingBadges = new HashMap<>();
+
+    @GuardedBy("mLock")
+    private int mGeneration;
+
+    /** @return the process-wide instance. */
+    static synchronized DirectShareBadgeCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new DirectShareBadgeCache(MAX_BADGE_BYTES);
+            PackageChangeMonitor.getInstance().addListener(sInstance::invalidate);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    DirectShareBadgeCache(int maxBadgeBytes) {
+        mBadges = new LruCache<String, Bitmap>(maxBadgeBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * @return the badge of {@code badgeSize} pixels for the direct share targets of
+     * {@code component}, for the user of {@code context}. The badge is produced by
+     * {@code renderer} unless it's cached or being rendered already, in which case this waits for
+     * that rendering. Null if the badge could not be rendered.
+     */
+    @WorkerThread
+    @Nullable
+    Bitmap getBadge(
+            Context context,
+            ComponentName component,
+            int badgeSize,
+            Supplier<Bitmap> renderer) {
+        final String key = makeKey(context, component, badgeSize);
+        CompletableFuture<Bitmap> pending;
+        final boolean isRenderedElsewhere;
+        final int generation;
+        synchronized (mLock) {
+            final Bitmap badge = mBadges.get(key);
+            if (badge != null) {
+                return badge;
+            }
+            pending = mPendingBadges.get(key);
+            isRenderedElsewhere = pending != null;
+            if (!isRenderedElsewhere) {
+                pending = new CompletableFuture<>();
+                mPendingBadges.put(key, pending);
+            }
+            generation = mGeneration;
+        }
+        if (isRenderedElsewhere) {
+            if (DEBUG) {
+                Log.d(TAG, "Waiting for the badge of " + key);
+            }
+            return pending.join();
+        }
+
+        Bitmap badge = null;
+        try {
+            badge = renderer.get();
+        } finally {
+            synchronized (mLock) {
+                mPendingBadges.remove(key);
+                // Don't cache the badge if packages changed while it was rendered.
+                if (badge != null && generation == mGeneration) {
+                    mBadges.put(key, badge);
+                }
+            }
+            pending.complete(badge);
+        }
+        return badge;
+    }
+
+    /** Drop all cached badges. */
+    void invalidate() {
+        synchronized (mLock) {
+            mGeneration++;
+            mBadges.evictAll();
+        }
+    }
+
+    private static String makeKey(Context context, ComponentName component, int badgeSize) {
+        final Configuration config = context.getResources().getConfiguration();
+        return component.flattenToShortString()
+                + "|" + context.getUserId()
+                + "|" + badgeSize
+                + "|" + config.densityDpi
+                + "|" + (config.uiMode & Configuration.UI_MODE_NIGHT_MASK);
+    }
+}
@@ -16,9 +16,14 @@
 
 package com.android.intentresolver
 
+import android.content.ContentInterface
 import android.content.Context
+import android.database.Cursor
 import android.graphics.Bitmap
 import android.net.Uri
+import android.provider.DocumentsContract
+import android.provider.MediaStore
+import android.provider.OpenableColumns
 import android.util.Size
 import androidx.annotation.GuardedBy
 import androidx.annotation.VisibleForTesting
@@ -27,23 +32,67 @@ import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.coroutineScope
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import java.util.function.Consumer
 
+private const val DEFAULT_MAX_CONCURRENT_LOADS = 4
+
+/**
+ * Loads and caches the thumbnails of the shared images.
+ *
+ * At most [maxConcurrentLoads] thumbnails are loaded at a time, so that sharing lots of images
+ * doesn't saturate IO; pre-populated images are loaded in order, a few at a time, so that images
+ * requested by bound views don't have to wait for all of them. Thumbnails are decoded at
+ * [thumbnailSize] and moved to hardware bitmaps where possible to keep them off the Java heap.
+ *
+ * Besides the per-loader [cacheSize] most recent images, thumbnails are kept in the process-wide
+ * [previewCache], keyed by URI, size and content version (the size and modification time reported
+ * by the provider), so that re-sharing the same images doesn't go through the provider again.
+ * The version is queried for every load that isn't served by this loader, which also checks that
+ * the content is still accessible before a thumbnail cached by another session is shown. Content
+ * whose provider doesn't report a modification time isn't cached beyond this loader.
+ */
 @VisibleForTesting
 class ImagePreviewImageLoader @JvmOverloads constructor(
     private val context: Context,
     private val lifecycle: Lifecycle,
     cacheSize: Int,
-    private val dispatcher: CoroutineDispatcher = Dispatchers.IO
-) : ImageLoader {
-
+    private val dispatcher: CoroutineDispatcher = Dispatchers.IO,
     private val thumbnailSize: Size =
         context.resources.getDimensionPixelSize(R.dimen.chooser_preview_image_max_dimen).let {
             Size(it, it)
-        }
+        },
+    private val maxConcurrentLoads: Int = DEFAULT_MAX_CONCURRENT_LOADS,
+    private val previewCache: PreviewImageCache? = null,
+    private val metadataResolver: ContentInterface = context.contentResolver,
+    private val logger: ChooserActivityLogger? = null,
+) : ImageLoader {
+
+    constructor(
+        context: Context,
+        lifecycle: Lifecycle,
+        cacheSize: Int,
+        thumbnailSize: Size,
+        previewCache: PreviewImageCache?,
+        logger: ChooserActivityLogger?,
+    ) : this(
+        context,
+        lifecycle,
+        cacheSize,
+        Dispatchers.IO,
+        thumbnailSize,
+        DEFAULT_MAX_CONCURRENT_LOADS,
+        previewCache,
+        context.contentResolver,
+        logger
+    )
+
+    private val loadPermits = Semaphore(maxConcurrentLoads)
 
     @GuardedBy("self")
     private val cache = LruCache<Uri, CompletableDeferred<Bitmap?>>(cacheSize)
@@ -60,28 +109,103 @@ class ImagePreviewImageLoader @JvmOverloads constructor(
     }
 
     override fun prePopulate(uris: List<Uri>) {
-        uris.asSequence().take(cache.maxSize()).forEach { uri ->
-            lifecycle.coroutineScope.launch {
-                loadImageAsync(uri)
+        val prefetchUris = uris.take(cache.maxSize())
+        // Leave a load slot free for the images requested by the views whenever possible.
+        val prefetchWindow = (maxConcurrentLoads - 1).coerceAtLeast(1)
+        lifecycle.coroutineScope.launch {
+            val pending = ArrayDeque<Deferred<Bitmap?>>(prefetchWindow)
+            for (uri in prefetchUris) {
+                if (pending.size >= prefetchWindow) {
+                    pending.removeFirst().await()
+                }
+                pending.addLast(getOrStartLoad(uri))
             }
         }
     }
 
-    private suspend fun loadImageAsync(uri: Uri): Bitmap? {
-        return synchronized(cache) {
+    private suspend fun loadImageAsync(uri: Uri): Bitmap? = getOrStartLoad(uri).await()
+
+    private fun getOrStartLoad(uri: Uri): Deferred<Bitmap?> =
+        synchronized(cache) {
             cache.get(uri) ?: CompletableDeferred<Bitmap?>().also { result ->
                 cache.put(uri, result)
                 lifecycle.coroutineScope.launch(dispatcher) {
-                    result.loadBitmap(uri)
+                    loadPermits.withPermit {
+                        val decodePhase =
+                            logger?.beginPhase(ChooserActivityLogger.Phase.PREVIEW_DECODE, null)
+                        try {
+                            result.loadBitmap(uri)
+                        } finally {
+                            decodePhase?.let { logger?.endPhase(it, null) }
+                        }
+                    }
                 }
             }
-        }.await()
-    }
+        }
 
     private fun CompletableDeferred<Bitmap?>.loadBitmap(uri: Uri) {
+        val cacheKey = previewCache?.let { getCacheKey(uri) }
+        cacheKey?.let { previewCache?.get(it) }?.let { cached ->
+            complete(cached)
+            return
+        }
         val bitmap = runCatching {
             context.contentResolver.loadThumbnail(uri,  thumbnailSize, null)
         }.getOrNull()
-        complete(bitmap)
+        if (bitmap == null || cacheKey == null || previewCache == null) {
+            complete(bitmap?.toHardwareBitmap())
+            return
+        }
+        previewCache.writeToDisk(cacheKey, bitmap)
+        val image = bitmap.toHardwareBitmap()
+        previewCache.putInMemory(cacheKey, image)
+        complete(image)
+    }
+
+    /**
+     * @return a key identifying the thumbnail of the current version of [uri], or null if the
+     * provider doesn't report when the content was last modified.
+     */
+    private fun getCacheKey(uri: Uri): String? =
+        runCatching {
+            metadataResolver.query(uri, getVersionProjection(uri), null, null)?.use { cursor ->
+                if (!cursor.moveToFirst()) return@use null
+                val modified = cursor.getLongOrNull(DocumentsContract.Document.COLUMN_LAST_MODIFIED)
+                    ?: cursor.getLongOrNull(MediaStore.MediaColumns.DATE_MODIFIED)
+                    ?: return@use null
+                val size = cursor.getLongOrNull(OpenableColumns.SIZE)
+                "$uri|${thumbnailSize.width}x${thumbnailSize.height}|$modified|$size"
+            }
+        }.getOrNull()
+
+    /**
+     * @return the columns identifying the version of [uri]'s content. The media provider rejects
+     * columns it doesn't know, while other providers typically ignore them.
+     */
+    private fun getVersionProjection(uri: Uri): Array<String> =
+        if (uri.authority == MediaStore.AUTHORITY) {
+            arrayOf(MediaStore.MediaColumns.DATE_MODIFIED, OpenableColumns.SIZE)
+        } else {
+            arrayOf(
+                DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+                MediaStore.MediaColumns.DATE_MODIFIED,
+                OpenableColumns.SIZE
+            )
+        }
+
+    private fun Cursor.getLongOrNull(columnName: String): Long? {
+        val column = getColumnIndex(columnName)
+        return if (column < 0 || isNull(column)) null else getLong(column)
+    }
+
+    /**
+     * @return a hardware copy of this bitmap, recycling this one, or this bitmap if it can't be
+     * copied (e.g. its config isn't supported by hardware bitmaps).
+     */
+    private fun Bitmap.toHardwareBitmap(): Bitmap {
+        if (config == Bitmap.Config.HARDWARE) return this
+        val copy = runCatching { copy(Bitmap.Config.HARDWARE, false) }.getOrNull() ?: return this
+        recycle()
+        return copy
     }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.UserHandle;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.content.PackageMonitor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The single process-wide hook for package changes of all users, through which the caches that
+ * outlive a Resolver/Chooser session drop what packages changed under them.
+ *
+ * Listeners are notified on the main thread, both by the process-level {@link PackageMonitor}
+ * (registered by the first session, and kept for the lifetime of the process so that changes in
+ * between sessions aren't missed) and by {@link #notifyPackagesChanged()} from the sessions' own
+ * package monitors, so that a list rebuilt in response to a package change never observes stale
+ * cache entries, whichever monitor is notified first.
+ */
+public final class PackageChangeMonitor {
+    private static PackageChangeMonitor sInstance;
+
+    private final List<Runnable> mListeners = new CopyOnWriteArrayList<>();
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private PackageMonitor mPackageMonitor;
+
+    /** @return the process-wide instance. */
+    public static synchronized PackageChangeMonitor getInstance() {
+        if (sInstance == null) {
+            sInstance = new PackageChangeMonitor();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    PackageChangeMonitor() {}
+
+    /** Have {@code listener} run on every package change, for the lifetime of the process. */
+    public void addListener(Runnable listener) {
+        mListeners.add(listener);
+    }
+
+    /** Start monitoring the packages of all users, unless monitored already. */
+    public void register(Context context) {
+        synchronized (mLock) {
+            if (mPackageMonitor != null) {
+                return;
+            }
+            mPackageMonitor = new PackageMonitor() {
+                @Override
+                public void onSomePackagesChanged() {
+                    notifyPackagesChanged();
+                }
+
+                @Override
+                public boolean onPackageChanged(
+                        String packageName, int uid, String[] components) {
+                    // Component enabled-state changes matter too, not just whole packages.
+                    return true;
+                }
+            };
+            mPackageMonitor.register(
+                    context.getApplicationContext(), Looper.getMainLooper(), UserHandle.ALL, true);
+        }
+    }
+
+    /** Notify the listeners that packages changed. */
+    public void notifyPackagesChanged() {
+        for (Runnable listener : mListeners) {
+            listener.run();
+        }
+    }
+}
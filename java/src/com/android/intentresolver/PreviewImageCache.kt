@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.ImageDecoder
+import android.util.Log
+import android.util.LruCache
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicInteger
+
+private const val TAG = "PreviewImageCache"
+
+/**
+ * Process-wide, two-tier cache of shared content thumbnails, so that re-sharing the same images
+ * doesn't have to go through the content provider again.
+ *
+ * The memory tier is bounded by the bitmaps' allocation size; the disk tier keeps compressed
+ * thumbnails in the app's cache directory, bounded by file size. Callers are responsible for
+ * building keys that change whenever the thumbnail would, i.e. that cover the content version
+ * (see [ImagePreviewImageLoader]); stale entries are never read again and are eventually evicted.
+ *
+ * Cached bitmaps are shared between callers and must not be modified or recycled.
+ */
+class PreviewImageCache @VisibleForTesting constructor(
+    maxMemoryBytes: Int,
+    private val directory: File,
+    private val maxDiskBytes: Long,
+) {
+    private val memoryCache = object : LruCache<String, Bitmap>(maxMemoryBytes) {
+        override fun sizeOf(key: String, value: Bitmap): Int = value.allocationByteCount
+    }
+
+    private val trimLock = Any()
+    private val writesSinceTrim = AtomicInteger()
+
+    /** @return the thumbnail cached under [key], from memory or else from disk, or null. */
+    @WorkerThread
+    fun get(key: String): Bitmap? =
+        memoryCache.get(key) ?: readFromDisk(key)?.also { memoryCache.put(key, it) }
+
+    /** Cache [bitmap] in memory under [key]. */
+    fun putInMemory(key: String, bitmap: Bitmap) {
+        memoryCache.put(key, bitmap)
+    }
+
+    /**
+     * Store a compressed copy of [bitmap] on disk under [key]. Hardware bitmaps may not be
+     * compressible, so this should be called with the thumbnail as decoded.
+     */
+    @WorkerThread
+    fun writeToDisk(key: String, bitmap: Bitmap) {
+        if (!directory.isDirectory && !directory.mkdirs()) return
+        val keyBytes = key.toByteArray(StandardCharsets.UTF_8)
+        val file = fileForKey(key)
+        val tempFile = File(directory, "${file.name}.${Thread.currentThread().id}$TEMP_FILE_SUFFIX")
+        try {
+            tempFile.outputStream().buffered().use { out ->
+                out.write(ByteBuffer.allocate(2 * Int.SIZE_BYTES)
+                    .putInt(MAGIC)
+                    .putInt(keyBytes.size)
+                    .array())
+                out.write(keyBytes)
+                if (!bitmap.compress(COMPRESS_FORMAT, COMPRESS_QUALITY, out)) {
+                    throw IOException("Failed to compress")
+                }
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE)
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to write cached thumbnail $file", e)
+            tempFile.delete()
+            return
+        }
+        if (writesSinceTrim.incrementAndGet() >= WRITES_PER_TRIM) {
+            writesSinceTrim.set(0)
+            trimToSize()
+        }
+    }
+
+    /** Remove all entries from both tiers. */
+    fun clear() {
+        memoryCache.evictAll()
+        directory.listFiles()?.forEach { it.delete() }
+    }
+
+    @WorkerThread
+    private fun readFromDisk(key: String): Bitmap? {
+        val file = fileForKey(key)
+        if (!file.exists()) return null
+        return try {
+            val buffer = ByteBuffer.wrap(file.readBytes())
+            if (buffer.remaining() < 2 * Int.SIZE_BYTES || buffer.getInt() != MAGIC) {
+                file.delete()
+                return null
+            }
+            val storedKey = ByteArray(buffer.getInt())
+            if (storedKey.size > buffer.remaining()) {
+                file.delete()
+                return null
+            }
+            buffer.get(storedKey)
+            if (key != String(storedKey, StandardCharsets.UTF_8)) {
+                // Digest collision; treat as a miss and let writeToDisk() overwrite it.
+                return null
+            }
+            // The default allocator picks hardware bitmaps where possible.
+            ImageDecoder.decodeBitmap(ImageDecoder.createSource(buffer.slice()))
+                .also { file.setLastModified(System.currentTimeMillis()) }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to read cached thumbnail $file", e)
+            file.delete()
+            null
+        } catch (e: RuntimeException) {
+            Log.w(TAG, "Failed to read cached thumbnail $file", e)
+            file.delete()
+            null
+        }
+    }
+
+    private fun trimToSize() {
+        synchronized(trimLock) {
+            val files = directory.listFiles { _, name -> name.endsWith(FILE_SUFFIX) } ?: return
+            var totalSize = files.sumOf { it.length() }
+            if (totalSize <= maxDiskBytes) return
+            // Evict the least recently used entries first.
+            files.sortBy { it.lastModified() }
+            for (file in files) {
+                if (totalSize <= maxDiskBytes) break
+                val size = file.length()
+                if (file.delete()) {
+                    totalSize -= size
+                }
+            }
+        }
+    }
+
+    private fun fileForKey(key: String) = File(directory, digest(key) + FILE_SUFFIX)
+
+    companion object {
+        private const val DIRECTORY_NAME = "preview_thumbnails"
+        private const val FILE_SUFFIX = ".thumb"
+        private const val TEMP_FILE_SUFFIX = ".tmp"
+
+        private const val MAGIC = 0x49525054 // "IRPT"
+        private val COMPRESS_FORMAT = Bitmap.CompressFormat.WEBP_LOSSY
+        private const val COMPRESS_QUALITY = 90
+
+        private const val MAX_MEMORY_BYTES = 16 * 1024 * 1024
+        private const val MAX_DISK_BYTES = 32L * 1024 * 1024
+        // Scanning the directory is comparatively expensive, so only check the size bound once
+        // every this many writes.
+        private const val WRITES_PER_TRIM = 16
+
+        private var instance: PreviewImageCache? = null
+
+        /** @return the process-wide instance, stored in the app's cache directory. */
+        @JvmStatic
+        @Synchronized
+        fun getInstance(context: Context): PreviewImageCache =
+            instance ?: PreviewImageCache(
+                MAX_MEMORY_BYTES,
+                File(context.applicationContext.cacheDir, DIRECTORY_NAME),
+                MAX_DISK_BYTES
+            ).also { instance = it }
+
+        private fun digest(key: String): String =
+            MessageDigest.getInstance("SHA-256")
+                .digest(key.toByteArray(StandardCharsets.UTF_8))
+                // Half of the digest is plenty to make collisions vanishingly rare.
+                .take(16)
+                .joinToString(separator = "") { "%02x".format(it) }
+    }
+}
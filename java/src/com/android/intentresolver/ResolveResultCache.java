@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.annotation.Nullable;
+import android.content.Intent;
+import android.content.pm.ResolveInfo;
+import android.os.UserHandle;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Process-wide cache of {@code PackageManager#queryIntentActivitiesAsUser} results, shared by all
+ * {@link ResolverListController} instances (i.e. by both profiles and by successive
+ * Resolver/Chooser sessions).
+ *
+ * Results are keyed by the parts of the intent that participate in resolution, as compared by
+ * {@link Intent#filterEquals}, and by the intent flags, together with the query flags and the
+ * user. Intents whose resolution depends on more than that (explicit components or packages,
+ * selectors, web intents or data URIs whose type has to be resolved from a provider) are never
+ * cached.
+ *
+ * The cache is cleared whenever packages change, through the {@link PackageChangeMonitor}.
+ */
+public final class ResolveResultCache {
+    private static final String TAG = "ResolveResultCache";
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_ENTRIES = 32;
+
+    private static ResolveResultCache sInstance;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final LruCache<Key, List<ResolveInfo>> mCache = new LruCache<>(MAX_ENTRIES);
+
+    @GuardedBy("mLock")
+    private int mGeneration;
+
+    @GuardedBy("mLock")
+    private int mHitCount;
+
+    @GuardedBy("mLock")
+    private int mMissCount;
+
+    /** @return the process-wide instance. */
+    public static synchronized ResolveResultCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new ResolveResultCache();
+            PackageChangeMonitor.getInstance().addListener(sInstance::invalidate);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    ResolveResultCache() {}
+
+    /**
+     * Compute the cache key for a query of {@code intent} with the given PackageManager
+     * {@code flags} on behalf of {@code user}.
+     *
+     * @return the key, or null if results for this intent must not be cached.
+     */
+    @Nullable
+    public static Key makeKey(Intent intent, int flags, UserHandle user) {
+        if (intent.getComponent() != null
+                || intent.getPackage() != null
+                || intent.getSelector() != null
+                || intent.isWebIntent()) {
+            return null;
+        }
+        if (intent.getData() != null && intent.getType() == null) {
+            // The type would have to be resolved from the content provider.
+            return null;
+        }
+        return new Key(intent, flags, user.getIdentifier());
+    }
+
+    /**
+     * @return a copy of the cached resolutions for {@code key}, or null on a cache miss. The
+     * {@link ResolveInfo} records are copied so callers are free to modify them.
+     */
+    @Nullable
+    public List<ResolveInfo> get(Key key) {
+        final List<ResolveInfo> cached;
+        synchronized (mLock) {
+            cached = mCache.get(key);
+            if (cached == null) {
+                mMissCount++;
+                return null;
+            }
+            mHitCount++;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Cache hit for " + key);
+        }
+        return copyOf(cached);
+    }
+
+    /**
+     * Store the resolutions for {@code key}, unless the cache has been invalidated since
+     * {@code generation} was obtained from {@link #getGeneration()}.
+     */
+    public void put(Key key, int generation, List<ResolveInfo> infos) {
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                // Packages changed while this query was in flight.
+                return;
+            }
+            mCache.put(key, copyOf(infos));
+        }
+    }
+
+    /**
+     * @return a token to pass to {@link #put} so that results from a query that raced with an
+     * invalidation are dropped.
+     */
+    public int getGeneration() {
+        synchronized (mLock) {
+            return mGeneration;
+        }
+    }
+
+    /** Drop all cached resolutions. */
+    public void invalidate() {
+        synchronized (mLock) {
+            mGeneration++;
+            mCache.evictAll();
+        }
+    }
+
+    /** @return the number of lookups served from the cache. */
+    public int getHitCount() {
+        synchronized (mLock) {
+            return mHitCount;
+        }
+    }
+
+    /** @return the number of lookups that had to query the PackageManager. */
+    public int getMissCount() {
+        synchronized (mLock) {
+            return mMissCount;
+        }
+    }
+
+    private static List<ResolveInfo> copyOf(List<ResolveInfo> infos) {
+        final List<ResolveInfo> copy = new ArrayList<>(infos.size());
+        for (ResolveInfo info : infos) {
+            copy.add(new ResolveInfo(info));
+        }
+        return copy;
+    }
+
+    /** The inputs of a resolution query. */
+    public static final class Key {
+        // Only holds the parts of the intent compared by Intent#filterEquals.
+        private final Intent mFilter;
+        private final int mIntentFlags;
+        private final int mFlags;
+        private final int mUserId;
+
+        private Key(Intent intent, int flags, int userId) {
+            mFilter = intent.cloneFilter();
+            mIntentFlags = intent.getFlags();
+            mFlags = flags;
+            mUserId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mIntentFlags == other.mIntentFlags
+                    && mFlags == other.mFlags
+                    && mUserId == other.mUserId
+                    && mFilter.filterEquals(other.mFilter);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mFilter.filterHashCode(), mIntentFlags, mFlags, mUserId);
+        }
+
+        @Override
+        public String toString() {
+            return "Key{intent=" + mFilter + ", intentFlags=0x"
+                    + Integer.toHexString(mIntentFlags) + ", flags=0x"
+                    + Integer.toHexString(mFlags) + ", user=" + mUserId + "}";
+        }
+    }
+}
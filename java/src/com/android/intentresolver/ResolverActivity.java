@@ -353,6 +353,9 @@ public class ResolverActivity extends FragmentActivity implements
         setTheme(appliedThemeResId());
         super.onCreate(savedInstanceState);
 
+        // Keep the caches shared across sessions up to date, including in between sessions.
+        PackageChangeMonitor.getInstance().register(this);
+
         // Determine whether we should show that intent is forwarded
         // from managed profile to owner or other way around.
         setProfileSwitchMessage(intent.getContentUserHint());
@@ -1710,7 +1713,9 @@ public class ResolverActivity extends FragmentActivity implements
                     new ResolverListAdapter.ViewHolder(icon).bindIcon(otherProfileResolveInfo);
                 }
             }
-        }.execute();
+        }.executeOnExecutor(
+                TargetLoaderExecutor.getInstance().forPriority(
+                        TargetLoaderExecutor.PRIORITY_HIGH));
 
         ((TextView) findViewById(com.android.internal.R.id.open_cross_profile)).setText(
                 getResources().getString(
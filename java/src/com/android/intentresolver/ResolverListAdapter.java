@@ -21,6 +21,7 @@ import static android.content.Context.ACTIVITY_SERVICE;
 import android.animation.ObjectAnimator;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
+import android.annotation.WorkerThread;
 import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.Context;
@@ -57,6 +58,7 @@ import com.google.common.collect.ImmutableList;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -84,6 +86,8 @@ public class ResolverListAdapter extends BaseAdapter {
 
     private final Map<DisplayResolveInfo, LoadIconTask> mIconLoaders = new HashMap<>();
     private final Map<DisplayResolveInfo, LoadLabelTask> mLabelLoaders = new HashMap<>();
+    // Number of views each target is currently bound to.
+    private final Map<TargetInfo, Integer> mBoundViewCounts = new HashMap<>();
 
     private ResolveInfo mLastChosen;
     private DisplayResolveInfo mOtherProfile;
@@ -94,9 +98,18 @@ public class ResolverListAdapter extends BaseAdapter {
     private List<ResolvedComponentInfo> mUnfilteredResolveList;
 
     private int mLastChosenPosition = -1;
+    // Number of leading sorted components already added by processRankedPrefix().
+    private int mProcessedPrefixCount;
     private boolean mFilterLastUsed;
     private Runnable mPostListReadyRunnable;
     private boolean mIsTabLoaded;
+    // The components last passed to the sorting task, to order again if the ranking is updated.
+    @Nullable
+    private List<ResolvedComponentInfo> mRankedComponents;
+    // The order from a ranking update that arrived before the list was fully built, to apply once
+    // it is.
+    @Nullable
+    private List<ResolvedComponentInfo> mPendingRankedOrder;
 
     public ResolverListAdapter(
             Context context,
@@ -125,6 +138,8 @@ public class ResolverListAdapter extends BaseAdapter {
         final ActivityManager am = (ActivityManager) mContext.getSystemService(ACTIVITY_SERVICE);
         mIconDpi = am.getLauncherLargeIconDensity();
         mPresentationFactory = new TargetPresentationGetter.Factory(mContext, mIconDpi);
+        mResolverListController.setRankingUpdatedCallback(
+                () -> mContext.getMainThreadHandler().post(this::updateRanking));
     }
 
     public final DisplayResolveInfo getFirstDisplayResolveInfo() {
@@ -136,6 +151,7 @@ public class ResolverListAdapter extends BaseAdapter {
     }
 
     public void handlePackagesChanged() {
+        PackageChangeMonitor.getInstance().notifyPackagesChanged();
         mResolverListCommunicator.onHandlePackagesChanged(this);
     }
 
@@ -219,6 +235,7 @@ public class ResolverListAdapter extends BaseAdapter {
         mDisplayList.clear();
         mIsTabLoaded = false;
         mLastChosenPosition = -1;
+        mProcessedPrefixCount = 0;
 
         List<ResolvedComponentInfo> currentResolveList = getInitialRebuiltResolveList();
 
@@ -390,6 +407,8 @@ public class ResolverListAdapter extends BaseAdapter {
      */
     boolean finishRebuildingListWithFilteredResults(
             @Nullable List<ResolvedComponentInfo> filteredResolveList, boolean doPostProcessing) {
+        mRankedComponents = null;
+        mPendingRankedOrder = null;
         if (filteredResolveList == null || filteredResolveList.size() < 2) {
             // No asynchronous work to do.
             setPlaceholderCount(0);
@@ -405,12 +424,22 @@ public class ResolverListAdapter extends BaseAdapter {
 
         // Send an "incomplete" list-ready while the async task is running.
         postListReadyRunnable(doPostProcessing, /* rebuildCompleted */ false);
-        createSortingTask(doPostProcessing).execute(filteredResolveList);
+        mRankedComponents = filteredResolveList;
+        // Only queue the sorting once the ranking has been computed, straight from the thread
+        // delivering it, rather than have the sorting thread wait for it.
+        createSortingTask(doPostProcessing).executeOnExecutor(
+                sortingTask -> {
+                    if (!mResolverListController.computeAsync(filteredResolveList,
+                            () -> AsyncTask.SERIAL_EXECUTOR.execute(sortingTask))) {
+                        AsyncTask.SERIAL_EXECUTOR.execute(sortingTask);
+                    }
+                },
+                filteredResolveList);
         return false;
     }
 
     AsyncTask<List<ResolvedComponentInfo>,
-            Void,
+            ?,
             List<ResolvedComponentInfo>> createSortingTask(boolean doPostProcessing) {
         return new AsyncTask<List<ResolvedComponentInfo>,
                 Void,
@@ -432,60 +461,158 @@ public class ResolverListAdapter extends BaseAdapter {
         };
     }
 
+    /**
+     * Order the targets again once ranking results arrive after they were ordered provisionally
+     * (because the ranker timed out or was still connecting), moving the already presented targets
+     * in place. Nothing is updated if none of them moved.
+     */
+    private void updateRanking() {
+        final List<ResolvedComponentInfo> components = mRankedComponents;
+        if (components == null) {
+            return;
+        }
+        // Queued behind the sorting task, so the components are no longer being sorted. They may
+        // still be read on the main thread to build the list though, so a copy is ordered.
+        new AsyncTask<Void, Void, List<ResolvedComponentInfo>>() {
+            @Override
+            protected List<ResolvedComponentInfo> doInBackground(Void... voids) {
+                if (!mResolverListController.updateRanking()) {
+                    return null;
+                }
+                final List<ResolvedComponentInfo> reordered = new ArrayList<>(components);
+                sortRankedComponents(reordered);
+                return reordered;
+            }
+            @Override
+            protected void onPostExecute(List<ResolvedComponentInfo> reordered) {
+                if (reordered == null || components != mRankedComponents) {
+                    return;
+                }
+                if (mIsTabLoaded) {
+                    reorderDisplayList(reordered);
+                } else {
+                    // Still being built; the rest of the targets are added in the old order.
+                    mPendingRankedOrder = reordered;
+                }
+            }
+        }.execute();
+    }
+
+    /** Order {@code components} again after the ranking was updated. */
+    @WorkerThread
+    void sortRankedComponents(List<ResolvedComponentInfo> components) {
+        mResolverListController.sort(components);
+    }
+
+    private void reorderDisplayList(List<ResolvedComponentInfo> sortedComponents) {
+        final int rankedCount = getRankedComponentCount(sortedComponents.size());
+        final Map<ComponentName, Integer> ranks = new HashMap<>();
+        for (int i = 0; i < sortedComponents.size(); i++) {
+            ranks.putIfAbsent(
+                    sortedComponents.get(i).name, (i < rankedCount) ? i : Integer.MAX_VALUE);
+        }
+        final List<DisplayResolveInfo> previousList = new ArrayList<>(mDisplayList);
+        // Targets from the initial intents aren't ranked and stay at the top, and the components
+        // past the ranked ones keep their order at the bottom. The sort is stable.
+        mDisplayList.sort(Comparator.comparingInt(
+                target -> ranks.getOrDefault(target.getResolvedComponentName(), -1)));
+        final int presentedCount = Math.min(getRankedTargetDisplayCount(), mDisplayList.size());
+        int firstMoved = -1;
+        int lastMoved = -1;
+        for (int i = 0; i < presentedCount; i++) {
+            if (mDisplayList.get(i) != previousList.get(i)) {
+                if (firstMoved < 0) {
+                    firstMoved = i;
+                }
+                lastMoved = i;
+            }
+        }
+        if (firstMoved < 0) {
+            // The provisional ranking was right; leave the presented targets alone.
+            return;
+        }
+        Log.i(TAG, "Updated ranking moved targets " + firstMoved + " to " + lastMoved);
+        if (mLastChosenPosition >= 0) {
+            mLastChosenPosition = mDisplayList.indexOf(previousList.get(mLastChosenPosition));
+        }
+        onRankedTargetsMoved(firstMoved, lastMoved);
+    }
+
+    /**
+     * @return how many of the {@code sortedCount} components ordered by
+     * {@link #sortRankedComponents} are in ranked order; the rest are in no particular order.
+     */
+    int getRankedComponentCount(int sortedCount) {
+        return sortedCount;
+    }
+
+    /** @return how many of the leading display list targets are presented in ranked order. */
+    int getRankedTargetDisplayCount() {
+        return mDisplayList.size();
+    }
+
+    /**
+     * Called when an updated ranking moved the presented display list targets between
+     * {@code firstMoved} and {@code lastMoved} (inclusive), without changing their count.
+     */
+    void onRankedTargetsMoved(int firstMoved, int lastMoved) {
+        // The list view has no finer-grained notification.
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Present the first, already-ranked {@code rankedPrefix} components while the rest of the
+     * rebuild is still pending. The list later passed to {@link #processSortedList} must begin
+     * with the same components; only the remainder will be added then.
+     *
+     * @param components the components being sorted; the prefix is dropped if the list was
+     * rebuilt since they were passed to the sorting task.
+     */
+    protected void processRankedPrefix(List<ResolvedComponentInfo> components,
+            List<ResolvedComponentInfo> rankedPrefix) {
+        if (components != mRankedComponents) {
+            // A newer rebuild is pending, and will present its own components.
+            return;
+        }
+        if (!mDisplayList.isEmpty() || rankedPrefix.isEmpty()) {
+            return;
+        }
+        Trace.beginSection("ResolverListAdapter#processRankedPrefix:" + rankedPrefix.size());
+        addInitialIntentTargets();
+        for (ResolvedComponentInfo rci : rankedPrefix) {
+            if (rci.getResolveInfoAt(0) != null) {
+                addResolveInfoWithAlternates(rci);
+            }
+        }
+        mProcessedPrefixCount = rankedPrefix.size();
+        notifyDataSetChanged();
+        Trace.endSection();
+    }
+
     protected void processSortedList(List<ResolvedComponentInfo> sortedComponents,
             boolean doPostProcessing) {
         final int n = sortedComponents != null ? sortedComponents.size() : 0;
         Trace.beginSection("ResolverListAdapter#processSortedList:" + n);
         if (n != 0) {
-            // First put the initial items at the top.
-            if (mInitialIntents != null) {
-                for (int i = 0; i < mInitialIntents.length; i++) {
-                    Intent ii = mInitialIntents[i];
-                    if (ii == null) {
-                        continue;
-                    }
-                    // Because of AIDL bug, resolveActivityInfo can't accept subclasses of Intent.
-                    final Intent rii = (ii.getClass() == Intent.class) ? ii : new Intent(ii);
-                    ActivityInfo ai = rii.resolveActivityInfo(mPm, 0);
-                    if (ai == null) {
-                        Log.w(TAG, "No activity found for " + ii);
-                        continue;
-                    }
-                    ResolveInfo ri = new ResolveInfo();
-                    ri.activityInfo = ai;
-                    UserManager userManager =
-                            (UserManager) mContext.getSystemService(Context.USER_SERVICE);
-                    if (ii instanceof LabeledIntent) {
-                        LabeledIntent li = (LabeledIntent) ii;
-                        ri.resolvePackageName = li.getSourcePackage();
-                        ri.labelRes = li.getLabelResource();
-                        ri.nonLocalizedLabel = li.getNonLocalizedLabel();
-                        ri.icon = li.getIconResource();
-                        ri.iconResourceId = ri.icon;
-                    }
-                    if (userManager.isManagedProfile()) {
-                        ri.noResourceId = true;
-                        ri.icon = 0;
-                    }
-
-                    addResolveInfo(DisplayResolveInfo.newDisplayResolveInfo(
-                            ii,
-                            ri,
-                            ri.loadLabel(mPm),
-                            null,
-                            ii,
-                            mPresentationFactory.makePresentationGetter(ri)));
-                }
+            // First put the initial items at the top, unless a ranked prefix already did.
+            if (mProcessedPrefixCount == 0) {
+                addInitialIntentTargets();
             }
 
-
-            for (ResolvedComponentInfo rci : sortedComponents) {
+            for (int i = mProcessedPrefixCount; i < n; i++) {
+                final ResolvedComponentInfo rci = sortedComponents.get(i);
                 final ResolveInfo ri = rci.getResolveInfoAt(0);
                 if (ri != null) {
                     addResolveInfoWithAlternates(rci);
                 }
             }
         }
+        mProcessedPrefixCount = 0;
+        if (mPendingRankedOrder != null) {
+            final List<ResolvedComponentInfo> rankedOrder = mPendingRankedOrder;
+            mPendingRankedOrder = null;
+            reorderDisplayList(rankedOrder);
+        }
 
         mResolverListCommunicator.sendVoiceChoicesIfNeeded();
         postListReadyRunnable(doPostProcessing, /* rebuildCompleted */ true);
@@ -493,6 +620,49 @@ public class ResolverListAdapter extends BaseAdapter {
         Trace.endSection();
     }
 
+    private void addInitialIntentTargets() {
+        if (mInitialIntents == null) {
+            return;
+        }
+        for (int i = 0; i < mInitialIntents.length; i++) {
+            Intent ii = mInitialIntents[i];
+            if (ii == null) {
+                continue;
+            }
+            // Because of AIDL bug, resolveActivityInfo can't accept subclasses of Intent.
+            final Intent rii = (ii.getClass() == Intent.class) ? ii : new Intent(ii);
+            ActivityInfo ai = rii.resolveActivityInfo(mPm, 0);
+            if (ai == null) {
+                Log.w(TAG, "No activity found for " + ii);
+                continue;
+            }
+            ResolveInfo ri = new ResolveInfo();
+            ri.activityInfo = ai;
+            UserManager userManager =
+                    (UserManager) mContext.getSystemService(Context.USER_SERVICE);
+            if (ii instanceof LabeledIntent) {
+                LabeledIntent li = (LabeledIntent) ii;
+                ri.resolvePackageName = li.getSourcePackage();
+                ri.labelRes = li.getLabelResource();
+                ri.nonLocalizedLabel = li.getNonLocalizedLabel();
+                ri.icon = li.getIconResource();
+                ri.iconResourceId = ri.icon;
+            }
+            if (userManager.isManagedProfile()) {
+                ri.noResourceId = true;
+                ri.icon = 0;
+            }
+
+            addResolveInfo(DisplayResolveInfo.newDisplayResolveInfo(
+                    ii,
+                    ri,
+                    ri.loadLabel(mPm),
+                    null,
+                    ii,
+                    mPresentationFactory.makePresentationGetter(ri)));
+        }
+    }
+
     /**
      * Some necessary methods for creating the list are initiated in onCreate and will also
      * determine the layout known. We therefore can't update the UI inline and post to the
@@ -671,6 +841,7 @@ public class ResolverListAdapter extends BaseAdapter {
 
     protected void onBindView(View view, TargetInfo info, int position) {
         final ViewHolder holder = (ViewHolder) view.getTag();
+        onTargetBound(holder, info);
         if (info == null) {
             holder.icon.setImageDrawable(loadIconPlaceholder());
             holder.bindLabel("", "", false);
@@ -690,17 +861,61 @@ public class ResolverListAdapter extends BaseAdapter {
             }
             holder.bindIcon(info);
             if (!dri.hasDisplayIcon()) {
-                loadIcon(dri);
+                loadIcon(dri, TargetLoaderExecutor.PRIORITY_HIGH);
             }
         }
     }
 
-    protected final void loadIcon(DisplayResolveInfo info) {
+    /**
+     * Track the target bound to {@code holder}. Once a target is no longer bound to any view, its
+     * outstanding icon and label loading is cancelled (and will be requested again if the target
+     * gets bound again).
+     */
+    protected final void onTargetBound(ViewHolder holder, @Nullable TargetInfo info) {
+        final TargetInfo previous = holder.boundTarget;
+        if (previous == info) {
+            return;
+        }
+        holder.boundTarget = info;
+        if (info != null) {
+            mBoundViewCounts.merge(info, 1, Integer::sum);
+        }
+        if (previous != null) {
+            final Integer count = mBoundViewCounts.merge(previous, -1, Integer::sum);
+            if (count != null && count <= 0) {
+                mBoundViewCounts.remove(previous);
+                cancelPendingLoads(previous);
+            }
+        }
+    }
+
+    /**
+     * Cancel any loading for {@code info} that hasn't started yet. Loading that is already running
+     * is left to finish, and its result is still used.
+     */
+    protected void cancelPendingLoads(TargetInfo info) {
+        final LoadIconTask iconTask = mIconLoaders.get(info);
+        if (iconTask != null && iconTask.cancelIfNotStarted()) {
+            mIconLoaders.remove(info);
+        }
+        final LoadLabelTask labelTask = mLabelLoaders.get(info);
+        if (labelTask != null && labelTask.cancelIfNotStarted()) {
+            mLabelLoaders.remove(info);
+        }
+    }
+
+    protected final void loadIcon(
+            DisplayResolveInfo info, @TargetLoaderExecutor.Priority int priority) {
         LoadIconTask task = mIconLoaders.get(info);
+        if (task != null && task.mPriority < priority && task.cancelIfNotStarted()) {
+            // Still waiting for a worker at a lower priority; requeue it at the new one.
+            task = null;
+        }
         if (task == null) {
             task = new LoadIconTask(info);
+            task.mPriority = priority;
             mIconLoaders.put(info, task);
-            task.execute();
+            task.executeOnExecutor(TargetLoaderExecutor.getInstance().forPriority(priority));
         }
     }
 
@@ -709,7 +924,9 @@ public class ResolverListAdapter extends BaseAdapter {
         if (task == null) {
             task = createLoadLabelTask(info);
             mLabelLoaders.put(info, task);
-            task.execute();
+            task.executeOnExecutor(
+                    TargetLoaderExecutor.getInstance().forPriority(
+                            TargetLoaderExecutor.PRIORITY_HIGH));
         }
     }
 
@@ -725,10 +942,13 @@ public class ResolverListAdapter extends BaseAdapter {
         if (mResolverListController != null) {
             mResolverListController.destroy();
         }
+        mRankedComponents = null;
+        mPendingRankedOrder = null;
         cancelTasks(mIconLoaders.values());
         cancelTasks(mLabelLoaders.values());
         mIconLoaders.clear();
         mLabelLoaders.clear();
+        mBoundViewCounts.clear();
     }
 
     private <T extends AsyncTask> void cancelTasks(Collection<T> tasks) {
@@ -790,7 +1010,9 @@ public class ResolverListAdapter extends BaseAdapter {
                 protected void onPostExecute(Drawable d) {
                     iconView.setImageDrawable(d);
                 }
-            }.execute();
+            }.executeOnExecutor(
+                    TargetLoaderExecutor.getInstance().forPriority(
+                            TargetLoaderExecutor.PRIORITY_HIGH));
         }
     }
 
@@ -921,6 +1143,9 @@ public class ResolverListAdapter extends BaseAdapter {
         public TextView text2;
         public ImageView icon;
 
+        @Nullable
+        TargetInfo boundTarget;
+
         @VisibleForTesting
         public ViewHolder(View view) {
             itemView = view;
@@ -976,7 +1201,7 @@ public class ResolverListAdapter extends BaseAdapter {
         }
     }
 
-    protected class LoadLabelTask extends AsyncTask<Void, Void, CharSequence[]> {
+    protected class LoadLabelTask extends TargetLoaderExecutor.Task<CharSequence[]> {
         private final DisplayResolveInfo mDisplayResolveInfo;
 
         protected LoadLabelTask(DisplayResolveInfo dri) {
@@ -984,7 +1209,7 @@ public class ResolverListAdapter extends BaseAdapter {
         }
 
         @Override
-        protected CharSequence[] doInBackground(Void... voids) {
+        protected CharSequence[] loadInBackground() {
             TargetPresentationGetter pg = mPresentationFactory.makePresentationGetter(
                     mDisplayResolveInfo.getResolveInfo());
 
@@ -1027,9 +1252,11 @@ public class ResolverListAdapter extends BaseAdapter {
         }
     }
 
-    class LoadIconTask extends AsyncTask<Void, Void, Drawable> {
+    class LoadIconTask extends TargetLoaderExecutor.Task<Drawable> {
         protected final DisplayResolveInfo mDisplayResolveInfo;
         private final ResolveInfo mResolveInfo;
+        @TargetLoaderExecutor.Priority
+        private int mPriority = TargetLoaderExecutor.PRIORITY_HIGH;
 
         LoadIconTask(DisplayResolveInfo dri) {
             mDisplayResolveInfo = dri;
@@ -1037,7 +1264,7 @@ public class ResolverListAdapter extends BaseAdapter {
         }
 
         @Override
-        protected Drawable doInBackground(Void... params) {
+        protected Drawable loadInBackground() {
             try {
                 return loadIconForResolveInfo(mResolveInfo);
             } catch (Exception e) {
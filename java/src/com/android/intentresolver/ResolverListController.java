@@ -17,6 +17,7 @@
 
 package com.android.intentresolver;
 
+import android.annotation.Nullable;
 import android.annotation.WorkerThread;
 import android.app.ActivityManager;
 import android.app.AppGlobals;
@@ -34,13 +35,22 @@ import android.util.Log;
 import com.android.intentresolver.chooser.DisplayResolveInfo;
 import com.android.intentresolver.model.AbstractResolverComparator;
 import com.android.intentresolver.model.ResolverRankerServiceResolverComparator;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * A helper for the ResolverActivity that exposes methods to retrieve, filter and sort its list of
@@ -59,8 +69,20 @@ public class ResolverListController {
     private static final String TAG = "ResolverListController";
     private static final boolean DEBUG = false;
 
+    private static final int MAX_RESOLVE_THREADS = 4;
+    private static final long RESOLVE_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    private static ExecutorService sResolveExecutor;
+
+    private final ResolveResultCache mResolveResultCache;
+
     private AbstractResolverComparator mResolverComparator;
+    @GuardedBy("this")
     private boolean isComputed = false;
+    // Completed once the ranking has been computed (or has timed out).
+    @GuardedBy("this")
+    @Nullable
+    private CompletableFuture<Void> mComputeResult;
 
     public ResolverListController(
             Context context,
@@ -80,12 +102,26 @@ public class ResolverListController {
             String referrerPackage,
             int launchedFromUid,
             AbstractResolverComparator resolverComparator) {
+        this(context, pm, targetIntent, referrerPackage, launchedFromUid, resolverComparator,
+                ResolveResultCache.getInstance());
+    }
+
+    @VisibleForTesting
+    public ResolverListController(
+            Context context,
+            PackageManager pm,
+            Intent targetIntent,
+            String referrerPackage,
+            int launchedFromUid,
+            AbstractResolverComparator resolverComparator,
+            ResolveResultCache resolveResultCache) {
         mContext = context;
         mpm = pm;
         mLaunchedFromUid = launchedFromUid;
         mTargetIntent = targetIntent;
         mReferrerPackage = referrerPackage;
         mResolverComparator = resolverComparator;
+        mResolveResultCache = resolveResultCache;
     }
 
     @VisibleForTesting
@@ -124,8 +160,10 @@ public class ResolverListController {
 
     private List<ResolvedComponentInfo> getResolversForIntentAsUserInternal(
             List<Intent> intents, UserHandle userHandle, int baseFlags) {
-        List<ResolvedComponentInfo> resolvedComponents = null;
-        for (int i = 0, N = intents.size(); i < N; i++) {
+        final int count = intents.size();
+        final Intent[] queryIntents = new Intent[count];
+        final int[] queryFlags = new int[count];
+        for (int i = 0; i < count; i++) {
             Intent intent = intents.get(i);
             int flags = baseFlags;
             if (intent.isWebIntent()
@@ -133,48 +171,145 @@ public class ResolverListController {
                 flags |= PackageManager.MATCH_INSTANT;
             }
             // Because of AIDL bug, queryIntentActivitiesAsUser can't accept subclasses of Intent.
-            intent = (intent.getClass() == Intent.class) ? intent : new Intent(
+            queryIntents[i] = (intent.getClass() == Intent.class) ? intent : new Intent(
                     intent);
-            final List<ResolveInfo> infos = mpm.queryIntentActivitiesAsUser(intent, flags,
-                    userHandle);
+            queryFlags[i] = flags;
+        }
+
+        // Alternate intents are resolved in parallel with the first one, which is resolved on the
+        // calling thread once they are all submitted so the common single-intent case never hops
+        // threads.
+        final List<Future<List<ResolveInfo>>> pendingQueries = new ArrayList<>(count);
+        pendingQueries.add(null);
+        for (int i = 1; i < count; i++) {
+            final Intent queryIntent = queryIntents[i];
+            final int flags = queryFlags[i];
+            pendingQueries.add(getResolveExecutor().submit(
+                    () -> queryIntentActivitiesAsUser(queryIntent, flags, userHandle)));
+        }
+        if (count > 0) {
+            pendingQueries.set(0, CompletableFuture.completedFuture(
+                    queryIntentActivitiesAsUser(queryIntents[0], queryFlags[0], userHandle)));
+        }
+
+        // Merge in the order of the payload intents so that the result doesn't depend on which
+        // query completes first.
+        List<ResolvedComponentInfo> resolvedComponents = null;
+        Map<ComponentName, ResolvedComponentInfo> index = null;
+        for (int i = 0; i < count; i++) {
+            final List<ResolveInfo> infos = awaitQuery(pendingQueries.get(i));
             if (infos != null) {
                 if (resolvedComponents == null) {
                     resolvedComponents = new ArrayList<>();
+                    index = new HashMap<>();
                 }
-                addResolveListDedupe(resolvedComponents, intent, infos);
+                addResolveListDedupe(resolvedComponents, index, queryIntents[i], infos);
             }
         }
         return resolvedComponents;
     }
 
+    @Nullable
+    private static List<ResolveInfo> awaitQuery(Future<List<ResolveInfo>> query) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return query.get();
+                } catch (InterruptedException e) {
+                    // The PackageManager queries are short and bounded; finish the merge rather
+                    // than returning a partial list, and restore the interrupt afterwards.
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getResolveExecutor() {
+        if (sResolveExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    MAX_RESOLVE_THREADS,
+                    MAX_RESOLVE_THREADS,
+                    RESOLVE_THREAD_KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>());
+            executor.allowCoreThreadTimeOut(true);
+            sResolveExecutor = executor;
+        }
+        return sResolveExecutor;
+    }
+
+    @Nullable
+    private List<ResolveInfo> queryIntentActivitiesAsUser(
+            Intent intent, int flags, UserHandle userHandle) {
+        final ResolveResultCache.Key key = ResolveResultCache.makeKey(intent, flags, userHandle);
+        if (key == null) {
+            return mpm.queryIntentActivitiesAsUser(intent, flags, userHandle);
+        }
+        List<ResolveInfo> infos = mResolveResultCache.get(key);
+        if (infos == null) {
+            final int generation = mResolveResultCache.getGeneration();
+            infos = mpm.queryIntentActivitiesAsUser(intent, flags, userHandle);
+            if (infos != null) {
+                mResolveResultCache.put(key, generation, infos);
+            }
+        }
+        return infos;
+    }
+
     @VisibleForTesting
     public void addResolveListDedupe(
             List<ResolvedComponentInfo> into, Intent intent, List<ResolveInfo> from) {
+        final Map<ComponentName, ResolvedComponentInfo> index = new HashMap<>();
+        for (int i = 0, n = into.size(); i < n; i++) {
+            final ResolvedComponentInfo rci = into.get(i);
+            index.putIfAbsent(rci.name, rci);
+        }
+        addResolveListDedupe(into, index, intent, from);
+    }
+
+    /**
+     * Merge {@code from} into {@code into}, where {@code index} maps the component name of every
+     * record already in {@code into} to the first such record. The index is kept up to date with
+     * the records added by this call.
+     */
+    private void addResolveListDedupe(
+            List<ResolvedComponentInfo> into,
+            Map<ComponentName, ResolvedComponentInfo> index,
+            Intent intent,
+            List<ResolveInfo> from) {
         final int fromCount = from.size();
         final int intoCount = into.size();
         for (int i = 0; i < fromCount; i++) {
             final ResolveInfo newInfo = from.get(i);
-            boolean found = false;
-            // Only loop to the end of into as it was before we started; no dupes in from.
-            for (int j = 0; j < intoCount; j++) {
-                final ResolvedComponentInfo rci = into.get(j);
-                if (isSameResolvedComponent(newInfo, rci)) {
-                    found = true;
-                    rci.add(intent, newInfo);
-                    break;
-                }
-            }
-            if (!found) {
-                final ComponentName name = new ComponentName(
-                        newInfo.activityInfo.packageName, newInfo.activityInfo.name);
+            final ComponentName name = new ComponentName(
+                    newInfo.activityInfo.packageName, newInfo.activityInfo.name);
+            // Only match against into as it was before we started; no dupes in from.
+            final ResolvedComponentInfo existing = index.get(name);
+            if (existing != null) {
+                existing.add(intent, newInfo);
+            } else {
                 final ResolvedComponentInfo rci = new ResolvedComponentInfo(name, intent, newInfo);
                 rci.setPinned(isComponentPinned(name));
                 into.add(rci);
             }
         }
+        for (int i = intoCount, n = into.size(); i < n; i++) {
+            final ResolvedComponentInfo rci = into.get(i);
+            index.putIfAbsent(rci.name, rci);
+        }
     }
 
-
     /**
      * Whether this component is pinned by the user. Always false for resolver; overridden in
      * Chooser.
@@ -245,16 +380,86 @@ public class ResolverListController {
         return listToReturn;
     }
 
+    /**
+     * Start computing the ranking of {@code inputList} in the background, unless it has been
+     * computed (or started) already, and run {@code onComputed} once the targets can be ordered
+     * by {@link #sort} and {@link #topK} without waiting. If the ranking service is slow, the
+     * targets are ordered provisionally and the ranking may be updated later; see
+     * {@link #setRankingUpdatedCallback}.
+     *
+     * @return whether {@code onComputed} will be run; if false, the targets can be ordered right
+     * away.
+     */
+    public boolean computeAsync(List<ResolvedComponentInfo> inputList, Runnable onComputed) {
+        final CompletableFuture<Void> computeResult;
+        synchronized (this) {
+            if (isComputed || mResolverComparator == null) {
+                return false;
+            }
+            computeResult = startCompute(inputList);
+        }
+        computeResult.thenRun(onComputed);
+        return true;
+    }
+
+    @GuardedBy("this")
+    private CompletableFuture<Void> startCompute(List<ResolvedComponentInfo> inputList) {
+        if (mComputeResult == null) {
+            final CompletableFuture<Void> computeResult = new CompletableFuture<>();
+            mComputeResult = computeResult;
+            final AbstractResolverComparator comparator = mResolverComparator;
+            // The comparator may still read the targets after timing out, while they're sorted.
+            final List<ResolvedComponentInfo> targets = new ArrayList<>(inputList);
+            comparator.setCallBack(() -> {
+                synchronized (ResolverListController.this) {
+                    isComputed = true;
+                }
+                computeResult.complete(null);
+            });
+            getResolveExecutor().execute(() -> comparator.compute(targets));
+        }
+        return mComputeResult;
+    }
+
     private void compute(List<ResolvedComponentInfo> inputList) throws InterruptedException {
-        if (mResolverComparator == null) {
-            Log.d(TAG, "Comparator has already been destroyed; skipped.");
-            return;
+        final CompletableFuture<Void> computeResult;
+        synchronized (this) {
+            if (isComputed) {
+                return;
+            }
+            if (mResolverComparator == null) {
+                Log.d(TAG, "Comparator has already been destroyed; skipped.");
+                return;
+            }
+            computeResult = startCompute(inputList);
+        }
+        try {
+            computeResult.get();
+        } catch (ExecutionException e) {
+            // The future is only ever completed normally.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Set a callback to run when ranking results arrive after the targets were ordered
+     * provisionally. The callback may run on any thread; the targets should then be
+     * ordered again after calling {@link #updateRanking()}.
+     */
+    public void setRankingUpdatedCallback(@Nullable Runnable onRankingUpdated) {
+        if (mResolverComparator != null) {
+            mResolverComparator.setLateResultCallback(onRankingUpdated);
         }
-        final CountDownLatch finishComputeSignal = new CountDownLatch(1);
-        mResolverComparator.setCallBack(() -> finishComputeSignal.countDown());
-        mResolverComparator.compute(inputList);
-        finishComputeSignal.await();
-        isComputed = true;
+    }
+
+    /**
+     * Apply the ranking results that arrived after the targets were ordered provisionally, if any.
+     *
+     * @return whether the ranking changed, i.e. whether the targets have to be ordered again.
+     */
+    @WorkerThread
+    public boolean updateRanking() {
+        return mResolverComparator != null && mResolverComparator.applyLateResult();
     }
 
     @VisibleForTesting
@@ -262,9 +467,7 @@ public class ResolverListController {
     public void sort(List<ResolvedComponentInfo> inputList) {
         try {
             long beforeRank = System.currentTimeMillis();
-            if (!isComputed) {
-                compute(inputList);
-            }
+            compute(inputList);
             Collections.sort(inputList, mResolverComparator);
 
             long afterRank = System.currentTimeMillis();
@@ -279,6 +482,17 @@ public class ResolverListController {
     @VisibleForTesting
     @WorkerThread
     public void topK(List<ResolvedComponentInfo> inputList, int k) {
+        topK(inputList, k, null);
+    }
+
+    /**
+     * Same as {@link #topK(List, int)}, handing a copy of the top {@code k} elements to
+     * {@code onTopKSelected} as soon as they're selected, before the rest of {@code inputList} is
+     * rearranged. Not called if {@code inputList} has no more than {@code k} elements.
+     */
+    @WorkerThread
+    public void topK(List<ResolvedComponentInfo> inputList, int k,
+            @Nullable Consumer<List<ResolvedComponentInfo>> onTopKSelected) {
         if (inputList == null || inputList.isEmpty() || k <= 0) {
             return;
         }
@@ -290,36 +504,35 @@ public class ResolverListController {
         }
         try {
             long beforeRank = System.currentTimeMillis();
-            if (!isComputed) {
-                compute(inputList);
-            }
+            compute(inputList);
 
-            // Top of this heap has lowest rank.
-            PriorityQueue<ResolvedComponentInfo> minHeap = new PriorityQueue<>(k,
-                    (o1, o2) -> -mResolverComparator.compare(o1, o2));
+            // Score every target once, then select over indices so that the comparator (and its
+            // label-based tie-breaks) only runs for targets whose scores are equal.
             final int size = inputList.size();
-            // Use this pointer to keep track of the position of next element
-            // to update in input list, starting from the last position.
-            int pointer = size - 1;
-            minHeap.addAll(inputList.subList(size - k, size));
-            for (int i = size - k - 1; i >= 0; --i) {
-                ResolvedComponentInfo ci = inputList.get(i);
-                if (-mResolverComparator.compare(ci, minHeap.peek()) > 0) {
-                    // When ranked higher than top of heap, remove top of heap,
-                    // update input list with it, add this new element to heap.
-                    inputList.set(pointer--, minHeap.poll());
-                    minHeap.add(ci);
-                } else {
-                    // When ranked no higher than top of heap, update input list
-                    // with this new element.
-                    inputList.set(pointer--, ci);
+            final float[] keys = new float[size];
+            mResolverComparator.getSortKeys(inputList, keys);
+            final int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            TopKSelector.selectTopK(order, k, (lhs, rhs) -> {
+                if (keys[lhs] != keys[rhs]) {
+                    return keys[lhs] > keys[rhs] ? -1 : 1;
+                }
+                return mResolverComparator.compare(inputList.get(lhs), inputList.get(rhs));
+            });
+            if (onTopKSelected != null) {
+                final List<ResolvedComponentInfo> topK = new ArrayList<>(k);
+                for (int i = 0; i < k; i++) {
+                    topK.add(inputList.get(order[i]));
                 }
+                onTopKSelected.accept(topK);
             }
 
-            // Now we have top k elements in heap, update first
-            // k positions of input list with them.
-            while (!minHeap.isEmpty()) {
-                inputList.set(pointer--, minHeap.poll());
+            final ResolvedComponentInfo[] targets =
+                    inputList.toArray(new ResolvedComponentInfo[size]);
+            for (int i = 0; i < size; i++) {
+                inputList.set(i, targets[order[i]]);
             }
 
             long afterRank = System.currentTimeMillis();
@@ -332,12 +545,6 @@ public class ResolverListController {
         }
     }
 
-    private static boolean isSameResolvedComponent(ResolveInfo a, ResolvedComponentInfo b) {
-        final ActivityInfo ai = a.activityInfo;
-        return ai.packageName.equals(b.name.getPackageName())
-                && ai.name.equals(b.name.getClassName());
-    }
-
     boolean isComponentFiltered(ComponentName componentName) {
         return false;
     }
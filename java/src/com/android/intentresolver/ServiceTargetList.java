@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.annotation.Nullable;
+import android.content.ComponentName;
+
+import com.android.intentresolver.chooser.TargetInfo;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * The direct share targets of a {@link ChooserListAdapter}, ranked as they are
+ * {@link #insert(TargetInfo) inserted}: at most {@code capacity} targets in descending order of
+ * {@link TargetInfo#getModifiedScore()}, none of them {@link TargetInfo#isSimilar similar} to a
+ * target inserted before.
+ *
+ * Similar targets are looked up by a hash of what {@link TargetInfo#isSimilar} compares, and the
+ * insertion point is found with a binary search over the bounded list, so that the cost of
+ * inserting a target doesn't grow with the number of shortcuts offered by the apps.
+ *
+ * Targets added through the {@link List} methods (e.g. placeholders) are neither ranked nor
+ * bounded, but do participate in the similarity checks.
+ */
+final class ServiceTargetList extends AbstractList<TargetInfo> implements RandomAccess {
+    private final int mCapacity;
+    private final ArrayList<TargetInfo> mTargets;
+
+    // Similarity keys, with their counts, of the targets in the list or ranked out of it.
+    private final Map<Object, Integer> mKeys = new HashMap<>();
+
+    ServiceTargetList(int capacity) {
+        mCapacity = capacity;
+        mTargets = new ArrayList<>(capacity + 1);
+    }
+
+    /**
+     * Insert {@code target} at its rank, after any target with the same score, unless a similar
+     * target has been inserted before or the target ranks below the last of a full list. The last
+     * target is dropped if the list overflows; it still prevents similar targets from being
+     * inserted.
+     *
+     * @return whether the target was inserted.
+     */
+    boolean insert(TargetInfo target) {
+        final Object key = getSimilarityKey(target);
+        if (mKeys.containsKey(key)) {
+            return false;
+        }
+        final float score = target.getModifiedScore();
+        // The first position holding a lower score.
+        int low = 0;
+        int high = mTargets.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mTargets.get(mid).getModifiedScore() >= score) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low >= mCapacity) {
+            return false;
+        }
+        mTargets.add(low, target);
+        addKey(key);
+        if (mTargets.size() > mCapacity) {
+            mTargets.remove(mTargets.size() - 1);
+        }
+        return true;
+    }
+
+    /** @return a copy of the first {@code count} targets, unaffected by later changes. */
+    List<TargetInfo> snapshot(int count) {
+        return Collections.unmodifiableList(
+                new ArrayList<>(mTargets.subList(0, Math.min(count, mTargets.size()))));
+    }
+
+    @Override
+    public TargetInfo get(int index) {
+        return mTargets.get(index);
+    }
+
+    @Override
+    public int size() {
+        return mTargets.size();
+    }
+
+    @Override
+    public void add(int index, TargetInfo target) {
+        mTargets.add(index, target);
+        addKey(getSimilarityKey(target));
+        modCount++;
+    }
+
+    @Override
+    public TargetInfo set(int index, TargetInfo target) {
+        final TargetInfo previous = mTargets.set(index, target);
+        removeKey(getSimilarityKey(previous));
+        addKey(getSimilarityKey(target));
+        return previous;
+    }
+
+    @Override
+    public TargetInfo remove(int index) {
+        final TargetInfo removed = mTargets.remove(index);
+        removeKey(getSimilarityKey(removed));
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        mTargets.clear();
+        mKeys.clear();
+        modCount++;
+    }
+
+    private void addKey(Object key) {
+        mKeys.merge(key, 1, Integer::sum);
+    }
+
+    private void removeKey(Object key) {
+        mKeys.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * @return a key that is equal for targets that are {@link TargetInfo#isSimilar similar}.
+     */
+    private static Object getSimilarityKey(TargetInfo target) {
+        return target.isChooserTargetInfo() ? new SimilarityKey(target) : target;
+    }
+
+    private static final class SimilarityKey {
+        @Nullable private final ComponentName mComponentName;
+        @Nullable private final String mLabel;
+        @Nullable private final String mExtendedInfo;
+
+        SimilarityKey(TargetInfo target) {
+            mComponentName = target.getChooserTargetComponentName();
+            mLabel = toString(target.getDisplayLabel());
+            mExtendedInfo = toString(target.getExtendedInfo());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SimilarityKey)) {
+                return false;
+            }
+            SimilarityKey other = (SimilarityKey) o;
+            return Objects.equals(mComponentName, other.mComponentName)
+                    && Objects.equals(mLabel, other.mLabel)
+                    && Objects.equals(mExtendedInfo, other.mExtendedInfo);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mComponentName, mLabel, mExtendedInfo);
+        }
+
+        @Nullable
+        private static String toString(@Nullable CharSequence text) {
+            return text == null ? null : text.toString();
+        }
+    }
+}
@@ -28,7 +28,6 @@ import android.util.Log;
 
 import com.android.intentresolver.chooser.DisplayResolveInfo;
 import com.android.intentresolver.chooser.SelectableTargetInfo;
-import com.android.intentresolver.chooser.TargetInfo;
 
 import java.util.Collections;
 import java.util.Comparator;
@@ -69,8 +68,7 @@ class ShortcutSelectionLogic {
             Context userContext,
             Intent targetIntent,
             Intent referrerFillInIntent,
-            int maxRankedTargets,
-            List<TargetInfo> serviceTargets) {
+            ServiceTargetList serviceTargets) {
         if (DEBUG) {
             Log.d(TAG, "addServiceResults "
                     + (origTarget == null ? null : origTarget.getResolvedComponentName()) + ", "
@@ -115,7 +113,7 @@ class ShortcutSelectionLogic {
                 resolvedIntent = origTarget.getResolvedIntent();
                 backupResolveInfo = null;
             }
-            boolean isInserted = insertServiceTarget(
+            boolean isInserted = serviceTargets.insert(
                     SelectableTargetInfo.newSelectableTargetInfo(
                             origTarget,
                             backupResolveInfo,
@@ -124,9 +122,7 @@ class ShortcutSelectionLogic {
                             targetScore,
                             shortcutInfo,
                             directShareToAppTargets.get(target),
-                            referrerFillInIntent),
-                    maxRankedTargets,
-                    serviceTargets);
+                            referrerFillInIntent));
 
             shouldNotify |= isInserted;
 
@@ -156,38 +152,4 @@ class ShortcutSelectionLogic {
         resolvedIntent.putExtras(target.getIntentExtras());
         return resolvedIntent;
     }
-
-    private boolean insertServiceTarget(
-            TargetInfo chooserTargetInfo,
-            int maxRankedTargets,
-            List<TargetInfo> serviceTargets) {
-
-        // Check for duplicates and abort if found
-        for (TargetInfo otherTargetInfo : serviceTargets) {
-            if (chooserTargetInfo.isSimilar(otherTargetInfo)) {
-                return false;
-            }
-        }
-
-        int currentSize = serviceTargets.size();
-        final float newScore = chooserTargetInfo.getModifiedScore();
-        for (int i = 0; i < Math.min(currentSize, maxRankedTargets);
-                i++) {
-            final TargetInfo serviceTarget = serviceTargets.get(i);
-            if (serviceTarget == null) {
-                serviceTargets.set(i, chooserTargetInfo);
-                return true;
-            } else if (newScore > serviceTarget.getModifiedScore()) {
-                serviceTargets.add(i, chooserTargetInfo);
-                return true;
-            }
-        }
-
-        if (currentSize < maxRankedTargets) {
-            serviceTargets.add(chooserTargetInfo);
-            return true;
-        }
-
-        return false;
-    }
 }
@@ -47,6 +47,7 @@ import android.graphics.drawable.Drawable;
 import android.graphics.drawable.DrawableWrapper;
 import android.os.UserHandle;
 import android.util.AttributeSet;
+import android.util.LruCache;
 import android.util.Pools.SynchronizedPool;
 import android.util.TypedValue;
 
@@ -172,6 +173,7 @@ public class SimpleIconFactory {
         mBitmap = Bitmap.createBitmap(mMaxSize, mMaxSize, Bitmap.Config.ALPHA_8);
         mScaleCheckCanvas = new Canvas(mBitmap);
         mPixels = new byte[mMaxSize * mMaxSize];
+        mPixelWords = ByteBuffer.wrap(mPixels);
         mLeftBorder = new float[mMaxSize];
         mRightBorder = new float[mMaxSize];
         mBounds = new Rect();
@@ -207,13 +209,28 @@ public class SimpleIconFactory {
      */
     @Deprecated
     Bitmap createUserBadgedIconBitmap(@Nullable Drawable icon, @Nullable UserHandle user) {
+        return createUserBadgedIconBitmap(icon, user, null);
+    }
+
+    /**
+     * Same as {@link #createUserBadgedIconBitmap(Drawable, UserHandle)}, reusing the normalization
+     * computed for any icon previously rendered under the same {@code iconKey}.
+     *
+     * @param iconKey identifies the source of {@code icon}, or null if it can't be identified.
+     *
+     * @deprecated Do not use, functionality will be replaced by iconloader lib eventually.
+     */
+    @Deprecated
+    Bitmap createUserBadgedIconBitmap(
+            @Nullable Drawable icon, @Nullable UserHandle user, @Nullable String iconKey) {
         float [] scale = new float[1];
 
         // If no icon is provided use the system default
         if (icon == null) {
             icon = getFullResDefaultActivityIcon(mFillResIconDpi);
+            iconKey = null;
         }
-        icon = normalizeAndWrapToAdaptiveIcon(icon, null, scale);
+        icon = normalizeAndWrapToAdaptiveIcon(icon, null, scale, iconKey);
         Bitmap bitmap = createIconBitmap(icon, scale[0]);
         if (icon instanceof AdaptiveIconDrawable) {
             mCanvas.setBitmap(bitmap);
@@ -251,6 +268,35 @@ public class SimpleIconFactory {
      */
     @Deprecated
     public Bitmap createAppBadgedIconBitmap(@Nullable Drawable icon, Bitmap renderedAppIcon) {
+        return createBadgedIconBitmap(
+                icon, renderedAppIcon == null ? null : createAppBadgeBitmap(renderedAppIcon));
+    }
+
+    /**
+     * Scales a pre-rendered app icon down to a badge for {@link #createBadgedIconBitmap}, so that
+     * the badge can be reused for all the icons badged with the same app icon.
+     *
+     * @deprecated Do not use, functionality will be replaced by iconloader lib eventually.
+     */
+    @Deprecated
+    public Bitmap createAppBadgeBitmap(Bitmap renderedAppIcon) {
+        return Bitmap.createScaledBitmap(
+                renderedAppIcon, mBadgeBitmapSize, mBadgeBitmapSize, false);
+    }
+
+    /** @return the size of the badges created by {@link #createAppBadgeBitmap}. */
+    public int getBadgeBitmapSize() {
+        return mBadgeBitmapSize;
+    }
+
+    /**
+     * Same as {@link #createAppBadgedIconBitmap} with a badge already scaled down by
+     * {@link #createAppBadgeBitmap}.
+     *
+     * @deprecated Do not use, functionality will be replaced by iconloader lib eventually.
+     */
+    @Deprecated
+    public Bitmap createBadgedIconBitmap(@Nullable Drawable icon, @Nullable Bitmap badge) {
         // If no icon is provided use the system default
         if (icon == null) {
             icon = getFullResDefaultActivityIcon(mFillResIconDpi);
@@ -277,13 +323,9 @@ public class SimpleIconFactory {
         mCanvas.setBitmap(bitmap);
         recreateIcon(Bitmap.createBitmap(bitmap), mCanvas);
 
-        if (renderedAppIcon != null) {
-            // Now scale down and apply the badge to the bottom right corner of the flattened icon
-            renderedAppIcon = Bitmap.createScaledBitmap(renderedAppIcon, mBadgeBitmapSize,
-                    mBadgeBitmapSize, false);
-
-            // Paint the provided badge on top of the flattened icon
-            mCanvas.drawBitmap(renderedAppIcon, mIconBitmapSize - mBadgeBitmapSize,
+        if (badge != null) {
+            // Paint the provided badge on top of the bottom right corner of the flattened icon
+            mCanvas.drawBitmap(badge, mIconBitmapSize - mBadgeBitmapSize,
                     mIconBitmapSize - mBadgeBitmapSize, null);
         }
 
@@ -418,7 +460,7 @@ public class SimpleIconFactory {
     }
 
     private Drawable normalizeAndWrapToAdaptiveIcon(Drawable icon, RectF outIconBounds,
-            float[] outScale) {
+            float[] outScale, @Nullable String iconKey) {
         float scale = 1f;
 
         if (mWrapperIcon == null) {
@@ -428,7 +470,7 @@ public class SimpleIconFactory {
 
         AdaptiveIconDrawable dr = (AdaptiveIconDrawable) mWrapperIcon;
         dr.setBounds(0, 0, 1, 1);
-        scale = getScale(icon, outIconBounds);
+        scale = getScale(icon, outIconBounds, iconKey);
         if (!(icon instanceof AdaptiveIconDrawable)) {
             FixedScaleDrawable fsd = ((FixedScaleDrawable) dr.getForeground());
             fsd.setDrawable(icon);
@@ -460,11 +502,26 @@ public class SimpleIconFactory {
 
     private static final int MIN_VISIBLE_ALPHA = 40;
 
+    // Added to 8 packed alpha values at once, sets the high bit of those above MIN_VISIBLE_ALPHA.
+    private static final long VISIBLE_ALPHA_ADDEND =
+            0x0101010101010101L * (127 - MIN_VISIBLE_ALPHA);
+    private static final long ALPHA_HIGH_BITS = 0x8080808080808080L;
+
+    private static final int MAX_CACHED_SCALES = 256;
+
+    // Normalization of the icons rendered from identified sources, keyed by source and mMaxSize.
+    private static final LruCache<String, CachedScale> sScaleCache =
+            new LruCache<>(MAX_CACHED_SCALES);
+
     private float mAdaptiveIconScale;
     private final Rect mAdaptiveIconBounds;
     private final Rect mBounds;
     private final int mMaxSize;
+    // Instances are used by one thread at a time, between obtain() and recycle(), so these scratch
+    // buffers need no locking.
     private final byte[] mPixels;
+    // Reads mPixels 8 alpha values at a time.
+    private final ByteBuffer mPixelWords;
     private final float[] mLeftBorder;
     private final float[] mRightBorder;
     private final Bitmap mBitmap;
@@ -484,7 +541,37 @@ public class SimpleIconFactory {
      *
      * @param outBounds optional rect to receive the fraction distance from each edge.
      */
-    private synchronized float getScale(@NonNull Drawable d, @Nullable RectF outBounds) {
+    @VisibleForTesting
+    float getScale(@NonNull Drawable d, @Nullable RectF outBounds) {
+        return getScale(d, outBounds, null);
+    }
+
+    /**
+     * Same as {@link #getScale(Drawable, RectF)}, reusing the result computed for any drawable
+     * previously normalized under the same {@code iconKey}.
+     *
+     * @param iconKey identifies the source of {@code d}, or null if it can't be identified.
+     */
+    private float getScale(
+            @NonNull Drawable d, @Nullable RectF outBounds, @Nullable String iconKey) {
+        if (iconKey == null || d instanceof AdaptiveIconDrawable) {
+            return computeScale(d, outBounds);
+        }
+        final String cacheKey = iconKey + "|" + mMaxSize;
+        CachedScale cached = sScaleCache.get(cacheKey);
+        if (cached == null) {
+            final RectF bounds = new RectF();
+            final float scale = computeScale(d, bounds);
+            cached = new CachedScale(scale, bounds);
+            sScaleCache.put(cacheKey, cached);
+        }
+        if (outBounds != null) {
+            outBounds.set(cached.mBounds);
+        }
+        return cached.mScale;
+    }
+
+    private float computeScale(@NonNull Drawable d, @Nullable RectF outBounds) {
         if (d instanceof AdaptiveIconDrawable) {
             if (mAdaptiveIconScale != SCALE_NOT_INITIALIZED) {
                 if (outBounds != null) {
@@ -508,9 +595,8 @@ public class SimpleIconFactory {
         d.setBounds(0, 0, width, height);
         d.draw(mScaleCheckCanvas);
 
-        ByteBuffer buffer = ByteBuffer.wrap(mPixels);
-        buffer.rewind();
-        mBitmap.copyPixelsToBuffer(buffer);
+        mPixelWords.rewind();
+        mBitmap.copyPixelsToBuffer(mPixelWords);
 
         // Overall bounds of the visible icon.
         int topY = -1;
@@ -522,25 +608,14 @@ public class SimpleIconFactory {
         // the first and the last non-transparent pixel. Set those values to mLeftBorder and
         // mRightBorder and use -1 if there are no visible pixel in the row.
 
-        // buffer position
-        int index = 0;
-        // buffer shift after every row, width of buffer = mMaxSize
-        int rowSizeDiff = mMaxSize - width;
         // first and last position for any row.
         int firstX, lastX;
 
         for (int y = 0; y < height; y++) {
-            firstX = lastX = -1;
-            for (int x = 0; x < width; x++) {
-                if ((mPixels[index] & 0xFF) > MIN_VISIBLE_ALPHA) {
-                    if (firstX == -1) {
-                        firstX = x;
-                    }
-                    lastX = x;
-                }
-                index++;
-            }
-            index += rowSizeDiff;
+            // width of buffer = mMaxSize
+            final int rowStart = y * mMaxSize;
+            firstX = findFirstVisibleX(rowStart, width);
+            lastX = firstX == -1 ? -1 : findLastVisibleX(rowStart, firstX, width);
 
             mLeftBorder[y] = firstX;
             mRightBorder[y] = lastX;
@@ -605,6 +680,55 @@ public class SimpleIconFactory {
         return scale;
     }
 
+    /**
+     * @return the first x in {@code [0, width)} with a visible pixel in the row of
+     * {@link #mPixels} starting at {@code rowStart}, or -1 if there is none.
+     */
+    private int findFirstVisibleX(int rowStart, int width) {
+        int x = 0;
+        // Skip invisible pixels 8 at a time.
+        while (x + Long.BYTES <= width && !hasVisibleAlpha(mPixelWords.getLong(rowStart + x))) {
+            x += Long.BYTES;
+        }
+        for (; x < width; x++) {
+            if ((mPixels[rowStart + x] & 0xFF) > MIN_VISIBLE_ALPHA) {
+                return x;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the last x in {@code [firstX, width)} with a visible pixel in the row of
+     * {@link #mPixels} starting at {@code rowStart}, given that there is one at {@code firstX}.
+     */
+    private int findLastVisibleX(int rowStart, int firstX, int width) {
+        int end = width;
+        // Skip invisible pixels 8 at a time.
+        while (end - Long.BYTES > firstX
+                && !hasVisibleAlpha(mPixelWords.getLong(rowStart + end - Long.BYTES))) {
+            end -= Long.BYTES;
+        }
+        for (int x = end - 1; x > firstX; x--) {
+            if ((mPixels[rowStart + x] & 0xFF) > MIN_VISIBLE_ALPHA) {
+                return x;
+            }
+        }
+        return firstX;
+    }
+
+    /**
+     * @return whether any of the 8 alpha values packed in {@code word} is above
+     * {@link #MIN_VISIBLE_ALPHA}.
+     */
+    @VisibleForTesting
+    static boolean hasVisibleAlpha(long word) {
+        // Values up to 127 don't carry over into their neighbours when adding VISIBLE_ALPHA_ADDEND,
+        // and end up with their high bit set iff they're visible. Larger values have it set
+        // already, and are visible.
+        return (((word + VISIBLE_ALPHA_ADDEND) | word) & ALPHA_HIGH_BITS) != 0;
+    }
+
     /**
      * Modifies {@param xCoordinates} to represent a convex border. Fills in all missing values
      * (except on either ends) with appropriate values.
@@ -613,7 +737,8 @@ public class SimpleIconFactory {
      * @param topY the first Y position (inclusive) with a valid value.
      * @param bottomY the last Y position (inclusive) with a valid value.
      */
-    private static void convertToConvexArray(
+    @VisibleForTesting
+    static void convertToConvexArray(
             float[] xCoordinates, int direction, int topY, int bottomY) {
         int total = xCoordinates.length;
         // The tangent at each pixel.
@@ -669,11 +794,11 @@ public class SimpleIconFactory {
     private Paint mDrawPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
     private BlurMaskFilter mDefaultBlurMaskFilter;
 
-    private synchronized void recreateIcon(Bitmap icon, Canvas out) {
+    private void recreateIcon(Bitmap icon, Canvas out) {
         recreateIcon(icon, mDefaultBlurMaskFilter, AMBIENT_SHADOW_ALPHA, KEY_SHADOW_ALPHA, out);
     }
 
-    private synchronized void recreateIcon(Bitmap icon, BlurMaskFilter blurMaskFilter,
+    private void recreateIcon(Bitmap icon, BlurMaskFilter blurMaskFilter,
             int ambientAlpha, int keyAlpha, Canvas out) {
         int[] offset = new int[2];
         mBlurPaint.setMaskFilter(blurMaskFilter);
@@ -695,6 +820,17 @@ public class SimpleIconFactory {
 
     /* Classes */
 
+    /** Normalization of an icon, see {@link #getScale(Drawable, RectF, String)}. */
+    private static final class CachedScale {
+        final float mScale;
+        final RectF mBounds;
+
+        CachedScale(float scale, RectF bounds) {
+            mScale = scale;
+            mBounds = bounds;
+        }
+    }
+
     /**
      * Extension of {@link DrawableWrapper} which scales the child drawables by a fixed amount.
      */
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.annotation.Nullable;
+import android.annotation.WorkerThread;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of fully rendered (normalized, shadowed and badged) target icons, so that a cold
+ * sharesheet doesn't have to re-rasterize every app icon.
+ *
+ * Each entry is a single file holding a small header followed by the raw ARGB_8888 pixels, which
+ * are memory-mapped and copied straight into a {@link Bitmap} on read; no image decoding is
+ * involved. Callers are responsible for building keys that change whenever the rendered icon
+ * would (see {@link TargetPresentationGetter}); stale entries are never read again and are
+ * eventually evicted by the size bound.
+ */
+public final class TargetIconDiskCache {
+    private static final String TAG = "TargetIconDiskCache";
+
+    private static final String DIRECTORY_NAME = "target_icons";
+    private static final String FILE_SUFFIX = ".icon";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x49524943; // "IRIC"
+    private static final int FORMAT_VERSION = 1;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static final long MAX_SIZE_BYTES = 16L * 1024 * 1024;
+    // Scanning the directory is comparatively expensive, so only check the size bound once every
+    // this many writes.
+    private static final int WRITES_PER_TRIM = 16;
+
+    private static TargetIconDiskCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxSizeBytes;
+
+    private final Object mTrimLock = new Object();
+    private final AtomicInteger mWritesSinceTrim = new AtomicInteger();
+
+    /** @return the process-wide instance, stored in the app's cache directory. */
+    public static synchronized TargetIconDiskCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TargetIconDiskCache(
+                    new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME),
+                    MAX_SIZE_BYTES);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    TargetIconDiskCache(File directory, long maxSizeBytes) {
+        mDirectory = directory;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /** @return the icon stored under {@code key}, or null if there is no valid entry. */
+    @WorkerThread
+    @Nullable
+    public Bitmap get(String key) {
+        final File file = fileForKey(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 3 * Integer.BYTES
+                    || buffer.getInt() != MAGIC
+                    || buffer.getInt() != FORMAT_VERSION) {
+                file.delete();
+                return null;
+            }
+            final byte[] storedKey = new byte[buffer.getInt()];
+            if (storedKey.length > buffer.remaining()) {
+                file.delete();
+                return null;
+            }
+            buffer.get(storedKey);
+            if (!key.equals(new String(storedKey, StandardCharsets.UTF_8))) {
+                // Digest collision; treat as a miss and let put() overwrite it.
+                return null;
+            }
+            final int width = buffer.getInt();
+            final int height = buffer.getInt();
+            if (width <= 0 || height <= 0
+                    || buffer.remaining() != (long) width * height * BYTES_PER_PIXEL) {
+                file.delete();
+                return null;
+            }
+            final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bitmap.copyPixelsFromBuffer(buffer);
+            file.setLastModified(System.currentTimeMillis());
+            return bitmap;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed to read cached icon " + file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /** Store {@code bitmap} under {@code key}. Only ARGB_8888 bitmaps are cached. */
+    @WorkerThread
+    public void put(String key, Bitmap bitmap) {
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.allocate(
+                5 * Integer.BYTES + keyBytes.length + bitmap.getByteCount());
+        buffer.putInt(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putInt(keyBytes.length)
+                .put(keyBytes)
+                .putInt(bitmap.getWidth())
+                .putInt(bitmap.getHeight());
+        bitmap.copyPixelsToBuffer(buffer);
+        buffer.flip();
+
+        final File file = fileForKey(key);
+        final File tempFile = new File(mDirectory,
+                file.getName() + "." + Thread.currentThread().getId() + TEMP_FILE_SUFFIX);
+        try (FileChannel channel = FileChannel.open(
+                tempFile.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write cached icon " + file, e);
+            tempFile.delete();
+            return;
+        }
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to commit cached icon " + file, e);
+            tempFile.delete();
+            return;
+        }
+        if (mWritesSinceTrim.incrementAndGet() >= WRITES_PER_TRIM) {
+            mWritesSinceTrim.set(0);
+            trimToSize();
+        }
+    }
+
+    private void trimToSize() {
+        synchronized (mTrimLock) {
+            final File[] files = mDirectory.listFiles(
+                    (dir, name) -> name.endsWith(FILE_SUFFIX));
+            if (files == null) {
+                return;
+            }
+            long totalSize = 0;
+            for (File file : files) {
+                totalSize += file.length();
+            }
+            if (totalSize <= mMaxSizeBytes) {
+                return;
+            }
+            // Evict the least recently used entries first.
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File file : files) {
+                if (totalSize <= mMaxSizeBytes) {
+                    break;
+                }
+                final long size = file.length();
+                if (file.delete()) {
+                    totalSize -= size;
+                }
+            }
+        }
+    }
+
+    private File fileForKey(String key) {
+        return new File(mDirectory, digest(key) + FILE_SUFFIX);
+    }
+
+    private static String digest(String key) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder builder = new StringBuilder(2 * 16);
+            // Half of the digest is plenty to make collisions vanishingly rare.
+            for (int i = 0; i < 16; i++) {
+                builder.append(String.format("%02x", hash[i]));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
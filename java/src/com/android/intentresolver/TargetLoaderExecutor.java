@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.annotation.IntDef;
+import android.annotation.WorkerThread;
+import android.os.AsyncTask;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded worker pool for the icon and label loading tasks of all the resolver/chooser list
+ * adapters in the process (so e.g. the personal and work tabs compete for the same threads).
+ *
+ * Work is queued by priority: tasks for targets in the prominent rows are picked up before tasks
+ * for the alphabetical list. Within a priority, the most recently submitted task runs first, since
+ * it belongs to the most recently bound (and therefore most likely still visible) view.
+ *
+ * Loading tasks extend {@link Task}, so that they can be withdrawn (e.g. to be requeued at a
+ * different priority) while they're still queued, without cutting short one that's running.
+ */
+public final class TargetLoaderExecutor {
+    /** Priority for targets shown above the alphabetical list. */
+    public static final int PRIORITY_HIGH = 1;
+    /** Priority for all other targets. */
+    public static final int PRIORITY_LOW = 0;
+
+    @IntDef({PRIORITY_HIGH, PRIORITY_LOW})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Priority {}
+
+    private static final int WORKER_COUNT = 3;
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static TargetLoaderExecutor sInstance;
+
+    private final ThreadPoolExecutor mThreadPool;
+    private final AtomicLong mSequence = new AtomicLong();
+    private final Executor mHighPriorityExecutor = command -> execute(command, PRIORITY_HIGH);
+    private final Executor mLowPriorityExecutor = command -> execute(command, PRIORITY_LOW);
+
+    /** @return the process-wide instance. */
+    public static synchronized TargetLoaderExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new TargetLoaderExecutor(WORKER_COUNT);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    TargetLoaderExecutor(int workerCount) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadFactory threadFactory = runnable ->
+                new Thread(runnable, "TargetLoader#" + threadCount.getAndIncrement());
+        mThreadPool = new ThreadPoolExecutor(
+                workerCount,
+                workerCount,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(),
+                threadFactory);
+        mThreadPool.allowCoreThreadTimeOut(true);
+    }
+
+    /** @return an {@link Executor} that queues its work at the given {@code priority}. */
+    public Executor forPriority(@Priority int priority) {
+        return (priority == PRIORITY_HIGH) ? mHighPriorityExecutor : mLowPriorityExecutor;
+    }
+
+    private void execute(Runnable command, @Priority int priority) {
+        mThreadPool.execute(new PrioritizedRunnable(
+                command, priority, mSequence.getAndIncrement()));
+    }
+
+    private static final class PrioritizedRunnable
+            implements Runnable, Comparable<PrioritizedRunnable> {
+        private final Runnable mDelegate;
+        private final int mPriority;
+        private final long mSequence;
+
+        PrioritizedRunnable(Runnable delegate, int priority, long sequence) {
+            mDelegate = delegate;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mDelegate.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedRunnable other) {
+            if (mPriority != other.mPriority) {
+                return Integer.compare(other.mPriority, mPriority);
+            }
+            return Long.compare(other.mSequence, mSequence);
+        }
+    }
+
+    /**
+     * An {@link AsyncTask} that loads on the {@link TargetLoaderExecutor}, and can be withdrawn
+     * with {@link #cancelIfNotStarted()} as long as no worker has picked it up yet.
+     */
+    public abstract static class Task<Result> extends AsyncTask<Void, Void, Result> {
+        // Claimed by whichever comes first, the worker starting the task or cancelIfNotStarted().
+        private final AtomicBoolean mClaimed = new AtomicBoolean();
+
+        @Override
+        protected final Result doInBackground(Void... params) {
+            if (!mClaimed.compareAndSet(false, true)) {
+                // Withdrawn just as a worker picked it up.
+                return null;
+            }
+            return loadInBackground();
+        }
+
+        /** The loading work, run on a worker unless the task was withdrawn before it started. */
+        @WorkerThread
+        protected abstract Result loadInBackground();
+
+        /**
+         * Cancel this task if no worker has started it yet. A running task isn't interrupted, and
+         * still delivers its result.
+         *
+         * @return whether the task was cancelled.
+         */
+        public boolean cancelIfNotStarted() {
+            if (!mClaimed.compareAndSet(false, true)) {
+                return false;
+            }
+            cancel(false);
+            return true;
+        }
+    }
+}
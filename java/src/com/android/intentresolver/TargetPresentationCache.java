@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.annotation.Nullable;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Process-wide in-memory cache of rendered target icons and resolved target labels, shared by the
+ * {@link TargetPresentationGetter}s of both profiles' adapters and of successive Resolver/Chooser
+ * sessions. Sits in front of the {@link TargetIconDiskCache}.
+ *
+ * Both caches are bounded by (approximate) byte count rather than by number of entries, since icon
+ * sizes vary with the display density. Keys are built by {@link TargetPresentationGetter} and
+ * cover every input of the cached value, so entries never go stale; the cache is still cleared on
+ * package changes, through the {@link PackageChangeMonitor}, to release memory held for updated or
+ * removed packages.
+ *
+ * Cached icons are shared between callers and must not be modified.
+ */
+public final class TargetPresentationCache {
+    private static final String TAG = "TargetPresentationCache";
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_ICON_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_LABEL_BYTES = 64 * 1024;
+
+    private static TargetPresentationCache sInstance;
+
+    private final LruCache<String, Bitmap> mIcons;
+    private final LruCache<String, String> mLabels;
+
+    /** @return the process-wide instance. */
+    public static synchronized TargetPresentationCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new TargetPresentationCache(MAX_ICON_BYTES, MAX_LABEL_BYTES);
+            PackageChangeMonitor.getInstance().addListener(sInstance::invalidate);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    TargetPresentationCache(int maxIconBytes, int maxLabelBytes) {
+        mIcons = new LruCache<String, Bitmap>(maxIconBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+        mLabels = new LruCache<String, String>(maxLabelBytes) {
+            @Override
+            protected int sizeOf(String key, String value) {
+                return Character.BYTES * (key.length() + value.length());
+            }
+        };
+    }
+
+    /** @return the icon cached under {@code key}, or null. */
+    @Nullable
+    public Bitmap getIcon(String key) {
+        return mIcons.get(key);
+    }
+
+    /** Cache {@code icon} under {@code key}. */
+    public void putIcon(String key, Bitmap icon) {
+        mIcons.put(key, icon);
+    }
+
+    /** @return the label cached under {@code key}, or null. */
+    @Nullable
+    public String getLabel(String key) {
+        return mLabels.get(key);
+    }
+
+    /** Cache {@code label} under {@code key}. */
+    public void putLabel(String key, String label) {
+        mLabels.put(key, label);
+    }
+
+    /** Drop all cached icons and labels. */
+    public void invalidate() {
+        if (DEBUG) {
+            Log.d(TAG, "Invalidating; hits=" + getHitCount() + " misses=" + getMissCount()
+                    + " evictions=" + getEvictionCount());
+        }
+        mIcons.evictAll();
+        mLabels.evictAll();
+    }
+
+    /** @return the number of lookups answered from this cache. */
+    public int getHitCount() {
+        return mIcons.hitCount() + mLabels.hitCount();
+    }
+
+    /** @return the number of lookups that weren't answered from this cache. */
+    public int getMissCount() {
+        return mIcons.missCount() + mLabels.missCount();
+    }
+
+    /**
+     * @return the number of entries dropped, either to stay within the size bounds or by
+     * {@link #invalidate()}.
+     */
+    public int getEvictionCount() {
+        return mIcons.evictionCount() + mLabels.evictionCount();
+    }
+}
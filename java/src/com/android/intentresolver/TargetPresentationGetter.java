@@ -22,6 +22,7 @@ import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
@@ -76,6 +77,15 @@ public abstract class TargetPresentationGetter {
     @Nullable
     protected abstract String getAppLabelForSubstitutePermission();
 
+    /** @return an identifier for the source of {@link #getIconSubstituteInternal()}. */
+    protected abstract String getIconSubstituteCacheKey();
+
+    /**
+     * @return an identifier for the sources of {@link #getAppSubLabelInternal()} and
+     * {@link #getAppLabelForSubstitutePermission()}.
+     */
+    protected abstract String getLabelSourceCacheKey();
+
     private Context mContext;
     private final int mIconDpi;
     private final boolean mHasSubstitutePermission;
@@ -96,6 +106,27 @@ public abstract class TargetPresentationGetter {
      * specified {@code userHandle}.
      */
     public Bitmap getIconBitmap(@Nullable UserHandle userHandle) {
+        final String cacheKey = getIconCacheKey(userHandle);
+        if (cacheKey == null) {
+            return renderIconBitmap(userHandle);
+        }
+        final TargetPresentationCache memoryCache = TargetPresentationCache.getInstance();
+        Bitmap icon = memoryCache.getIcon(cacheKey);
+        if (icon != null) {
+            return icon;
+        }
+
+        final TargetIconDiskCache diskCache = TargetIconDiskCache.getInstance(mContext);
+        icon = diskCache.get(cacheKey);
+        if (icon == null) {
+            icon = renderIconBitmap(userHandle);
+            diskCache.put(cacheKey, icon);
+        }
+        memoryCache.putIcon(cacheKey, icon);
+        return icon;
+    }
+
+    private Bitmap renderIconBitmap(@Nullable UserHandle userHandle) {
         Drawable drawable = null;
         if (mHasSubstitutePermission) {
             drawable = getIconSubstituteInternal();
@@ -116,14 +147,86 @@ public abstract class TargetPresentationGetter {
         }
 
         SimpleIconFactory iconFactory = SimpleIconFactory.obtain(mContext);
-        Bitmap icon = iconFactory.createUserBadgedIconBitmap(drawable, userHandle);
+        Bitmap icon = iconFactory.createUserBadgedIconBitmap(
+                drawable, userHandle, getIconSourceCacheKey());
         iconFactory.recycle();
 
         return icon;
     }
 
+    /**
+     * Build the {@link TargetIconDiskCache} key identifying the icon rendered for
+     * {@code userHandle}, or null if the icon can't be identified reliably. The key covers every
+     * input of the rendering, including the installed APK so that updates invalidate it.
+     */
+    @Nullable
+    private String getIconCacheKey(@Nullable UserHandle userHandle) {
+        final String sourceKey = getIconSourceCacheKey();
+        if (sourceKey == null) {
+            return null;
+        }
+        return sourceKey
+                + "|" + (userHandle == null ? "none" : userHandle.getIdentifier());
+    }
+
+    /**
+     * Build a key identifying the drawable the icon is rendered from, for any user, or null if it
+     * can't be identified reliably.
+     */
+    @Nullable
+    private String getIconSourceCacheKey() {
+        if (mAppInfo.packageName == null || mAppInfo.sourceDir == null) {
+            return null;
+        }
+        final Configuration config = mContext.getResources().getConfiguration();
+        return mAppInfo.packageName
+                + "|" + mAppInfo.longVersionCode
+                + "|" + mAppInfo.sourceDir
+                + "|" + mAppInfo.icon
+                + "|" + (mHasSubstitutePermission ? getIconSubstituteCacheKey() : "")
+                + "|" + mIconDpi
+                + "|" + config.densityDpi
+                + "|" + (config.uiMode & Configuration.UI_MODE_NIGHT_MASK);
+    }
+
+    /**
+     * Build the {@link TargetPresentationCache} key identifying the label of the given
+     * {@code kind}, or null if the label can't be identified reliably.
+     */
+    @Nullable
+    private String getLabelCacheKey(String kind) {
+        if (mAppInfo.packageName == null || mAppInfo.sourceDir == null) {
+            return null;
+        }
+        return kind
+                + "|" + mAppInfo.packageName
+                + "|" + mAppInfo.longVersionCode
+                + "|" + mAppInfo.sourceDir
+                + "|" + mAppInfo.labelRes
+                + "|" + mAppInfo.nonLocalizedLabel
+                + "|" + mHasSubstitutePermission
+                + "|" + getLabelSourceCacheKey()
+                + "|" + mContext.getResources().getConfiguration().getLocales().toLanguageTags();
+    }
+
     /** Get the label to display for the target. */
     public String getLabel() {
+        final String cacheKey = getLabelCacheKey("label");
+        if (cacheKey == null) {
+            return loadLabel();
+        }
+        final TargetPresentationCache cache = TargetPresentationCache.getInstance();
+        String label = cache.getLabel(cacheKey);
+        if (label == null) {
+            label = loadLabel();
+            if (label != null) {
+                cache.putLabel(cacheKey, label);
+            }
+        }
+        return label;
+    }
+
+    private String loadLabel() {
         String label = null;
         // Apps with the substitute permission will always show the activity label as the app label
         // if provided.
@@ -145,6 +248,22 @@ public abstract class TargetPresentationGetter {
      * authoritative record of exactly the content that should be presented.
      */
     public String getSubLabel() {
+        final String cacheKey = getLabelCacheKey("sublabel");
+        if (cacheKey == null) {
+            return loadSubLabel();
+        }
+        final TargetPresentationCache cache = TargetPresentationCache.getInstance();
+        String subLabel = cache.getLabel(cacheKey);
+        if (subLabel == null) {
+            subLabel = loadSubLabel();
+            if (subLabel != null) {
+                cache.putLabel(cacheKey, subLabel);
+            }
+        }
+        return subLabel;
+    }
+
+    private String loadSubLabel() {
         // Apps with the substitute permission will always show the resolve info label as the
         // sublabel if provided
         if (mHasSubstitutePermission) {
@@ -210,6 +329,20 @@ public abstract class TargetPresentationGetter {
             return drawable;
         }
 
+        @Override
+        protected String getIconSubstituteCacheKey() {
+            return mResolveInfo.resolvePackageName + "/" + mResolveInfo.icon
+                    + ";" + super.getIconSubstituteCacheKey();
+        }
+
+        @Override
+        protected String getLabelSourceCacheKey() {
+            return mResolveInfo.resolvePackageName
+                    + "/" + mResolveInfo.labelRes
+                    + "/" + mResolveInfo.nonLocalizedLabel
+                    + ";" + super.getLabelSourceCacheKey();
+        }
+
         @Override
         protected String getAppSubLabelInternal() {
             // Will default to app name if no intent filter or activity label set, make sure to
@@ -252,6 +385,18 @@ public abstract class TargetPresentationGetter {
             return drawable;
         }
 
+        @Override
+        protected String getIconSubstituteCacheKey() {
+            return mActivityInfo.name + "/" + mActivityInfo.icon;
+        }
+
+        @Override
+        protected String getLabelSourceCacheKey() {
+            return mActivityInfo.name
+                    + "/" + mActivityInfo.labelRes
+                    + "/" + mActivityInfo.nonLocalizedLabel;
+        }
+
         @Override
         protected String getAppSubLabelInternal() {
             // Will default to app name if no activity label set, make sure to check if subLabel
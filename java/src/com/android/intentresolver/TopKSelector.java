@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+/**
+ * Partial selection over an array of indices into some external data, so that callers can rank
+ * large lists without moving (or boxing) the elements themselves.
+ */
+final class TopKSelector {
+    /** Compares the elements at two indices, with the same contract as a Comparator. */
+    interface IndexComparator {
+        int compare(int lhs, int rhs);
+    }
+
+    private TopKSelector() {}
+
+    /**
+     * Reorder {@code indices} so that its first {@code k} entries are the {@code k} least elements
+     * according to {@code comparator}, in order. The order of the remaining entries is undefined.
+     *
+     * Uses introselect: quickselect with median-of-three pivots, falling back to heapsort if the
+     * partitioning degenerates, followed by a heapsort of the selected prefix. This takes O(n)
+     * comparisons on average (O(n log n) at worst) plus O(k log k) to order the prefix.
+     */
+    static void selectTopK(int[] indices, int k, IndexComparator comparator) {
+        final int size = indices.length;
+        k = Math.min(k, size);
+        if (k <= 0) {
+            return;
+        }
+        int lo = 0;
+        int hi = size - 1;
+        int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(size));
+        while (hi > lo) {
+            if (depthLimit-- == 0) {
+                heapSort(indices, lo, hi + 1, comparator);
+                break;
+            }
+            final int pivot = partition(indices, lo, hi, comparator);
+            if (pivot == k - 1) {
+                break;
+            } else if (pivot < k - 1) {
+                lo = pivot + 1;
+            } else {
+                hi = pivot - 1;
+            }
+        }
+        heapSort(indices, 0, k, comparator);
+    }
+
+    /**
+     * Partition {@code indices[lo..hi]} around a median-of-three pivot.
+     *
+     * @return the final position of the pivot; all entries before it compare less than or equal
+     * to it, and all entries after it compare greater than or equal to it.
+     */
+    private static int partition(int[] indices, int lo, int hi, IndexComparator comparator) {
+        final int mid = (lo + hi) >>> 1;
+        if (comparator.compare(indices[mid], indices[lo]) < 0) {
+            swap(indices, mid, lo);
+        }
+        if (comparator.compare(indices[hi], indices[lo]) < 0) {
+            swap(indices, hi, lo);
+        }
+        if (comparator.compare(indices[mid], indices[hi]) < 0) {
+            swap(indices, mid, hi);
+        }
+        // The median is now at hi.
+        final int pivot = indices[hi];
+        int store = lo;
+        for (int i = lo; i < hi; i++) {
+            if (comparator.compare(indices[i], pivot) < 0) {
+                swap(indices, i, store++);
+            }
+        }
+        swap(indices, store, hi);
+        return store;
+    }
+
+    /** Sort {@code indices[from..to)} in place. */
+    private static void heapSort(int[] indices, int from, int to, IndexComparator comparator) {
+        final int size = to - from;
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(indices, from, i, size, comparator);
+        }
+        for (int end = size - 1; end > 0; end--) {
+            swap(indices, from, from + end);
+            siftDown(indices, from, 0, end, comparator);
+        }
+    }
+
+    private static void siftDown(
+            int[] indices, int offset, int node, int size, IndexComparator comparator) {
+        while (true) {
+            int largest = node;
+            final int left = 2 * node + 1;
+            final int right = left + 1;
+            if (left < size && comparator.compare(
+                    indices[offset + left], indices[offset + largest]) > 0) {
+                largest = left;
+            }
+            if (right < size && comparator.compare(
+                    indices[offset + right], indices[offset + largest]) > 0) {
+                largest = right;
+            }
+            if (largest == node) {
+                return;
+            }
+            swap(indices, offset + node, offset + largest);
+            node = largest;
+        }
+    }
+
+    private static void swap(int[] indices, int i, int j) {
+        final int tmp = indices[i];
+        indices[i] = indices[j];
+        indices[j] = tmp;
+    }
+}
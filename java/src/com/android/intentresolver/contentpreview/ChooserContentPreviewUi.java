@@ -26,7 +26,6 @@ import android.content.ContentInterface;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.net.Uri;
-import android.os.RemoteException;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 
@@ -132,7 +131,8 @@ public final class ChooserContentPreviewUi {
             ActionFactory actionFactory,
             TransitionElementStatusCallback transitionElementStatusCallback,
             FeatureFlagRepository featureFlagRepository) {
-        int type = findPreferredContentPreview(targetIntent, contentResolver, imageClassifier);
+        UriMetadataReader metadataReader = new UriMetadataReader(contentResolver);
+        int type = findPreferredContentPreview(targetIntent, metadataReader, imageClassifier);
         switch (type) {
             case CONTENT_PREVIEW_TEXT:
                 return createTextPreview(
@@ -143,14 +143,14 @@ public final class ChooserContentPreviewUi {
                         extractContentUris(targetIntent),
                         actionFactory,
                         imageLoader,
-                        contentResolver,
+                        metadataReader,
                         featureFlagRepository);
 
             case CONTENT_PREVIEW_IMAGE:
                 return createImagePreview(
                         targetIntent,
                         actionFactory,
-                        contentResolver,
+                        metadataReader,
                         imageClassifier,
                         imageLoader,
                         transitionElementStatusCallback,
@@ -178,7 +178,7 @@ public final class ChooserContentPreviewUi {
     @ContentPreviewType
     private static int findPreferredContentPreview(
             Intent targetIntent,
-            ContentInterface resolver,
+            UriMetadataReader metadataReader,
             ImageMimeTypeClassifier imageClassifier) {
         /* In {@link android.content.Intent#getType}, the app may specify a very general mime type
          * that broadly covers all data being shared, such as {@literal *}/* when sending an image
@@ -196,7 +196,16 @@ public final class ChooserContentPreviewUi {
 
         if (isSend) {
             Uri uri = targetIntent.getParcelableExtra(Intent.EXTRA_STREAM);
-            return findPreferredContentPreview(uri, resolver, imageClassifier);
+            if (uri == null) {
+                return CONTENT_PREVIEW_TEXT;
+            }
+            // Should this turn out to be a file preview, it needs the file info; read it meanwhile.
+            if (ContentPreviewUi.validForContentPreview(uri)) {
+                metadataReader.prefetchFileInfo(uri);
+            }
+            return imageClassifier.isImageType(metadataReader.getType(uri))
+                    ? CONTENT_PREVIEW_IMAGE
+                    : CONTENT_PREVIEW_FILE;
         }
 
         List<Uri> uris = targetIntent.getParcelableArrayListExtra(Intent.EXTRA_STREAM);
@@ -205,30 +214,16 @@ public final class ChooserContentPreviewUi {
         }
 
         for (Uri uri : uris) {
-            // Defaulting to file preview when there are mixed image/file types is
-            // preferable, as it shows the user the correct number of items being shared
-            int uriPreviewType = findPreferredContentPreview(uri, resolver, imageClassifier);
-            if (uriPreviewType == CONTENT_PREVIEW_FILE) {
-                return CONTENT_PREVIEW_FILE;
+            if (ContentPreviewUi.validForContentPreview(uri)) {
+                metadataReader.prefetchFileInfo(uri);
+                break;
             }
         }
-
-        return CONTENT_PREVIEW_IMAGE;
-    }
-
-    @ContentPreviewType
-    private static int findPreferredContentPreview(
-            Uri uri, ContentInterface resolver, ImageMimeTypeClassifier imageClassifier) {
-        if (uri == null) {
-            return CONTENT_PREVIEW_TEXT;
-        }
-
-        String mimeType = null;
-        try {
-            mimeType = resolver.getType(uri);
-        } catch (RemoteException ignored) {
-        }
-        return imageClassifier.isImageType(mimeType) ? CONTENT_PREVIEW_IMAGE : CONTENT_PREVIEW_FILE;
+        // Defaulting to file preview when there are mixed image/file types is
+        // preferable, as it shows the user the correct number of items being shared
+        return metadataReader.allTypesMatch(uris, imageClassifier::isImageType)
+                ? CONTENT_PREVIEW_IMAGE
+                : CONTENT_PREVIEW_FILE;
     }
 
     private static TextContentPreviewUi createTextPreview(
@@ -258,7 +253,7 @@ public final class ChooserContentPreviewUi {
     static ImageContentPreviewUi createImagePreview(
             Intent targetIntent,
             ChooserContentPreviewUi.ActionFactory actionFactory,
-            ContentInterface contentResolver,
+            UriMetadataReader metadataReader,
             ChooserContentPreviewUi.ImageMimeTypeClassifier imageClassifier,
             ImageLoader imageLoader,
             ImagePreviewView.TransitionElementStatusCallback transitionElementStatusCallback,
@@ -270,14 +265,7 @@ public final class ChooserContentPreviewUi {
                 ? extractContentUris(targetIntent)
                 : extractContentUris(targetIntent)
                         .stream()
-                        .filter(uri -> {
-                            String type = null;
-                            try {
-                                type = contentResolver.getType(uri);
-                            } catch (RemoteException ignored) {
-                            }
-                            return imageClassifier.isImageType(type);
-                        })
+                        .filter(uri -> imageClassifier.isImageType(metadataReader.getType(uri)))
                         .collect(Collectors.toList());
         return new ImageContentPreviewUi(
                 imageUris,
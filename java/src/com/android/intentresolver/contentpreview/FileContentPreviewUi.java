@@ -16,15 +16,8 @@
 
 package com.android.intentresolver.contentpreview;
 
-import android.content.ContentInterface;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.net.Uri;
-import android.os.RemoteException;
-import android.provider.DocumentsContract;
-import android.provider.Downloads;
-import android.provider.OpenableColumns;
-import android.text.TextUtils;
 import android.util.Log;
 import android.util.PluralsMessageFormatter;
 import android.view.LayoutInflater;
@@ -52,18 +45,18 @@ class FileContentPreviewUi extends ContentPreviewUi {
     private final List<Uri> mUris;
     private final ChooserContentPreviewUi.ActionFactory mActionFactory;
     private final ImageLoader mImageLoader;
-    private final ContentInterface mContentResolver;
+    private final UriMetadataReader mMetadataReader;
     private final FeatureFlagRepository mFeatureFlagRepository;
 
     FileContentPreviewUi(List<Uri> uris,
             ChooserContentPreviewUi.ActionFactory actionFactory,
             ImageLoader imageLoader,
-            ContentInterface contentResolver,
+            UriMetadataReader metadataReader,
             FeatureFlagRepository featureFlagRepository) {
         mUris = uris;
         mActionFactory = actionFactory;
         mImageLoader = imageLoader;
-        mContentResolver = contentResolver;
+        mMetadataReader = metadataReader;
         mFeatureFlagRepository = featureFlagRepository;
     }
 
@@ -95,9 +88,9 @@ class FileContentPreviewUi extends ContentPreviewUi {
         }
 
         if (uriCount == 1) {
-            loadFileUriIntoView(mUris.get(0), contentPreviewLayout, mImageLoader, mContentResolver);
+            loadFileUriIntoView(mUris.get(0), contentPreviewLayout, mImageLoader, mMetadataReader);
         } else {
-            FileInfo fileInfo = extractFileInfo(mUris.get(0), mContentResolver);
+            UriMetadataReader.FileInfo fileInfo = mMetadataReader.getFileInfo(mUris.get(0));
             int remUriCount = uriCount - 1;
             Map<String, Object> arguments = new HashMap<>();
             arguments.put(PLURALS_COUNT, remUriCount);
@@ -146,8 +139,8 @@ class FileContentPreviewUi extends ContentPreviewUi {
             final Uri uri,
             final View parent,
             final ImageLoader imageLoader,
-            final ContentInterface contentResolver) {
-        FileInfo fileInfo = extractFileInfo(uri, contentResolver);
+            final UriMetadataReader metadataReader) {
+        UriMetadataReader.FileInfo fileInfo = metadataReader.getFileInfo(uri);
 
         TextView fileNameView = parent.findViewById(
                 com.android.internal.R.id.content_preview_filename);
@@ -171,66 +164,4 @@ class FileContentPreviewUi extends ContentPreviewUi {
             fileIconView.setImageResource(R.drawable.chooser_file_generic);
         }
     }
-
-    private static FileInfo extractFileInfo(Uri uri, ContentInterface resolver) {
-        String fileName = null;
-        boolean hasThumbnail = false;
-
-        try (Cursor cursor = queryResolver(resolver, uri)) {
-            if (cursor != null && cursor.getCount() > 0) {
-                int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                int titleIndex = cursor.getColumnIndex(Downloads.Impl.COLUMN_TITLE);
-                int flagsIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_FLAGS);
-
-                cursor.moveToFirst();
-                if (nameIndex != -1) {
-                    fileName = cursor.getString(nameIndex);
-                } else if (titleIndex != -1) {
-                    fileName = cursor.getString(titleIndex);
-                }
-
-                if (flagsIndex != -1) {
-                    hasThumbnail = (cursor.getInt(flagsIndex)
-                            & DocumentsContract.Document.FLAG_SUPPORTS_THUMBNAIL) != 0;
-                }
-            }
-        } catch (SecurityException | NullPointerException e) {
-            // The ContentResolver already logs the exception. Log something more informative.
-            Log.w(
-                    TAG,
-                    "Could not load (" + uri.toString() + ") thumbnail/name for preview. If "
-                    + "desired, consider using Intent#createChooser to launch the ChooserActivity, "
-                    + "and set your Intent's clipData and flags in accordance with that method's "
-                    + "documentation");
-        }
-
-        if (TextUtils.isEmpty(fileName)) {
-            fileName = uri.getPath();
-            fileName = fileName == null ? "" : fileName;
-            int index = fileName.lastIndexOf('/');
-            if (index != -1) {
-                fileName = fileName.substring(index + 1);
-            }
-        }
-
-        return new FileInfo(fileName, hasThumbnail);
-    }
-
-    private static Cursor queryResolver(ContentInterface resolver, Uri uri) {
-        try {
-            return resolver.query(uri, null, null, null);
-        } catch (RemoteException e) {
-            return null;
-        }
-    }
-
-    private static class FileInfo {
-        public final String name;
-        public final boolean hasThumbnail;
-
-        FileInfo(String name, boolean hasThumbnail) {
-            this.name = name;
-            this.hasThumbnail = hasThumbnail;
-        }
-    }
 }
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.contentpreview;
+
+import android.content.ContentInterface;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.provider.DocumentsContract;
+import android.provider.Downloads;
+import android.provider.OpenableColumns;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Reads the metadata of the shared URIs that the content previews need (MIME types, file names and
+ * thumbnail support), caching it so that each piece is only requested from the provider once per
+ * preview.
+ *
+ * Batches of URIs are read concurrently, a provider client being acquired once per authority for
+ * the whole batch rather than once per call.
+ */
+final class UriMetadataReader {
+    private static final String TAG = "UriMetadataReader";
+
+    private static final int MAX_THREADS = 4;
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    private static final String[] FILE_INFO_PROJECTION = {
+            OpenableColumns.DISPLAY_NAME, DocumentsContract.Document.COLUMN_FLAGS
+    };
+
+    private static ThreadPoolExecutor sExecutor;
+
+    private final ContentInterface mResolver;
+    private final Executor mExecutor;
+
+    private final Map<Uri, CompletableFuture<String>> mTypes = new ConcurrentHashMap<>();
+    private final Map<Uri, CompletableFuture<FileInfo>> mFileInfos = new ConcurrentHashMap<>();
+
+    UriMetadataReader(ContentInterface resolver) {
+        this(resolver, getExecutor());
+    }
+
+    @VisibleForTesting
+    UriMetadataReader(ContentInterface resolver, Executor executor) {
+        mResolver = resolver;
+        mExecutor = executor;
+    }
+
+    /** @return the MIME type of {@code uri}, or null if unknown. */
+    @Nullable
+    String getType(Uri uri) {
+        while (true) {
+            final CompletableFuture<String> type = new CompletableFuture<>();
+            final CompletableFuture<String> existing = mTypes.putIfAbsent(uri, type);
+            if (existing == null) {
+                type.complete(readType(mResolver, uri));
+                return type.join();
+            }
+            try {
+                return await(existing);
+            } catch (CancellationException e) {
+                // Abandoned by a batch that stopped early.
+                mTypes.remove(uri, existing);
+            }
+        }
+    }
+
+    /**
+     * @return whether the types of all the (non-null) {@code uris} are accepted by
+     * {@code predicate}. The types are read concurrently, and reading stops as soon as one of them
+     * is rejected.
+     */
+    boolean allTypesMatch(List<Uri> uris, Predicate<String> predicate) {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final List<CompletableFuture<String>> types = readTypes(uris, stop);
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        for (CompletableFuture<String> type : types) {
+            type.thenAccept(value -> {
+                if (!predicate.test(value)) {
+                    result.complete(false);
+                }
+            });
+        }
+        CompletableFuture.allOf(types.toArray(new CompletableFuture[0]))
+                .whenComplete((ignored, error) -> result.complete(error == null ? true : null));
+        final Boolean allMatch = await(result);
+        if (allMatch == null) {
+            // Some of the types were abandoned by an earlier batch; read them one by one.
+            for (Uri uri : uris) {
+                if (uri != null && !predicate.test(getType(uri))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        stop.set(!allMatch);
+        return allMatch;
+    }
+
+    /** Start reading the file info of {@code uri} in the background, if not read already. */
+    void prefetchFileInfo(Uri uri) {
+        final CompletableFuture<FileInfo> info = new CompletableFuture<>();
+        if (mFileInfos.putIfAbsent(uri, info) == null) {
+            mExecutor.execute(() -> info.complete(readFileInfo(mResolver, uri)));
+        }
+    }
+
+    /** @return the display name and thumbnail support of {@code uri}. */
+    FileInfo getFileInfo(Uri uri) {
+        final CompletableFuture<FileInfo> info = new CompletableFuture<>();
+        final CompletableFuture<FileInfo> existing = mFileInfos.putIfAbsent(uri, info);
+        if (existing != null) {
+            return await(existing);
+        }
+        info.complete(readFileInfo(mResolver, uri));
+        return info.join();
+    }
+
+    private List<CompletableFuture<String>> readTypes(List<Uri> uris, AtomicBoolean stop) {
+        final List<CompletableFuture<String>> types = new ArrayList<>(uris.size());
+        final Map<String, List<Uri>> urisByAuthority = new LinkedHashMap<>();
+        final Map<Uri, CompletableFuture<String>> pending = new LinkedHashMap<>();
+        for (Uri uri : uris) {
+            if (uri == null) {
+                continue;
+            }
+            final CompletableFuture<String> type = new CompletableFuture<>();
+            final CompletableFuture<String> existing = mTypes.putIfAbsent(uri, type);
+            if (existing != null) {
+                types.add(existing);
+                continue;
+            }
+            types.add(type);
+            pending.put(uri, type);
+            urisByAuthority.computeIfAbsent(uri.getAuthority(), k -> new ArrayList<>()).add(uri);
+        }
+        for (Map.Entry<String, List<Uri>> group : urisByAuthority.entrySet()) {
+            final ProviderLease lease = new ProviderLease(group.getKey(), group.getValue().size());
+            for (Uri uri : group.getValue()) {
+                final CompletableFuture<String> type = pending.get(uri);
+                mExecutor.execute(() -> {
+                    try {
+                        if (stop.get()) {
+                            // Nobody is waiting for this type any more; let it be read on demand.
+                            mTypes.remove(uri, type);
+                            type.cancel(false);
+                        } else {
+                            type.complete(readType(lease.get(), uri));
+                        }
+                    } finally {
+                        lease.release();
+                    }
+                });
+            }
+        }
+        return types;
+    }
+
+    @Nullable
+    private static String readType(ContentInterface resolver, Uri uri) {
+        try {
+            return resolver.getType(uri);
+        } catch (RemoteException | RuntimeException ignored) {
+            return null;
+        }
+    }
+
+    private static FileInfo readFileInfo(ContentInterface resolver, Uri uri) {
+        String fileName = null;
+        boolean hasThumbnail = false;
+
+        try (Cursor cursor = queryFileInfo(resolver, uri)) {
+            if (cursor != null && cursor.getCount() > 0) {
+                int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+                int titleIndex = cursor.getColumnIndex(Downloads.Impl.COLUMN_TITLE);
+                int flagsIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_FLAGS);
+
+                cursor.moveToFirst();
+                if (nameIndex != -1) {
+                    fileName = cursor.getString(nameIndex);
+                } else if (titleIndex != -1) {
+                    fileName = cursor.getString(titleIndex);
+                }
+
+                if (flagsIndex != -1) {
+                    hasThumbnail = (cursor.getInt(flagsIndex)
+                            & DocumentsContract.Document.FLAG_SUPPORTS_THUMBNAIL) != 0;
+                }
+            }
+        } catch (SecurityException | NullPointerException e) {
+            // The ContentResolver already logs the exception. Log something more informative.
+            Log.w(
+                    TAG,
+                    "Could not load (" + uri.toString() + ") thumbnail/name for preview. If "
+                    + "desired, consider using Intent#createChooser to launch the ChooserActivity, "
+                    + "and set your Intent's clipData and flags in accordance with that method's "
+                    + "documentation");
+        }
+
+        if (TextUtils.isEmpty(fileName)) {
+            fileName = uri.getPath();
+            fileName = fileName == null ? "" : fileName;
+            int index = fileName.lastIndexOf('/');
+            if (index != -1) {
+                fileName = fileName.substring(index + 1);
+            }
+        }
+
+        return new FileInfo(fileName, hasThumbnail);
+    }
+
+    /**
+     * Query only the columns used for the file info, falling back to all columns for providers
+     * that reject the projection or don't report a display name (e.g. those reporting a title).
+     */
+    @Nullable
+    private static Cursor queryFileInfo(ContentInterface resolver, Uri uri) {
+        try {
+            final Cursor cursor = resolver.query(uri, FILE_INFO_PROJECTION, null, null);
+            if (cursor == null || cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME) != -1) {
+                return cursor;
+            }
+            cursor.close();
+        } catch (IllegalArgumentException e) {
+            // Unsupported projection.
+        } catch (RemoteException e) {
+            return null;
+        }
+        try {
+            return resolver.query(uri, null, null, null);
+        } catch (RemoteException e) {
+            return null;
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    // The provider calls are short and bounded; finish waiting, and restore the
+                    // interrupt afterwards.
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static synchronized Executor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(
+                    MAX_THREADS,
+                    MAX_THREADS,
+                    THREAD_KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>());
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    /**
+     * A provider client shared by the reads of a batch for the same authority, acquired by the
+     * first read and closed after the last one.
+     */
+    private final class ProviderLease {
+        private final String mAuthority;
+        private final AtomicInteger mUsers;
+
+        @GuardedBy("this")
+        private boolean mAcquired;
+        @GuardedBy("this")
+        @Nullable
+        private ContentProviderClient mClient;
+
+        ProviderLease(String authority, int users) {
+            mAuthority = authority;
+            mUsers = new AtomicInteger(users);
+        }
+
+        synchronized ContentInterface get() {
+            if (!mAcquired) {
+                mAcquired = true;
+                if (mAuthority != null && mResolver instanceof ContentResolver) {
+                    mClient = ((ContentResolver) mResolver)
+                            .acquireUnstableContentProviderClient(mAuthority);
+                }
+            }
+            return mClient == null ? mResolver : mClient;
+        }
+
+        void release() {
+            if (mUsers.decrementAndGet() == 0) {
+                synchronized (this) {
+                    if (mClient != null) {
+                        mClient.close();
+                        mClient = null;
+                    }
+                }
+            }
+        }
+    }
+
+    static final class FileInfo {
+        public final String name;
+        public final boolean hasThumbnail;
+
+        FileInfo(String name, boolean hasThumbnail) {
+            this.name = name;
+            this.hasThumbnail = hasThumbnail;
+        }
+    }
+}
@@ -172,6 +172,17 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
                 notifyDataSetChanged();
             }
         });
+        wrappedAdapter.setOnRankedTargetsMovedListener(this::notifyRankedTargetsMoved);
+    }
+
+    private void notifyRankedTargetsMoved(int firstPosition, int lastPosition) {
+        // The inverse of getListPosition() for the caller and ranked target rows.
+        final int firstRankedRow =
+                getSystemRowCount() + getProfileRowCount() + getServiceTargetRowCount();
+        final int serviceCount = mChooserListAdapter.getServiceTargetCount();
+        final int firstRow = firstRankedRow + (firstPosition - serviceCount) / mMaxTargetsPerRow;
+        final int lastRow = firstRankedRow + (lastPosition - serviceCount) / mMaxTargetsPerRow;
+        notifyItemRangeChanged(firstRow, lastRow - firstRow + 1);
     }
 
     public void setFooterHeight(int height) {
@@ -16,6 +16,7 @@
 
 package com.android.intentresolver.model;
 
+import android.annotation.Nullable;
 import android.app.usage.UsageStatsManager;
 import android.content.ComponentName;
 import android.content.Context;
@@ -24,19 +25,26 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.os.BadParcelableException;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.UserHandle;
 import android.util.Log;
 
 import com.android.intentresolver.ChooserActivityLogger;
+import com.android.intentresolver.CollationKeyCache;
 import com.android.intentresolver.ResolvedComponentInfo;
 import com.android.intentresolver.ResolverActivity;
+import com.android.internal.annotations.GuardedBy;
 
-import java.text.Collator;
+import java.text.CollationKey;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Used to sort resolved activities in {@link ResolverListController}.
@@ -66,10 +74,26 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
     // predicting ranking scores.
     private static final int WATCHDOG_TIMEOUT_MILLIS = 500;
 
+    private static HandlerThread sRankerThread;
+
     private final Comparator<ResolveInfo> mAzComparator;
     private ChooserActivityLogger mChooserActivityLogger;
-
-    protected final Handler mHandler = new Handler(Looper.getMainLooper()) {
+    // The ChooserActivityLogger token of the ongoing compute, or 0. Written on the computing
+    // thread and ended on the ranker thread.
+    private final AtomicInteger mComputePhase = new AtomicInteger();
+
+    private final Object mLateResultLock = new Object();
+    // Whether the ongoing compute has finished, in time or not, so that results received afterwards
+    // are late results.
+    @GuardedBy("mLateResultLock")
+    private boolean mComputeFinished;
+    @GuardedBy("mLateResultLock")
+    private Message mLateResult;
+    private volatile Runnable mAfterLateResult;
+
+    // Results are handled on a background thread rather than the main thread, so that the
+    // sorting, which waits for them, doesn't also wait for the main thread to be idle.
+    protected final Handler mHandler = new Handler(getRankerLooper()) {
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case RANKER_SERVICE_RESULT:
@@ -79,7 +103,10 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
                     if (mHandler.hasMessages(RANKER_RESULT_TIMEOUT)) {
                         handleResultMessage(msg);
                         mHandler.removeMessages(RANKER_RESULT_TIMEOUT);
+                        endComputePhase(ChooserActivityLogger.PHASE_OUTCOME_COMPLETED);
                         afterCompute();
+                    } else {
+                        onLateResult(msg);
                     }
                     break;
 
@@ -88,6 +115,7 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
                         Log.d(TAG, "RANKER_RESULT_TIMEOUT; unbinding services");
                     }
                     mHandler.removeMessages(RANKER_SERVICE_RESULT);
+                    endComputePhase(ChooserActivityLogger.PHASE_OUTCOME_TIMEOUT);
                     afterCompute();
                     if (mChooserActivityLogger != null) {
                         mChooserActivityLogger.logSharesheetAppShareRankingTimeout();
@@ -135,6 +163,58 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
         mAfterCompute = afterCompute;
     }
 
+    /**
+     * Sets a callback to run when results arrive after the ongoing {@link #compute(List)} finished
+     * without them (it timed out, or finished with a provisional ranking) and the targets were
+     * ordered without them. The results are only applied by
+     * {@link #applyLateResult()}, so that they can't change the ordering during a sort. The
+     * callback may run on any thread.
+     */
+    public void setLateResultCallback(Runnable afterLateResult) {
+        mAfterLateResult = afterLateResult;
+    }
+
+    /**
+     * Applies the results that arrived after the last {@link #compute(List)} finished, if any.
+     * Must not be called while the targets are being sorted with this comparator.
+     *
+     * @return whether there were late results, i.e. whether the targets have to be sorted again.
+     */
+    public final boolean applyLateResult() {
+        final Message lateResult;
+        synchronized (mLateResultLock) {
+            lateResult = mLateResult;
+            mLateResult = null;
+        }
+        if (lateResult == null) {
+            return false;
+        }
+        handleResultMessage(lateResult);
+        lateResult.recycle();
+        return true;
+    }
+
+    /** Keeps {@code msg} for {@link #applyLateResult()} if the ongoing compute has finished. */
+    private void onLateResult(Message msg) {
+        synchronized (mLateResultLock) {
+            if (!mComputeFinished) {
+                return;
+            }
+            if (mLateResult != null) {
+                mLateResult.recycle();
+            }
+            // The message is recycled once handled, so keep a copy.
+            mLateResult = Message.obtain(msg);
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Received ranking results after finishing the compute");
+        }
+        final Runnable afterLateResult = mAfterLateResult;
+        if (afterLateResult != null) {
+            afterLateResult.run();
+        }
+    }
+
     void setChooserActivityLogger(ChooserActivityLogger chooserActivityLogger) {
         mChooserActivityLogger = chooserActivityLogger;
     }
@@ -144,6 +224,9 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
     }
 
     protected final void afterCompute() {
+        synchronized (mLateResultLock) {
+            mComputeFinished = true;
+        }
         final Runnable afterCompute = mAfterCompute;
         if (afterCompute != null) {
             afterCompute.run();
@@ -187,6 +270,62 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
         return compare(lhs, rhs);
     }
 
+    /**
+     * Fills {@code outKeys} with a sort key for each of the {@code targets}, such that whenever the
+     * keys of two targets differ, {@link #compare(ResolvedComponentInfo, ResolvedComponentInfo)}
+     * orders the target with the greater key first. Targets with equal keys have to be compared
+     * directly.
+     *
+     * The keys encode the cross-profile, specific-URI and pinned special cases and, if the model
+     * provides an {@link #getOrderingScore(ResolveInfo) ordering score} for every remaining
+     * target, that score.
+     */
+    public final void getSortKeys(List<ResolvedComponentInfo> targets, float[] outKeys) {
+        final int size = targets.size();
+        boolean useScores = true;
+        for (int i = 0; i < size; i++) {
+            final ResolvedComponentInfo target = targets.get(i);
+            final ResolveInfo info = target.getResolveInfoAt(0);
+            if (info.targetUserId != UserHandle.USER_CURRENT) {
+                // Ordered after everything else, and equal among themselves.
+                outKeys[i] = 0;
+                continue;
+            }
+            int tier = 1;
+            if (mHttp && ResolverActivity.isSpecificUriMatch(info.match)) {
+                tier += 2;
+            }
+            if (target.isPinned()) {
+                // Pinned targets are ordered alphabetically among themselves.
+                tier += 1;
+                outKeys[i] = 2 * tier;
+                continue;
+            }
+            float score = useScores ? getOrderingScore(info) : Float.NaN;
+            if (Float.isNaN(score)) {
+                useScores = false;
+                score = 0;
+            }
+            // Clamping can only merge keys, which then fall back to compare().
+            outKeys[i] = 2 * tier + Math.max(0f, Math.min(1f, score));
+        }
+        if (!useScores) {
+            // Scores are only consistent with compare() if every target has one.
+            for (int i = 0; i < size; i++) {
+                outKeys[i] = 2 * (float) Math.floor(outKeys[i] / 2);
+            }
+        }
+    }
+
+    /**
+     * Returns a score for {@code target} that is consistent with {@link #compare(ResolveInfo,
+     * ResolveInfo)}: a target with a greater score is always ordered first. Returns NaN if there
+     * is no such score for the target; this is the default.
+     */
+    float getOrderingScore(ResolveInfo target) {
+        return Float.NaN;
+    }
+
     /**
      * Delegated to when used as a {@link Comparator<ResolvedComponentInfo>} if there is not a
      * special case. The {@link ResolveInfo ResolveInfos} are the first {@link ResolveInfo} in
@@ -204,10 +343,44 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
      * before doing any computing.
      */
     public final void compute(List<ResolvedComponentInfo> targets) {
+        synchronized (mLateResultLock) {
+            mComputeFinished = false;
+            if (mLateResult != null) {
+                mLateResult.recycle();
+                mLateResult = null;
+            }
+        }
+        endComputePhase(ChooserActivityLogger.PHASE_OUTCOME_SUPERSEDED);
+        if (mChooserActivityLogger != null) {
+            mComputePhase.set(mChooserActivityLogger.beginPhase(
+                    ChooserActivityLogger.Phase.RANKER_COMPUTE, null));
+        }
         beforeCompute();
         doCompute(targets);
     }
 
+    /**
+     * Finishes the ongoing {@link #compute(List)} with the provisional ranking, without waiting
+     * for the results of the ranking service. Those are then handled as late results; see
+     * {@link #setLateResultCallback(Runnable)}.
+     */
+    final void finishComputeProvisionally() {
+        mHandler.removeMessages(RANKER_RESULT_TIMEOUT);
+        endComputePhase(ChooserActivityLogger.PHASE_OUTCOME_PROVISIONAL);
+        afterCompute();
+    }
+
+    /**
+     * Ends the timing of the ongoing {@link #compute(List)}, if any, with the given
+     * {@link ChooserActivityLogger} phase {@code outcome}.
+     */
+    final void endComputePhase(String outcome) {
+        final int computePhase = mComputePhase.getAndSet(0);
+        if (mChooserActivityLogger != null && computePhase != 0) {
+            mChooserActivityLogger.endPhase(computePhase, outcome);
+        }
+    }
+
     /** Implementation of compute called after {@link #beforeCompute()}. */
     abstract void doCompute(List<ResolvedComponentInfo> targets);
 
@@ -226,6 +399,8 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
     public final void updateChooserCounts(String packageName, int userId, String action) {
         if (mUsm != null) {
             mUsm.reportChooserSelection(packageName, userId, mContentType, mAnnotations, action);
+            UsageStatsSnapshotCache.getInstance().noteChooserSelection(
+                    userId, packageName, mContentType, mAnnotations, action);
         }
     }
 
@@ -260,15 +435,29 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
         mHandler.removeMessages(RANKER_RESULT_TIMEOUT);
         afterCompute();
         mAfterCompute = null;
+        mAfterLateResult = null;
+    }
+
+    private static synchronized Looper getRankerLooper() {
+        if (sRankerThread == null) {
+            sRankerThread = new HandlerThread("ResolverRanker");
+            sRankerThread.start();
+        }
+        return sRankerThread.getLooper();
     }
 
     /**
-     * Sort intents alphabetically based on package name.
+     * Sort intents alphabetically based on package name. Each package name is collated at most
+     * once per comparator, and the keys are shared across comparators through
+     * {@link CollationKeyCache}. This comparator outlives a single sort, and sorts may overlap, so
+     * its keys are held by package name in a concurrent map.
      */
     class AzInfoComparator implements Comparator<ResolveInfo> {
-        Collator mCollator;
+        private final Locale mLocale;
+        private final Map<String, CollationKey> mKeys = new ConcurrentHashMap<>();
+
         AzInfoComparator(Context context) {
-            mCollator = Collator.getInstance(context.getResources().getConfiguration().locale);
+            mLocale = context.getResources().getConfiguration().locale;
         }
 
         @Override
@@ -278,7 +467,20 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
             } else if (rhsp == null) {
                 return 1;
             }
-            return mCollator.compare(lhsp.activityInfo.packageName, rhsp.activityInfo.packageName);
+            return getCollationKey(lhsp.activityInfo.packageName).compareTo(
+                    getCollationKey(rhsp.activityInfo.packageName));
+        }
+
+        private CollationKey getCollationKey(@Nullable String packageName) {
+            if (packageName == null) {
+                packageName = "";
+            }
+            CollationKey key = mKeys.get(packageName);
+            if (key == null) {
+                key = CollationKeyCache.getInstance().getCollationKey(mLocale, packageName);
+                mKeys.put(packageName, key);
+            }
+            return key;
         }
     }
 
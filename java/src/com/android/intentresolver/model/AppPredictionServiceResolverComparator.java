@@ -101,8 +101,15 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
                     .setClassName(target.name.getClassName())
                     .build());
         }
+        final ChooserActivityLogger logger = getChooserActivityLogger();
+        final int callbackPhase = (logger == null) ? 0 : logger.beginPhase(
+                ChooserActivityLogger.Phase.APP_PREDICTOR_CALLBACK, null);
         mAppPredictor.sortTargets(appTargets, Executors.newSingleThreadExecutor(),
                 sortedAppTargets -> {
+                    if (logger != null) {
+                        logger.endPhase(callbackPhase, sortedAppTargets.isEmpty()
+                                ? "empty" : ChooserActivityLogger.PHASE_OUTCOME_COMPLETED);
+                    }
                     if (sortedAppTargets.isEmpty()) {
                         Log.i(TAG, "AppPredictionService disabled. Using resolver.");
                         // APS for chooser is disabled. Fallback to resolver.
@@ -111,6 +118,9 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
                                         mContext, mIntent, mReferrerPackage,
                                         () -> mHandler.sendEmptyMessage(RANKER_SERVICE_RESULT),
                                         getChooserActivityLogger());
+                        // Pass on its late results as ours.
+                        mResolverRankerService.setLateResultCallback(
+                                () -> mHandler.sendEmptyMessage(RANKER_SERVICE_RESULT));
                         mComparatorModel = buildUpdatedModel();
                         mResolverRankerService.compute(targets);
                     } else {
@@ -128,7 +138,10 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
         if (msg.what == RANKER_SERVICE_RESULT && msg.obj != null) {
             final List<AppTarget> sortedAppTargets = (List<AppTarget>) msg.obj;
             handleSortedAppTargets(sortedAppTargets);
-        } else if (msg.obj == null && mResolverRankerService == null) {
+        } else if (msg.obj == null && mResolverRankerService != null) {
+            // Apply the results of the ResolverRankerService if they arrived late.
+            mResolverRankerService.applyLateResult();
+        } else if (msg.obj == null) {
             Log.e(TAG, "Unexpected null result");
         }
     }
@@ -137,7 +150,11 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
         if (mHandler.hasMessages(RANKER_RESULT_TIMEOUT)) {
             handleSortedAppTargets(sortedAppTargets);
             mHandler.removeMessages(RANKER_RESULT_TIMEOUT);
+            endComputePhase(ChooserActivityLogger.PHASE_OUTCOME_COMPLETED);
             afterCompute();
+        } else {
+            // Possibly a late result; let the handler sort it out.
+            mHandler.obtainMessage(RANKER_SERVICE_RESULT, sortedAppTargets).sendToTarget();
         }
     }
 
@@ -171,6 +188,11 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
         return mComparatorModel.getScore(name);
     }
 
+    @Override
+    float getOrderingScore(ResolveInfo target) {
+        return mComparatorModel.getOrderingScore(target);
+    }
+
     @Override
     public void updateModel(ComponentName componentName) {
         mComparatorModel.notifyOnTargetSelected(componentName);
@@ -178,6 +200,7 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
 
     @Override
     public void destroy() {
+        setLateResultCallback(null);
         if (mResolverRankerService != null) {
             mResolverRankerService.destroy();
             mResolverRankerService = null;
@@ -245,6 +268,17 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
             };
         }
 
+        @Override
+        public float getOrderingScore(ResolveInfo target) {
+            if (mResolverRankerService != null) {
+                return mResolverRankerService.getOrderingScore(target);
+            }
+            Integer rank = mTargetRanks.get(new ComponentName(target.activityInfo.packageName,
+                    target.activityInfo.name));
+            // Unranked targets are ordered first, which no score in [0, 1] can express.
+            return (rank != null) ? 1.0f / (rank + 1) : Float.NaN;
+        }
+
         @Override
         public float getScore(ComponentName name) {
             if (mResolverRankerService != null) {
@@ -46,6 +46,16 @@ interface ResolverComparatorModel {
      */
     float getScore(ComponentName name);
 
+    /**
+     * Get a score for {@code target} that is consistent with {@code getComparator()}, i.e. such
+     * that the comparator always orders a target with a greater score first, or NaN if the model
+     * can't provide one for this target. Targets with equal scores may still be ordered by the
+     * comparator's tie-breaks.
+     */
+    default float getOrderingScore(ResolveInfo target) {
+        return Float.NaN;
+    }
+
     /**
      * Notify the model that the user selected a target. (Models may log this information, use it as
      * a feedback signal for their ranking, etc.) Because the data in this
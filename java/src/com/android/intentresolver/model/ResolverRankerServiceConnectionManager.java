@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import android.annotation.Nullable;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.pm.ResolveInfo;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.service.resolver.IResolverRankerService;
+import android.service.resolver.ResolverRankerService;
+import android.util.ArraySet;
+import android.util.Log;
+
+import com.android.intentresolver.PackageChangeMonitor;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Process-wide connection to the {@link ResolverRankerService}, shared by the
+ * {@link ResolverRankerServiceResolverComparator} instances of all Resolver and Chooser sessions.
+ *
+ * The ranker is resolved (and its permissions checked) once until packages change, as reported
+ * by the {@link PackageChangeMonitor}. It is bound while acquired by any comparator, and stays
+ * bound for a while after the last one releases it, so that the next session usually finds it
+ * connected already.
+ */
+final class ResolverRankerServiceConnectionManager {
+    private static final String TAG = "RRSConnectionManager";
+    private static final boolean DEBUG = false;
+
+    private static final long IDLE_UNBIND_TIMEOUT_MILLIS = 2 * 60 * 1000;
+
+    private static ResolverRankerServiceConnectionManager sInstance;
+
+    /**
+     * Notified of the connection to the ranker while it's acquired, on the main thread (or from
+     * {@link #acquire(Listener)} if the ranker is connected already).
+     */
+    interface Listener {
+        void onRankerConnected(IResolverRankerService ranker);
+
+        void onRankerDisconnected();
+    }
+
+    private final Context mContext;
+    private final PackageManager mPm;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final long mIdleUnbindTimeoutMillis;
+    private final Runnable mUnbindIfIdle = this::unbindIfIdle;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final Set<Listener> mListeners = new ArraySet<>();
+
+    // Whether mRankerName is up to date with the installed packages.
+    @GuardedBy("mLock")
+    private boolean mResolved;
+
+    @GuardedBy("mLock")
+    @Nullable
+    private ComponentName mRankerName;
+
+    @GuardedBy("mLock")
+    @Nullable
+    private RankerConnection mConnection;
+
+    @GuardedBy("mLock")
+    @Nullable
+    private IResolverRankerService mRanker;
+
+    /** @return the process-wide instance. */
+    static synchronized ResolverRankerServiceConnectionManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ResolverRankerServiceConnectionManager(
+                    context.getApplicationContext(), IDLE_UNBIND_TIMEOUT_MILLIS);
+            PackageChangeMonitor.getInstance().addListener(sInstance::invalidate);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    ResolverRankerServiceConnectionManager(Context context, long idleUnbindTimeoutMillis) {
+        mContext = context;
+        mPm = context.getPackageManager();
+        mIdleUnbindTimeoutMillis = idleUnbindTimeoutMillis;
+    }
+
+    /**
+     * Start using the ranker on behalf of {@code listener}, binding to it unless it's bound
+     * already. If the ranker is connected, {@code listener} is notified before this returns.
+     * Acquiring again with the same listener has no further effect.
+     *
+     * @return the ranker service, or null if there is no valid one.
+     */
+    @Nullable
+    ComponentName acquire(Listener listener) {
+        final ComponentName rankerName;
+        final IResolverRankerService ranker;
+        final List<Listener> disconnectedListeners;
+        synchronized (mLock) {
+            mHandler.removeCallbacks(mUnbindIfIdle);
+            if (!mResolved) {
+                mRankerName = resolveRankerService();
+                mResolved = true;
+            }
+            if (mConnection != null && !mConnection.mName.equals(mRankerName)) {
+                // The ranker changed since it was bound.
+                disconnectedListeners = new ArrayList<>(mListeners);
+                unbindLocked();
+            } else {
+                disconnectedListeners = Collections.emptyList();
+            }
+            if (mRankerName != null && mConnection == null) {
+                bindLocked(mRankerName);
+            }
+            if (mConnection == null) {
+                mListeners.remove(listener);
+                rankerName = null;
+                ranker = null;
+            } else {
+                rankerName = mRankerName;
+                ranker = mListeners.add(listener) ? mRanker : null;
+            }
+        }
+        for (Listener disconnected : disconnectedListeners) {
+            disconnected.onRankerDisconnected();
+        }
+        if (ranker != null) {
+            listener.onRankerConnected(ranker);
+        }
+        return rankerName;
+    }
+
+    /**
+     * Stop using the ranker on behalf of {@code listener}. The ranker is unbound once it hasn't
+     * been used for a while.
+     */
+    void release(Listener listener) {
+        synchronized (mLock) {
+            if (mListeners.remove(listener) && mListeners.isEmpty()) {
+                mHandler.postDelayed(mUnbindIfIdle, mIdleUnbindTimeoutMillis);
+            }
+        }
+    }
+
+    /** Resolve the ranker again on next use, as packages changed. */
+    void invalidate() {
+        synchronized (mLock) {
+            mResolved = false;
+            if (mListeners.isEmpty()) {
+                unbindLocked();
+            }
+        }
+    }
+
+    private void unbindIfIdle() {
+        synchronized (mLock) {
+            if (mListeners.isEmpty()) {
+                if (DEBUG) {
+                    Log.d(TAG, "Unbinding idle ranker " + mRankerName);
+                }
+                unbindLocked();
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void bindLocked(ComponentName rankerName) {
+        final Intent intent = new Intent(ResolverRankerService.SERVICE_INTERFACE)
+                .setComponent(rankerName);
+        final RankerConnection connection = new RankerConnection(rankerName);
+        if (mContext.bindServiceAsUser(
+                intent, connection, Context.BIND_AUTO_CREATE, UserHandle.SYSTEM)) {
+            mConnection = connection;
+        } else {
+            Log.w(TAG, "Failed to bind " + rankerName);
+            mContext.unbindService(connection);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void unbindLocked() {
+        if (mConnection != null) {
+            mContext.unbindService(mConnection);
+            mConnection = null;
+            mRanker = null;
+        }
+    }
+
+    // resolve the service for ranking.
+    @Nullable
+    private ComponentName resolveRankerService() {
+        Intent intent = new Intent(ResolverRankerService.SERVICE_INTERFACE);
+        final List<ResolveInfo> resolveInfos = mPm.queryIntentServices(intent, 0);
+        for (ResolveInfo resolveInfo : resolveInfos) {
+            if (resolveInfo == null || resolveInfo.serviceInfo == null
+                    || resolveInfo.serviceInfo.applicationInfo == null) {
+                if (DEBUG) {
+                    Log.d(TAG, "Failed to retrieve a ranker: " + resolveInfo);
+                }
+                continue;
+            }
+            ComponentName componentName = new ComponentName(
+                    resolveInfo.serviceInfo.applicationInfo.packageName,
+                    resolveInfo.serviceInfo.name);
+            try {
+                final String perm = mPm.getServiceInfo(componentName, 0).permission;
+                if (!ResolverRankerService.BIND_PERMISSION.equals(perm)) {
+                    Log.w(TAG, "ResolverRankerService " + componentName + " does not require"
+                            + " permission " + ResolverRankerService.BIND_PERMISSION
+                            + " - this service will not be queried for "
+                            + "ResolverRankerServiceResolverComparator. add android:permission=\""
+                            + ResolverRankerService.BIND_PERMISSION + "\""
+                            + " to the <service> tag for " + componentName
+                            + " in the manifest.");
+                    continue;
+                }
+                if (PackageManager.PERMISSION_GRANTED != mPm.checkPermission(
+                        ResolverRankerService.HOLD_PERMISSION,
+                        resolveInfo.serviceInfo.packageName)) {
+                    Log.w(TAG, "ResolverRankerService " + componentName + " does not hold"
+                            + " permission " + ResolverRankerService.HOLD_PERMISSION
+                            + " - this service will not be queried for "
+                            + "ResolverRankerServiceResolverComparator.");
+                    continue;
+                }
+            } catch (NameNotFoundException e) {
+                Log.e(TAG, "Could not look up service " + componentName
+                        + "; component name not found");
+                continue;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Succeeded to retrieve a ranker: " + componentName);
+            }
+            return componentName;
+        }
+        return null;
+    }
+
+    private final class RankerConnection implements ServiceConnection {
+        final ComponentName mName;
+
+        RankerConnection(ComponentName name) {
+            mName = name;
+        }
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            if (DEBUG) {
+                Log.d(TAG, "onServiceConnected: " + name);
+            }
+            final IResolverRankerService ranker = IResolverRankerService.Stub.asInterface(service);
+            final List<Listener> listeners;
+            synchronized (mLock) {
+                if (mConnection != this) {
+                    return;
+                }
+                mRanker = ranker;
+                listeners = new ArrayList<>(mListeners);
+            }
+            for (Listener listener : listeners) {
+                listener.onRankerConnected(ranker);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            if (DEBUG) {
+                Log.d(TAG, "onServiceDisconnected: " + name);
+            }
+            // Stays bound; reconnected when the service is restarted.
+            final List<Listener> listeners;
+            synchronized (mLock) {
+                if (mConnection != this) {
+                    return;
+                }
+                mRanker = null;
+                listeners = new ArrayList<>(mListeners);
+            }
+            for (Listener listener : listeners) {
+                listener.onRankerDisconnected();
+            }
+        }
+
+        @Override
+        public void onBindingDied(ComponentName name) {
+            if (DEBUG) {
+                Log.d(TAG, "onBindingDied: " + name);
+            }
+            // Bound again on next use.
+            final List<Listener> listeners;
+            synchronized (mLock) {
+                if (mConnection != this) {
+                    return;
+                }
+                listeners = new ArrayList<>(mListeners);
+                mListeners.clear();
+                unbindLocked();
+            }
+            for (Listener listener : listeners) {
+                listener.onRankerDisconnected();
+            }
+        }
+    }
+}
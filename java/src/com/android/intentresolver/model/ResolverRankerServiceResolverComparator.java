@@ -17,20 +17,15 @@
 
 package com.android.intentresolver.model;
 
-import android.app.usage.UsageStats;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.ServiceConnection;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
 import android.metrics.LogMaker;
-import android.os.IBinder;
 import android.os.Message;
 import android.os.RemoteException;
-import android.os.UserHandle;
 import android.service.resolver.IResolverRankerResult;
 import android.service.resolver.IResolverRankerService;
 import android.service.resolver.ResolverRankerService;
@@ -39,6 +34,7 @@ import android.util.Log;
 
 import com.android.intentresolver.ChooserActivityLogger;
 import com.android.intentresolver.ResolvedComponentInfo;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.logging.MetricsLogger;
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 
@@ -48,8 +44,6 @@ import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Ranks and compares packages based on usage stats and uses the {@link ResolverRankerService}.
@@ -59,20 +53,15 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
 
     private static final boolean DEBUG = false;
 
-    // One week
-    private static final long USAGE_STATS_PERIOD = 1000 * 60 * 60 * 24 * 7;
-
     private static final long RECENCY_TIME_PERIOD = 1000 * 60 * 60 * 12;
 
     private static final float RECENCY_MULTIPLIER = 2.f;
 
-    // timeout for establishing connections with a ResolverRankerService.
-    private static final int CONNECTION_COST_TIMEOUT_MILLIS = 200;
-
     private final Collator mCollator;
-    private final Map<String, UsageStats> mStats;
+    private final UsageStatsSnapshotCache mUsageStatsCache;
+    // Read when computing, so null until then.
+    private UsageStatsSnapshotCache.Snapshot mStats;
     private final long mCurrentTime;
-    private final long mSinceTime;
     private final LinkedHashMap<ComponentName, ResolverTarget> mTargetsDict = new LinkedHashMap<>();
     private final String mReferrerPackage;
     private final Object mLock = new Object();
@@ -83,8 +72,11 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
     private IResolverRankerService mRanker;
     private ResolverRankerServiceConnection mConnection;
     private Context mContext;
-    private CountDownLatch mConnectSignal;
+    private final ResolverRankerServiceConnectionManager mConnectionManager;
     private ResolverRankerServiceComparatorModel mComparatorModel;
+    // Targets ordered provisionally while connecting to the ranker, to predict once connected.
+    @GuardedBy("mLock")
+    private List<ResolverTarget> mPendingPrediction;
 
     public ResolverRankerServiceResolverComparator(Context context, Intent intent,
                 String referrerPackage, Runnable afterCompute,
@@ -93,10 +85,10 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
         mCollator = Collator.getInstance(context.getResources().getConfiguration().locale);
         mReferrerPackage = referrerPackage;
         mContext = context;
+        mConnectionManager = ResolverRankerServiceConnectionManager.getInstance(context);
 
         mCurrentTime = System.currentTimeMillis();
-        mSinceTime = mCurrentTime - USAGE_STATS_PERIOD;
-        mStats = mUsm.queryAndAggregateUsageStats(mSinceTime, mCurrentTime);
+        mUsageStatsCache = UsageStatsSnapshotCache.getInstance();
         mAction = intent.getAction();
         mRankerServiceName = new ComponentName(mContext, this.getClass());
         setCallBack(afterCompute);
@@ -146,45 +138,43 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
         float mostLaunchScore = 1.0f;
         float mostChooserScore = 1.0f;
 
+        mStats = mUsageStatsCache.getSnapshot(mContext.getUserId(), mUsm, mCurrentTime);
         for (ResolvedComponentInfo target : targets) {
             final ResolverTarget resolverTarget = new ResolverTarget();
             mTargetsDict.put(target.name, resolverTarget);
-            final UsageStats pkStats = mStats.get(target.name.getPackageName());
-            if (pkStats != null) {
+            final String packageName = target.name.getPackageName();
+            final int pkIndex = mStats.indexOf(packageName);
+            if (pkIndex >= 0) {
                 // Only count recency for apps that weren't the caller
                 // since the caller is always the most recent.
                 // Persistent processes muck this up, so omit them too.
-                if (!target.name.getPackageName().equals(mReferrerPackage)
+                if (!packageName.equals(mReferrerPackage)
                         && !isPersistentProcess(target)) {
-                    final float recencyScore =
-                            (float) Math.max(pkStats.getLastTimeUsed() - recentSinceTime, 0);
+                    final float recencyScore = (float) Math.max(
+                            mStats.getLastTimeUsed(pkIndex) - recentSinceTime, 0);
                     resolverTarget.setRecencyScore(recencyScore);
                     if (recencyScore > mostRecencyScore) {
                         mostRecencyScore = recencyScore;
                     }
                 }
-                final float timeSpentScore = (float) pkStats.getTotalTimeInForeground();
+                final float timeSpentScore = (float) mStats.getTotalTimeInForeground(pkIndex);
                 resolverTarget.setTimeSpentScore(timeSpentScore);
                 if (timeSpentScore > mostTimeSpentScore) {
                     mostTimeSpentScore = timeSpentScore;
                 }
-                final float launchScore = (float) pkStats.mLaunchCount;
+                final float launchScore = (float) mStats.getLaunchCount(pkIndex);
                 resolverTarget.setLaunchScore(launchScore);
                 if (launchScore > mostLaunchScore) {
                     mostLaunchScore = launchScore;
                 }
 
-                float chooserScore = 0.0f;
-                if (pkStats.mChooserCounts != null && mAction != null
-                        && pkStats.mChooserCounts.get(mAction) != null) {
-                    chooserScore = (float) pkStats.mChooserCounts.get(mAction)
-                            .getOrDefault(mContentType, 0);
-                    if (mAnnotations != null) {
-                        final int size = mAnnotations.length;
-                        for (int i = 0; i < size; i++) {
-                            chooserScore += (float) pkStats.mChooserCounts.get(mAction)
-                                    .getOrDefault(mAnnotations[i], 0);
-                        }
+                float chooserScore =
+                        (float) mStats.getChooserCount(packageName, mAction, mContentType);
+                if (mAnnotations != null) {
+                    final int size = mAnnotations.length;
+                    for (int i = 0; i < size; i++) {
+                        chooserScore += (float) mStats.getChooserCount(
+                                packageName, mAction, mAnnotations[i]);
                     }
                 }
                 if (DEBUG) {
@@ -192,7 +182,7 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
                         Log.d(TAG, "Action type is null");
                     } else {
                         Log.d(TAG, "Chooser Count of " + mAction + ":"
-                                + target.name.getPackageName() + " is "
+                                + packageName + " is "
                                 + Float.toString(chooserScore));
                     }
                 }
@@ -222,9 +212,10 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
                 Log.d(TAG, "Scores: " + target);
             }
         }
-        predictSelectProbabilities(mTargets);
-
+        // Build the model before predicting, which may finish the compute with the provisional
+        // ranking by the default select probabilities.
         mComparatorModel = buildUpdatedModel();
+        predictSelectProbabilities(mTargets);
     }
 
     @Override
@@ -237,6 +228,11 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
         return mComparatorModel.getScore(name);
     }
 
+    @Override
+    float getOrderingScore(ResolveInfo target) {
+        return mComparatorModel.getOrderingScore(target);
+    }
+
     // update ranking model when the connection to it is valid.
     @Override
     public void updateModel(ComponentName componentName) {
@@ -245,98 +241,40 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
         }
     }
 
-    // unbind the service and clear unhandled messges.
+    // release the service and clear unhandled messges.
     @Override
     public void destroy() {
+        synchronized (mLock) {
+            mPendingPrediction = null;
+        }
         mHandler.removeMessages(RANKER_SERVICE_RESULT);
         mHandler.removeMessages(RANKER_RESULT_TIMEOUT);
         if (mConnection != null) {
-            mContext.unbindService(mConnection);
+            // Kept bound for a while for the next session.
+            mConnectionManager.release(mConnection);
             mConnection.destroy();
+            mConnection = null;
         }
         afterCompute();
+        setLateResultCallback(null);
         if (DEBUG) {
-            Log.d(TAG, "Unbinded Resolver Ranker.");
+            Log.d(TAG, "Released Resolver Ranker.");
         }
     }
 
-    // connect to a ranking service.
-    private void initRanker(Context context) {
-        synchronized (mLock) {
-            if (mConnection != null && mRanker != null) {
-                if (DEBUG) {
-                    Log.d(TAG, "Ranker still exists; reusing the existing one.");
-                }
-                return;
-            }
-        }
-        Intent intent = resolveRankerService();
-        if (intent == null) {
-            return;
+    // connect to a ranking service, shared with other sessions.
+    private void initRanker() {
+        if (mConnection == null) {
+            mConnection = new ResolverRankerServiceConnection();
         }
-        mConnectSignal = new CountDownLatch(1);
-        mConnection = new ResolverRankerServiceConnection(mConnectSignal);
-        context.bindServiceAsUser(intent, mConnection, Context.BIND_AUTO_CREATE, UserHandle.SYSTEM);
-    }
-
-    // resolve the service for ranking.
-    private Intent resolveRankerService() {
-        Intent intent = new Intent(ResolverRankerService.SERVICE_INTERFACE);
-        final List<ResolveInfo> resolveInfos = mPm.queryIntentServices(intent, 0);
-        for (ResolveInfo resolveInfo : resolveInfos) {
-            if (resolveInfo == null || resolveInfo.serviceInfo == null
-                    || resolveInfo.serviceInfo.applicationInfo == null) {
-                if (DEBUG) {
-                    Log.d(TAG, "Failed to retrieve a ranker: " + resolveInfo);
-                }
-                continue;
-            }
-            ComponentName componentName = new ComponentName(
-                    resolveInfo.serviceInfo.applicationInfo.packageName,
-                    resolveInfo.serviceInfo.name);
-            try {
-                final String perm = mPm.getServiceInfo(componentName, 0).permission;
-                if (!ResolverRankerService.BIND_PERMISSION.equals(perm)) {
-                    Log.w(TAG, "ResolverRankerService " + componentName + " does not require"
-                            + " permission " + ResolverRankerService.BIND_PERMISSION
-                            + " - this service will not be queried for "
-                            + "ResolverRankerServiceResolverComparator. add android:permission=\""
-                            + ResolverRankerService.BIND_PERMISSION + "\""
-                            + " to the <service> tag for " + componentName
-                            + " in the manifest.");
-                    continue;
-                }
-                if (PackageManager.PERMISSION_GRANTED != mPm.checkPermission(
-                        ResolverRankerService.HOLD_PERMISSION,
-                        resolveInfo.serviceInfo.packageName)) {
-                    Log.w(TAG, "ResolverRankerService " + componentName + " does not hold"
-                            + " permission " + ResolverRankerService.HOLD_PERMISSION
-                            + " - this service will not be queried for "
-                            + "ResolverRankerServiceResolverComparator.");
-                    continue;
-                }
-            } catch (NameNotFoundException e) {
-                Log.e(TAG, "Could not look up service " + componentName
-                        + "; component name not found");
-                continue;
-            }
-            if (DEBUG) {
-                Log.d(TAG, "Succeeded to retrieve a ranker: " + componentName);
-            }
-            mResolvedRankerName = componentName;
-            intent.setComponent(componentName);
-            return intent;
+        mResolvedRankerName = mConnectionManager.acquire(mConnection);
+        if (mResolvedRankerName == null) {
+            mConnection = null;
         }
-        return null;
     }
 
-    private class ResolverRankerServiceConnection implements ServiceConnection {
-        private final CountDownLatch mConnectSignal;
-
-        ResolverRankerServiceConnection(CountDownLatch connectSignal) {
-            mConnectSignal = connectSignal;
-        }
-
+    private class ResolverRankerServiceConnection
+            implements ResolverRankerServiceConnectionManager.Listener {
         public final IResolverRankerResult resolverRankerResult =
                 new IResolverRankerResult.Stub() {
             @Override
@@ -354,25 +292,30 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
         };
 
         @Override
-        public void onServiceConnected(ComponentName name, IBinder service) {
+        public void onRankerConnected(IResolverRankerService ranker) {
             if (DEBUG) {
-                Log.d(TAG, "onServiceConnected: " + name);
+                Log.d(TAG, "onRankerConnected");
             }
             synchronized (mLock) {
-                mRanker = IResolverRankerService.Stub.asInterface(service);
+                mRanker = ranker;
                 mComparatorModel = buildUpdatedModel();
-                mConnectSignal.countDown();
+                if (mPendingPrediction != null) {
+                    try {
+                        mRanker.predict(mPendingPrediction, resolverRankerResult);
+                    } catch (RemoteException e) {
+                        Log.e(TAG, "Error in Predict: " + e);
+                    }
+                    mPendingPrediction = null;
+                }
             }
         }
 
         @Override
-        public void onServiceDisconnected(ComponentName name) {
+        public void onRankerDisconnected() {
             if (DEBUG) {
-                Log.d(TAG, "onServiceDisconnected: " + name);
-            }
-            synchronized (mLock) {
-                destroy();
+                Log.d(TAG, "onRankerDisconnected");
             }
+            destroy();
         }
 
         public void destroy() {
@@ -391,32 +334,40 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
         mRankerServiceName = new ComponentName(mContext, this.getClass());
         mComparatorModel = buildUpdatedModel();
         mResolvedRankerName = null;
-        initRanker(mContext);
+        synchronized (mLock) {
+            mPendingPrediction = null;
+        }
+        initRanker();
     }
 
-    // predict select probabilities if ranking service is valid.
+    // predict select probabilities if ranking service is valid. If the service is still being
+    // connected to, the targets are ordered by their default select probabilities in the meantime.
     private void predictSelectProbabilities(List<ResolverTarget> targets) {
         if (mConnection == null) {
             if (DEBUG) {
                 Log.d(TAG, "Has not found valid ResolverRankerService; Skip Prediction");
             }
         } else {
-            try {
-                mConnectSignal.await(CONNECTION_COST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
-                synchronized (mLock) {
-                    if (mRanker != null) {
+            final boolean predictOnceConnected;
+            synchronized (mLock) {
+                predictOnceConnected = (mRanker == null);
+                if (mRanker != null) {
+                    try {
                         mRanker.predict(targets, mConnection.resolverRankerResult);
                         return;
-                    } else {
-                        if (DEBUG) {
-                            Log.d(TAG, "Ranker has not been initialized; skip predict.");
-                        }
+                    } catch (RemoteException e) {
+                        Log.e(TAG, "Error in Predict: " + e);
+                    }
+                } else {
+                    if (DEBUG) {
+                        Log.d(TAG, "Ranker is not connected yet; predict once connected.");
                     }
+                    mPendingPrediction = targets;
                 }
-            } catch (InterruptedException e) {
-                Log.e(TAG, "Error in Wait for Service Connection.");
-            } catch (RemoteException e) {
-                Log.e(TAG, "Error in Predict: " + e);
+            }
+            if (predictOnceConnected) {
+                finishComputeProvisionally();
+                return;
             }
         }
         afterCompute();
@@ -484,7 +435,7 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
      * removing the complex legacy API.
      */
     static class ResolverRankerServiceComparatorModel implements ResolverComparatorModel {
-        private final Map<String, UsageStats> mStats;  // Treat as immutable.
+        private final UsageStatsSnapshotCache.Snapshot mStats;
         private final Map<ComponentName, ResolverTarget> mTargetsDict;  // Treat as immutable.
         private final List<ResolverTarget> mTargets;  // Treat as immutable.
         private final Collator mCollator;
@@ -497,7 +448,7 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
         // not written in a way that makes it clear whether we can derive one from the other (at
         // least in this constructor).
         ResolverRankerServiceComparatorModel(
-                Map<String, UsageStats> stats,
+                UsageStatsSnapshotCache.Snapshot stats,
                 Map<ComponentName, ResolverTarget> targetsDict,
                 List<ResolverTarget> targets,
                 Collator collator,
@@ -546,6 +497,17 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
             };
         }
 
+        @Override
+        public float getOrderingScore(ResolveInfo target) {
+            if (mStats == null) {
+                // The comparator only orders alphabetically.
+                return Float.NaN;
+            }
+            final ResolverTarget resolverTarget = mTargetsDict.get(new ComponentName(
+                    target.activityInfo.packageName, target.activityInfo.name));
+            return (resolverTarget != null) ? resolverTarget.getSelectProbability() : Float.NaN;
+        }
+
         @Override
         public float getScore(ComponentName name) {
             final ResolverTarget target = mTargetsDict.get(name);
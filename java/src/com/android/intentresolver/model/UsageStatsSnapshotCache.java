@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import android.annotation.Nullable;
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStats;
+import android.app.usage.UsageStatsManager;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Process-wide cache of the per-package usage aggregates that the
+ * {@link ResolverRankerServiceResolverComparator} derives its ranking features from, so that
+ * opening the Sharesheet doesn't aggregate a week of usage stats every time.
+ *
+ * A user's snapshot is aggregated in full once, then brought up to date from the usage events
+ * since it was last refreshed. Snapshots only grow, so they cover up to {@link #MAX_EXTRA_PERIOD}
+ * more than {@link #USAGE_STATS_PERIOD} before being aggregated in full again.
+ *
+ * The packages last reported in the foreground by the aggregates are taken to have been resumed
+ * when they were last used (or when the aggregated period started, if later), so that their time
+ * in the foreground is counted once they leave it, and so that resuming the last of them again
+ * isn't counted as a launch. This is an approximation, as the aggregates don't tell when exactly
+ * a package was resumed.
+ *
+ * Chooser counts aren't read from the usage events; the selections reported through
+ * {@link #noteChooserSelection} are counted instead.
+ */
+final class UsageStatsSnapshotCache {
+    private static final String TAG = "UsageStatsSnapshotCache";
+    private static final boolean DEBUG = false;
+
+    // One week
+    static final long USAGE_STATS_PERIOD = 1000 * 60 * 60 * 24 * 7;
+
+    // One day
+    private static final long MAX_EXTRA_PERIOD = 1000 * 60 * 60 * 24;
+
+    // Snapshots refreshed more recently than this are used as they are.
+    private static final long MIN_REFRESH_INTERVAL = 1000;
+
+    private static UsageStatsSnapshotCache sInstance;
+
+    private final Object mLock = new Object();
+
+    // Keyed by user id.
+    @GuardedBy("mLock")
+    private final SparseArray<Snapshot> mSnapshots = new SparseArray<>();
+
+    /** @return the process-wide instance. */
+    static synchronized UsageStatsSnapshotCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new UsageStatsSnapshotCache();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    UsageStatsSnapshotCache() {}
+
+    /**
+     * @return the usage aggregates of {@code userId} over (at least) the
+     * {@link #USAGE_STATS_PERIOD} until {@code currentTime}, read with {@code usm}.
+     */
+    Snapshot getSnapshot(int userId, UsageStatsManager usm, long currentTime) {
+        synchronized (mLock) {
+            Snapshot snapshot = mSnapshots.get(userId);
+            if (snapshot == null
+                    || currentTime < snapshot.mEndTime
+                    || currentTime - snapshot.mStartTime > USAGE_STATS_PERIOD + MAX_EXTRA_PERIOD) {
+                final long startTime = currentTime - USAGE_STATS_PERIOD;
+                snapshot = Snapshot.fromUsageStats(
+                        usm.queryAndAggregateUsageStats(startTime, currentTime),
+                        startTime,
+                        currentTime);
+                if (DEBUG) {
+                    Log.d(TAG, "Aggregated " + snapshot.mPackageCount + " packages in full");
+                }
+            } else if (currentTime - snapshot.mEndTime >= MIN_REFRESH_INTERVAL) {
+                snapshot = snapshot.withEvents(
+                        usm.queryEvents(snapshot.mEndTime, currentTime), currentTime);
+            } else {
+                return snapshot;
+            }
+            mSnapshots.put(userId, snapshot);
+            return snapshot;
+        }
+    }
+
+    /**
+     * Count a selection reported to the usage stats of {@code userId}, as in
+     * {@code UsageStatsManager#reportChooserSelection}.
+     */
+    void noteChooserSelection(int userId, String packageName, @Nullable String contentType,
+            @Nullable String[] annotations, @Nullable String action) {
+        if (action == null) {
+            return;
+        }
+        synchronized (mLock) {
+            final Snapshot snapshot = mSnapshots.get(userId);
+            if (snapshot != null) {
+                mSnapshots.put(userId,
+                        snapshot.withChooserSelection(
+                                packageName, contentType, annotations, action));
+            }
+        }
+    }
+
+    /**
+     * Immutable per-package usage aggregates. Packages are identified by their index, see
+     * {@link #indexOf(String)}.
+     */
+    static final class Snapshot {
+        private final long mStartTime;
+        private final long mEndTime;
+        private final int mPackageCount;
+        private final Map<String, Integer> mPackageIndex;
+        private final long[] mLastTimeUsed;
+        private final long[] mTimeInForeground;
+        private final int[] mLaunchCount;
+        // Keyed by chooserCountKey().
+        private final Map<String, Integer> mChooserCounts;
+        // Resume times of the packages in the foreground at mEndTime, so that their time in the
+        // foreground can be counted once they leave it.
+        private final Map<String, Long> mResumeTimes;
+        // The package last moved to the foreground, as launches are counted when it changes.
+        @Nullable
+        private final String mLastResumedPackage;
+
+        private Snapshot(Builder builder, long startTime, long endTime) {
+            mStartTime = startTime;
+            mEndTime = endTime;
+            mPackageCount = builder.mPackageCount;
+            mPackageIndex = builder.mPackageIndex;
+            mLastTimeUsed = Arrays.copyOf(builder.mLastTimeUsed, mPackageCount);
+            mTimeInForeground = Arrays.copyOf(builder.mTimeInForeground, mPackageCount);
+            mLaunchCount = Arrays.copyOf(builder.mLaunchCount, mPackageCount);
+            mChooserCounts = builder.mChooserCounts;
+            mResumeTimes = builder.mResumeTimes;
+            mLastResumedPackage = builder.mLastResumedPackage;
+        }
+
+        @VisibleForTesting
+        static Snapshot fromUsageStats(Map<String, UsageStats> stats, long startTime,
+                long endTime) {
+            final Builder builder = new Builder(stats.size());
+            long lastResumeTime = Long.MIN_VALUE;
+            for (UsageStats pkStats : stats.values()) {
+                final String packageName = pkStats.getPackageName();
+                final int index = builder.indexFor(packageName);
+                builder.mLastTimeUsed[index] = pkStats.getLastTimeUsed();
+                builder.mTimeInForeground[index] = pkStats.getTotalTimeInForeground();
+                builder.mLaunchCount[index] = pkStats.mLaunchCount;
+                if (pkStats.mLastEvent == UsageEvents.Event.ACTIVITY_RESUMED) {
+                    // Still in the foreground; see the class comment.
+                    final long resumeTime = Math.max(pkStats.getLastTimeUsed(), startTime);
+                    builder.mResumeTimes.put(packageName, resumeTime);
+                    if (resumeTime > lastResumeTime) {
+                        lastResumeTime = resumeTime;
+                        builder.mLastResumedPackage = packageName;
+                    }
+                }
+                if (pkStats.mChooserCounts == null) {
+                    continue;
+                }
+                for (int i = 0; i < pkStats.mChooserCounts.size(); i++) {
+                    final String action = pkStats.mChooserCounts.keyAt(i);
+                    final ArrayMap<String, Integer> counts = pkStats.mChooserCounts.valueAt(i);
+                    for (int j = 0; j < counts.size(); j++) {
+                        builder.mChooserCounts.put(
+                                chooserCountKey(pkStats.getPackageName(), action, counts.keyAt(j)),
+                                counts.valueAt(j));
+                    }
+                }
+            }
+            return new Snapshot(builder, startTime, endTime);
+        }
+
+        /** @return a snapshot updated with {@code events}, which end at {@code endTime}. */
+        @VisibleForTesting
+        Snapshot withEvents(UsageEvents events, long endTime) {
+            final Builder builder = new Builder(this);
+            final UsageEvents.Event event = new UsageEvents.Event();
+            while (events.hasNextEvent()) {
+                events.getNextEvent(event);
+                final String packageName = event.getPackageName();
+                final long timestamp = event.getTimeStamp();
+                switch (event.getEventType()) {
+                    case UsageEvents.Event.ACTIVITY_RESUMED: {
+                        final int index = builder.indexFor(packageName);
+                        builder.mLastTimeUsed[index] =
+                                Math.max(builder.mLastTimeUsed[index], timestamp);
+                        if (!packageName.equals(builder.mLastResumedPackage)) {
+                            builder.mLaunchCount[index]++;
+                        }
+                        builder.mLastResumedPackage = packageName;
+                        builder.mResumeTimes.putIfAbsent(packageName, timestamp);
+                        break;
+                    }
+                    case UsageEvents.Event.ACTIVITY_PAUSED:
+                    case UsageEvents.Event.ACTIVITY_STOPPED: {
+                        final int index = builder.indexFor(packageName);
+                        builder.mLastTimeUsed[index] =
+                                Math.max(builder.mLastTimeUsed[index], timestamp);
+                        final Long resumeTime = builder.mResumeTimes.remove(packageName);
+                        if (resumeTime != null && timestamp > resumeTime) {
+                            builder.mTimeInForeground[index] += timestamp - resumeTime;
+                        }
+                        break;
+                    }
+                    default:
+                        break;
+                }
+            }
+            return new Snapshot(builder, mStartTime, endTime);
+        }
+
+        /** @return a snapshot with the chooser counts of one more selection. */
+        @VisibleForTesting
+        Snapshot withChooserSelection(String packageName, @Nullable String contentType,
+                @Nullable String[] annotations, String action) {
+            final Builder builder = new Builder(this);
+            builder.indexFor(packageName);
+            builder.incrementChooserCount(packageName, action, contentType);
+            if (annotations != null) {
+                for (String annotation : annotations) {
+                    builder.incrementChooserCount(packageName, action, annotation);
+                }
+            }
+            return new Snapshot(builder, mStartTime, mEndTime);
+        }
+
+        /** @return the index of {@code packageName}, or -1 if it wasn't used. */
+        int indexOf(String packageName) {
+            final Integer index = mPackageIndex.get(packageName);
+            return (index != null) ? index : -1;
+        }
+
+        long getLastTimeUsed(int index) {
+            return mLastTimeUsed[index];
+        }
+
+        long getTotalTimeInForeground(int index) {
+            return mTimeInForeground[index];
+        }
+
+        int getLaunchCount(int index) {
+            return mLaunchCount[index];
+        }
+
+        /**
+         * @return the number of times {@code packageName} was chosen for {@code action} with the
+         * given content type or annotation.
+         */
+        int getChooserCount(String packageName, @Nullable String action,
+                @Nullable String category) {
+            if (action == null) {
+                return 0;
+            }
+            final Integer count =
+                    mChooserCounts.get(chooserCountKey(packageName, action, category));
+            return (count != null) ? count : 0;
+        }
+
+        private static String chooserCountKey(String packageName, String action,
+                @Nullable String category) {
+            return packageName + '\0' + action + '\0' + category;
+        }
+    }
+
+    /** Mutable copy of a {@link Snapshot}'s data while it's updated. */
+    private static final class Builder {
+        int mPackageCount;
+        final Map<String, Integer> mPackageIndex;
+        long[] mLastTimeUsed;
+        long[] mTimeInForeground;
+        int[] mLaunchCount;
+        final Map<String, Integer> mChooserCounts;
+        final Map<String, Long> mResumeTimes;
+        @Nullable
+        String mLastResumedPackage;
+
+        Builder(int capacity) {
+            mPackageIndex = new ArrayMap<>(capacity);
+            mLastTimeUsed = new long[capacity];
+            mTimeInForeground = new long[capacity];
+            mLaunchCount = new int[capacity];
+            mChooserCounts = new ArrayMap<>();
+            mResumeTimes = new ArrayMap<>();
+        }
+
+        Builder(Snapshot snapshot) {
+            mPackageCount = snapshot.mPackageCount;
+            mPackageIndex = new ArrayMap<>(snapshot.mPackageIndex);
+            mLastTimeUsed = snapshot.mLastTimeUsed.clone();
+            mTimeInForeground = snapshot.mTimeInForeground.clone();
+            mLaunchCount = snapshot.mLaunchCount.clone();
+            mChooserCounts = new ArrayMap<>(snapshot.mChooserCounts);
+            mResumeTimes = new ArrayMap<>(snapshot.mResumeTimes);
+            mLastResumedPackage = snapshot.mLastResumedPackage;
+        }
+
+        int indexFor(String packageName) {
+            final Integer existing = mPackageIndex.get(packageName);
+            if (existing != null) {
+                return existing;
+            }
+            if (mPackageCount == mLastTimeUsed.length) {
+                final int capacity = Math.max(8, mPackageCount * 2);
+                mLastTimeUsed = Arrays.copyOf(mLastTimeUsed, capacity);
+                mTimeInForeground = Arrays.copyOf(mTimeInForeground, capacity);
+                mLaunchCount = Arrays.copyOf(mLaunchCount, capacity);
+            }
+            mPackageIndex.put(packageName, mPackageCount);
+            return mPackageCount++;
+        }
+
+        void incrementChooserCount(String packageName, String action, @Nullable String category) {
+            mChooserCounts.merge(Snapshot.chooserCountKey(packageName, action, category), 1,
+                    Integer::sum);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.shortcuts
+
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageManager
+import android.os.UserHandle
+import android.text.TextUtils
+import android.util.LruCache
+import androidx.annotation.GuardedBy
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import com.android.intentresolver.PackageChangeMonitor
+
+/**
+ * A process-wide cache of whether packages are enabled and not suspended, as checked by
+ * [ShortcutLoader] for the package of every shortcut it loads. Entries are keyed by user and
+ * package, and are dropped whenever packages change (including enabled-state changes and
+ * suspensions), as reported by the [PackageChangeMonitor].
+ */
+class PackageStateCache @VisibleForTesting constructor() {
+    private val lock = Any()
+
+    @GuardedBy("lock")
+    private val states = LruCache<Key, Boolean>(MAX_ENTRIES)
+
+    @GuardedBy("lock")
+    private var generation = 0
+
+    /**
+     * @return whether [packageName] is enabled and not suspended for [user], querying [pm] (a
+     * PackageManager of that user) unless the state is cached.
+     */
+    @WorkerThread
+    fun isPackageEnabled(
+        pm: PackageManager,
+        user: UserHandle,
+        packageName: String
+    ): Boolean {
+        if (TextUtils.isEmpty(packageName)) return false
+        val key = Key(user.identifier, packageName)
+        val queryGeneration = synchronized(lock) {
+            states.get(key)?.let { return it }
+            generation
+        }
+        val isEnabled = pm.queryPackageEnabled(packageName)
+        synchronized(lock) {
+            // Don't cache the state if packages changed while it was queried.
+            if (queryGeneration == generation) {
+                states.put(key, isEnabled)
+            }
+        }
+        return isEnabled
+    }
+
+    /** Drop all cached package states. */
+    fun invalidate() {
+        synchronized(lock) {
+            generation++
+            states.evictAll()
+        }
+    }
+
+    private data class Key(val userId: Int, val packageName: String)
+
+    companion object {
+        private const val MAX_ENTRIES = 256
+
+        /** The process-wide instance. */
+        @JvmStatic
+        val instance: PackageStateCache by lazy {
+            PackageStateCache().also {
+                PackageChangeMonitor.getInstance().addListener(it::invalidate)
+            }
+        }
+
+        /** @return whether [packageName] is enabled and not suspended, as reported by the PM. */
+        @WorkerThread
+        internal fun PackageManager.queryPackageEnabled(packageName: String): Boolean {
+            if (TextUtils.isEmpty(packageName)) {
+                return false
+            }
+            return runCatching {
+                val appInfo = getApplicationInfo(
+                    packageName,
+                    PackageManager.ApplicationInfoFlags.of(PackageManager.GET_META_DATA.toLong())
+                )
+                appInfo.enabled && (appInfo.flags and ApplicationInfo.FLAG_SUSPENDED) == 0
+            }.getOrDefault(false)
+        }
+    }
+}
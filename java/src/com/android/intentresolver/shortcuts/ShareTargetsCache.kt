@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.shortcuts
+
+import android.app.prediction.AppTarget
+import android.content.IntentFilter
+import android.content.pm.ShortcutManager.ShareShortcutInfo
+import android.os.SystemClock
+import android.os.UserHandle
+import android.util.LruCache
+import androidx.annotation.GuardedBy
+import androidx.annotation.VisibleForTesting
+import com.android.intentresolver.PackageChangeMonitor
+
+/**
+ * A short-lived, process-wide cache of the share targets fetched by [ShortcutLoader], keyed by the
+ * target [IntentFilter] and user, so that a sharesheet launched again shortly after (e.g. recreated
+ * on a configuration change, or shared from the same app twice in a row) can show its direct share
+ * row without waiting on ShortcutManager or AppPredictor.
+ *
+ * Entries expire after [ttlMillis], and are dropped whenever packages change, as reported by the
+ * [PackageChangeMonitor]. Share targets aren't invalidated on shortcut changes though, so the time
+ * to live is kept to a few seconds.
+ */
+class ShareTargetsCache @VisibleForTesting constructor(
+    private val ttlMillis: Long,
+    private val clock: () -> Long,
+) {
+    private val lock = Any()
+
+    @GuardedBy("lock")
+    private val entries = LruCache<Key, Entry>(MAX_ENTRIES)
+
+    /** @return the share targets fetched for [filter] and [user], if fetched recently enough. */
+    fun get(filter: IntentFilter, user: UserHandle): ShareTargets? {
+        val key = Key(filter, user)
+        synchronized(lock) {
+            val entry = entries.get(key) ?: return null
+            if (clock() - entry.timestamp > ttlMillis) {
+                entries.remove(key)
+                return null
+            }
+            return entry.shareTargets
+        }
+    }
+
+    fun put(filter: IntentFilter, user: UserHandle, shareTargets: ShareTargets) {
+        synchronized(lock) { entries.put(Key(filter, user), Entry(shareTargets, clock())) }
+    }
+
+    /** Drop all cached share targets. */
+    fun invalidate() {
+        synchronized(lock) { entries.evictAll() }
+    }
+
+    /**
+     * Share targets fetched for some target intent filter, before they have been matched against
+     * the app targets.
+     */
+    class ShareTargets(
+        val shortcuts: List<ShareShortcutInfo>,
+        val isFromAppPredictor: Boolean,
+        /** The AppPredictor targets corresponding to [shortcuts], if from AppPredictor. */
+        val appPredictorTargets: List<AppTarget>?,
+    )
+
+    private class Entry(val shareTargets: ShareTargets, val timestamp: Long)
+
+    /**
+     * [IntentFilter] doesn't implement equality, so filters are identified by the parts of them
+     * ShortcutManager matches share targets against: the actions, the categories and the data.
+     */
+    private data class Key(
+        val user: UserHandle,
+        val actions: Set<String>,
+        val categories: Set<String>,
+        val dataTypes: Set<String>,
+        val dataSchemes: Set<String>,
+    ) {
+        constructor(filter: IntentFilter, user: UserHandle) : this(
+            user,
+            (0 until filter.countActions()).mapNotNullTo(HashSet()) { filter.getAction(it) },
+            (0 until filter.countCategories()).mapNotNullTo(HashSet()) { filter.getCategory(it) },
+            (0 until filter.countDataTypes()).mapNotNullTo(HashSet()) { filter.getDataType(it) },
+            (0 until filter.countDataSchemes()).mapNotNullTo(HashSet()) {
+                filter.getDataScheme(it)
+            },
+        )
+    }
+
+    companion object {
+        private const val MAX_ENTRIES = 8
+        private const val TTL_MILLIS = 10_000L
+
+        /** The process-wide instance. */
+        @JvmStatic
+        val instance: ShareTargetsCache by lazy {
+            ShareTargetsCache(TTL_MILLIS, SystemClock::elapsedRealtime).also {
+                PackageChangeMonitor.getInstance().addListener(it::invalidate)
+            }
+        }
+    }
+}
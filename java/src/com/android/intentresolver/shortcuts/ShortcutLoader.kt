@@ -21,26 +21,31 @@ import android.app.prediction.AppTarget
 import android.content.ComponentName
 import android.content.Context
 import android.content.IntentFilter
-import android.content.pm.ApplicationInfo
-import android.content.pm.PackageManager
 import android.content.pm.ShortcutInfo
 import android.content.pm.ShortcutManager
 import android.content.pm.ShortcutManager.ShareShortcutInfo
-import android.os.AsyncTask
+import android.os.SystemClock
 import android.os.UserHandle
 import android.os.UserManager
 import android.service.chooser.ChooserTarget
-import android.text.TextUtils
 import android.util.Log
+import android.util.SparseArray
+import androidx.annotation.GuardedBy
 import androidx.annotation.MainThread
 import androidx.annotation.OpenForTesting
 import androidx.annotation.VisibleForTesting
 import androidx.annotation.WorkerThread
 import com.android.intentresolver.chooser.DisplayResolveInfo
+import com.android.intentresolver.shortcuts.PackageStateCache.Companion.queryPackageEnabled
+import com.android.intentresolver.shortcuts.ShareTargetsCache.ShareTargets
 import java.lang.RuntimeException
 import java.util.ArrayList
 import java.util.HashMap
 import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicReference
 import java.util.function.Consumer
 
@@ -51,7 +56,9 @@ import java.util.function.Consumer
  * A ShortcutLoader instance can be viewed as a per-profile singleton hot stream of shortcut
  * updates. The shortcut loading is triggered by the [queryShortcuts],
  * the processing will happen on the [backgroundExecutor] and the result is delivered
- * through the [callback] on the [callbackExecutor], the main thread.
+ * through the [callback] on the [callbackExecutor], the main thread. In production, the
+ * [backgroundExecutor] is a loading lane dedicated to the profile, so that the profiles load
+ * concurrently; a load that is still queued when a newer one is requested is skipped.
  *
  *
  * The current version does not improve on the legacy in a way that it does not guarantee that
@@ -61,6 +68,11 @@ import java.util.function.Consumer
  * [queryShortcuts] may result in two callbacks where shortcuts are
  * processed against the latest input.
  *
+ *
+ * Loading can be started ahead of the app targets with [prewarm]; the fetched shortcuts are then
+ * held until the app targets are provided with [queryShortcuts], and matched against them on the
+ * [backgroundExecutor] right away. Fetched shortcuts are also kept in [shareTargetsCache] for a
+ * short while, for subsequent loaders of the same target intent filter and user.
  */
 @OpenForTesting
 open class ShortcutLoader @VisibleForTesting constructor(
@@ -71,13 +83,27 @@ open class ShortcutLoader @VisibleForTesting constructor(
     private val targetIntentFilter: IntentFilter?,
     private val backgroundExecutor: Executor,
     private val callbackExecutor: Executor,
-    private val callback: Consumer<Result>
+    private val callback: Consumer<Result>,
+    private val shareTargetsCache: ShareTargetsCache? = null,
+    private val packageStateCache: PackageStateCache? = null
 ) {
     private val shortcutToChooserTargetConverter = ShortcutToChooserTargetConverter()
     private val userManager = context.getSystemService(Context.USER_SERVICE) as UserManager
     private val activeRequest = AtomicReference(NO_REQUEST)
+    private val prewarmLock = Any()
+    @GuardedBy("prewarmLock")
+    private var isPrewarming = false
+    /** Shortcuts fetched by [prewarm] that are yet to be matched against the app targets. */
+    @GuardedBy("prewarmLock")
+    private var prewarmedShareTargets: ShareTargets? = null
     private val appPredictorCallback = AppPredictor.Callback { onAppPredictorCallback(it) }
     private var isDestroyed = false
+    // Incremented for every load queued; a queued load only runs if it's still the latest.
+    private val latestLoad = AtomicInteger()
+    // When the load in progress was queued and started running, for Result.queueWaitMillis and
+    // Result.loadMillis; claimed by the result that answers it, so that prediction updates nobody
+    // asked for aren't timed against it.
+    private val pendingLoadTiming = AtomicReference<LoadTiming?>(null)
 
     @MainThread
     constructor(
@@ -91,13 +117,15 @@ open class ShortcutLoader @VisibleForTesting constructor(
         appPredictor?.let { AppPredictorProxy(it) },
         userHandle, userHandle == UserHandle.of(ActivityManager.getCurrentUser()),
         targetIntentFilter,
-        AsyncTask.SERIAL_EXECUTOR,
+        getLoadingLane(userHandle),
         context.mainExecutor,
-        callback
+        callback,
+        ShareTargetsCache.instance,
+        PackageStateCache.instance
     )
 
     init {
-        appPredictor?.registerPredictionUpdates(callbackExecutor, appPredictorCallback)
+        appPredictor?.registerPredictionUpdates(backgroundExecutor, appPredictorCallback)
     }
 
     /**
@@ -111,7 +139,29 @@ open class ShortcutLoader @VisibleForTesting constructor(
     }
 
     /**
-     * Set new resolved targets. This will trigger shortcut loading.
+     * Start loading shortcuts before the app targets are resolved, so that they can be matched
+     * against the app targets as soon as those are provided with [queryShortcuts]. Recently
+     * fetched shortcuts for the same target intent filter and user are reused if available.
+     */
+    @OpenForTesting
+    @MainThread
+    open fun prewarm() {
+        if (isDestroyed) return
+        val cached = targetIntentFilter?.let { shareTargetsCache?.get(it, userHandle) }
+        synchronized(prewarmLock) {
+            if (activeRequest.get() !== NO_REQUEST) return
+            if (cached != null) {
+                prewarmedShareTargets = cached
+                return
+            }
+            isPrewarming = true
+        }
+        queueLoad()
+    }
+
+    /**
+     * Set new resolved targets. This will trigger shortcut loading, unless shortcuts loaded by
+     * [prewarm] are pending, in which case those are matched against the targets instead.
      * @param appTargets a collection of application targets a loaded set of shortcuts will be
      * grouped against
      */
@@ -119,14 +169,53 @@ open class ShortcutLoader @VisibleForTesting constructor(
     @MainThread
     open fun queryShortcuts(appTargets: Array<DisplayResolveInfo>) {
         if (isDestroyed) return
-        activeRequest.set(Request(appTargets))
-        backgroundExecutor.execute { loadShortcuts() }
+        val request = Request(appTargets)
+        val prewarmed = synchronized(prewarmLock) {
+            activeRequest.set(request)
+            if (isPrewarming) {
+                // The prewarm load is still in flight and will be matched against this request.
+                return
+            }
+            prewarmedShareTargets.also { prewarmedShareTargets = null }
+        }
+        if (prewarmed != null) {
+            Log.d(TAG, "using prewarmed direct share targets")
+            backgroundExecutor.execute { reportPrewarmed(prewarmed, request) }
+            return
+        }
+        queueLoad()
+    }
+
+    @WorkerThread
+    private fun reportPrewarmed(shareTargets: ShareTargets, request: Request) {
+        // The share targets may have been fetched, or cached, before the work profile was locked
+        // or paused.
+        if (!shouldQueryDirectShareTargets()) return
+        postReport(shareTargets.matchTo(request))
+    }
+
+    private fun queueLoad() {
+        val load = latestLoad.incrementAndGet()
+        val queuedAtNanos = SystemClock.elapsedRealtimeNanos()
+        backgroundExecutor.execute {
+            if (load != latestLoad.get()) {
+                // A newer load is queued and will match the latest request instead.
+                Log.d(TAG, "skipping superseded direct share targets query")
+                return@execute
+            }
+            pendingLoadTiming.set(LoadTiming(queuedAtNanos, SystemClock.elapsedRealtimeNanos()))
+            loadShortcuts()
+        }
     }
 
     @WorkerThread
     private fun loadShortcuts() {
         // no need to query direct share for work profile when its locked or disabled
-        if (!shouldQueryDirectShareTargets()) return
+        if (!shouldQueryDirectShareTargets()) {
+            pendingLoadTiming.set(null)
+            synchronized(prewarmLock) { isPrewarming = false }
+            return
+        }
         Log.d(TAG, "querying direct share targets")
         queryDirectShareTargets(false)
     }
@@ -138,7 +227,11 @@ open class ShortcutLoader @VisibleForTesting constructor(
             return
         }
         // Default to just querying ShortcutManager if AppPredictor not present.
-        if (targetIntentFilter == null) return
+        if (targetIntentFilter == null) {
+            pendingLoadTiming.set(null)
+            synchronized(prewarmLock) { isPrewarming = false }
+            return
+        }
         val shortcuts = queryShortcutManager(targetIntentFilter)
         sendShareShortcutInfoList(shortcuts, false, null)
     }
@@ -148,9 +241,9 @@ open class ShortcutLoader @VisibleForTesting constructor(
         val selectedProfileContext = context.createContextAsUser(userHandle, 0 /* flags */)
         val sm = selectedProfileContext
             .getSystemService(Context.SHORTCUT_SERVICE) as ShortcutManager?
-        val pm = context.createContextAsUser(userHandle, 0 /* flags */).packageManager
+        val isPackageEnabled = createPackageEnabledCheck()
         return sm?.getShareTargets(targetIntentFilter)
-            ?.filter { pm.isPackageEnabled(it.targetComponent.packageName) }
+            ?.filter { isPackageEnabled(it.targetComponent.packageName) }
             ?: emptyList()
     }
 
@@ -161,20 +254,21 @@ open class ShortcutLoader @VisibleForTesting constructor(
             queryDirectShareTargets(true)
             return
         }
-        val pm = context.createContextAsUser(userHandle, 0).packageManager
-        val pair = appPredictorTargets.toShortcuts(pm)
+        val pair = appPredictorTargets.toShortcuts(createPackageEnabledCheck())
         sendShareShortcutInfoList(pair.shortcuts, true, pair.appTargets)
     }
 
     @WorkerThread
-    private fun List<AppTarget>.toShortcuts(pm: PackageManager): ShortcutsAppTargetsPair =
+    private fun List<AppTarget>.toShortcuts(
+        isPackageEnabled: (String) -> Boolean
+    ): ShortcutsAppTargetsPair =
         fold(
             ShortcutsAppTargetsPair(ArrayList(size), ArrayList(size))
         ) { acc, appTarget ->
             val shortcutInfo = appTarget.shortcutInfo
             val packageName = appTarget.packageName
             val className = appTarget.className
-            if (shortcutInfo != null && className != null && pm.isPackageEnabled(packageName)) {
+            if (shortcutInfo != null && className != null && isPackageEnabled(packageName)) {
                 (acc.shortcuts as ArrayList<ShareShortcutInfo>).add(
                     ShareShortcutInfo(shortcutInfo, ComponentName(packageName, className))
                 )
@@ -183,6 +277,23 @@ open class ShortcutLoader @VisibleForTesting constructor(
             acc
         }
 
+    /**
+     * @return a check of whether a package is enabled (and not suspended) for [userHandle], for the
+     * duration of one load: the shortcuts of a load typically come from a handful of packages, so
+     * each package is only looked up once.
+     */
+    @WorkerThread
+    private fun createPackageEnabledCheck(): (String) -> Boolean {
+        val pm = context.createContextAsUser(userHandle, 0 /* flags */).packageManager
+        val states = HashMap<String, Boolean>()
+        return { packageName ->
+            states.getOrPut(packageName) {
+                packageStateCache?.isPackageEnabled(pm, userHandle, packageName)
+                    ?: pm.queryPackageEnabled(packageName)
+            }
+        }
+    }
+
     @WorkerThread
     private fun sendShareShortcutInfoList(
         shortcuts: List<ShareShortcutInfo>,
@@ -196,21 +307,55 @@ open class ShortcutLoader @VisibleForTesting constructor(
                         + " appTargets.size()=" + appPredictorTargets.size
             )
         }
+        val shareTargets = ShareTargets(shortcuts, isFromAppPredictor, appPredictorTargets)
+        targetIntentFilter?.let { shareTargetsCache?.put(it, userHandle, shareTargets) }
+        // Only a result that answers a queued load is timed; unrequested prediction updates
+        // report 0.
+        val loadTiming = pendingLoadTiming.getAndSet(null)
+        val queueWaitMillis = loadTiming?.let {
+            TimeUnit.NANOSECONDS.toMillis(it.startedAtNanos - it.queuedAtNanos)
+        } ?: 0L
+        val loadMillis = loadTiming?.let {
+            TimeUnit.NANOSECONDS.toMillis(SystemClock.elapsedRealtimeNanos() - it.startedAtNanos)
+        } ?: 0L
+        if (loadTiming != null) {
+            Log.d(
+                TAG,
+                "direct share targets loaded in ${loadMillis}ms, queued ${queueWaitMillis}ms"
+            )
+        }
+        val request = synchronized(prewarmLock) {
+            isPrewarming = false
+            activeRequest.get().also {
+                if (it === NO_REQUEST) {
+                    // Prewarmed; hold on to the shortcuts until the app targets are known.
+                    prewarmedShareTargets = shareTargets
+                    return
+                }
+            }
+        }
+        postReport(shareTargets.matchTo(request, queueWaitMillis, loadMillis))
+    }
+
+    private fun ShareTargets.matchTo(
+        request: Request,
+        queueWaitMillis: Long = 0,
+        loadMillis: Long = 0
+    ): Result {
         val directShareAppTargetCache = HashMap<ChooserTarget, AppTarget>()
         val directShareShortcutInfoCache = HashMap<ChooserTarget, ShortcutInfo>()
         // Match ShareShortcutInfos with DisplayResolveInfos to be able to use the old code path
         // for direct share targets. After ShareSheet is refactored we should use the
         // ShareShortcutInfos directly.
-        val appTargets = activeRequest.get().appTargets
+        val appTargets = request.appTargets
+        // Positions of the shortcuts in the full list, grouped by target component.
+        val shortcutPositions = shortcuts.indices.groupBy { shortcuts[it].targetComponent }
         val resultRecords: MutableList<ShortcutResultInfo> = ArrayList()
         for (displayResolveInfo in appTargets) {
-            val matchingShortcuts = shortcuts.filter {
-                it.targetComponent == displayResolveInfo.resolvedComponentName
-            }
-            if (matchingShortcuts.isEmpty()) continue
+            val positions = shortcutPositions[displayResolveInfo.resolvedComponentName] ?: continue
             val chooserTargets = shortcutToChooserTargetConverter.convertToChooserTarget(
-                matchingShortcuts,
-                shortcuts,
+                positions.map { shortcuts[it] },
+                positions.toIntArray(),
                 appPredictorTargets,
                 directShareAppTargetCache,
                 directShareShortcutInfoCache
@@ -218,14 +363,14 @@ open class ShortcutLoader @VisibleForTesting constructor(
             val resultRecord = ShortcutResultInfo(displayResolveInfo, chooserTargets)
             resultRecords.add(resultRecord)
         }
-        postReport(
-            Result(
-                isFromAppPredictor,
-                appTargets,
-                resultRecords.toTypedArray(),
-                directShareAppTargetCache,
-                directShareShortcutInfoCache
-            )
+        return Result(
+            isFromAppPredictor,
+            appTargets,
+            resultRecords.toTypedArray(),
+            directShareAppTargetCache,
+            directShareShortcutInfoCache,
+            queueWaitMillis,
+            loadMillis
         )
     }
 
@@ -251,10 +396,12 @@ open class ShortcutLoader @VisibleForTesting constructor(
 
     private class Request(val appTargets: Array<DisplayResolveInfo>)
 
+    private class LoadTiming(val queuedAtNanos: Long, val startedAtNanos: Long)
+
     /**
      * Resolved shortcuts with corresponding app targets.
      */
-    class Result(
+    class Result @JvmOverloads constructor(
         val isFromAppPredictor: Boolean,
         /**
          * Input app targets (see [ShortcutLoader.queryShortcuts] the
@@ -266,7 +413,17 @@ open class ShortcutLoader @VisibleForTesting constructor(
          */
         val shortcutsByApp: Array<ShortcutResultInfo>,
         val directShareAppTargetCache: Map<ChooserTarget, AppTarget>,
-        val directShareShortcutInfoCache: Map<ChooserTarget, ShortcutInfo>
+        val directShareShortcutInfoCache: Map<ChooserTarget, ShortcutInfo>,
+        /**
+         * How long the load waited for the loading lane, or 0 if the shortcuts were loaded ahead
+         * or weren't requested by a load (e.g. an app predictor update).
+         */
+        val queueWaitMillis: Long = 0,
+        /**
+         * How long the load took once running, or 0 if the shortcuts were loaded ahead or weren't
+         * requested by a load.
+         */
+        val loadMillis: Long = 0
     )
 
     /**
@@ -309,18 +466,31 @@ open class ShortcutLoader @VisibleForTesting constructor(
     companion object {
         private const val TAG = "ShortcutLoader"
         private val NO_REQUEST = Request(arrayOf())
+        private const val LANE_KEEP_ALIVE_SECONDS = 10L
 
-        private fun PackageManager.isPackageEnabled(packageName: String): Boolean {
-            if (TextUtils.isEmpty(packageName)) {
-                return false
+        // Single-threaded loading lanes, keyed by user id.
+        @GuardedBy("loadingLanes")
+        private val loadingLanes = SparseArray<Executor>()
+
+        /**
+         * @return the executor loading the shortcuts of [userHandle]: loads for the same profile
+         * run in order, while those for different profiles run concurrently, apart from other
+         * background work.
+         */
+        private fun getLoadingLane(userHandle: UserHandle): Executor =
+            synchronized(loadingLanes) {
+                loadingLanes[userHandle.identifier]
+                    ?: ThreadPoolExecutor(
+                        1,
+                        1,
+                        LANE_KEEP_ALIVE_SECONDS,
+                        TimeUnit.SECONDS,
+                        LinkedBlockingQueue()
+                    ) { runnable ->
+                        Thread(runnable, "ShortcutLoader-${userHandle.identifier}")
+                    }
+                        .apply { allowCoreThreadTimeOut(true) }
+                        .also { loadingLanes.put(userHandle.identifier, it) }
             }
-            return runCatching {
-                val appInfo = getApplicationInfo(
-                    packageName,
-                    PackageManager.ApplicationInfoFlags.of(PackageManager.GET_META_DATA.toLong())
-                )
-                appInfo.enabled && (appInfo.flags and ApplicationInfo.FLAG_SUSPENDED) == 0
-            }.getOrDefault(false)
-        }
     }
 }
@@ -26,6 +26,7 @@ import android.os.Bundle;
 import android.service.chooser.ChooserTarget;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -53,25 +54,58 @@ class ShortcutToChooserTargetConverter {
             @Nullable List<AppTarget> allAppTargets,
             @Nullable Map<ChooserTarget, AppTarget> directShareAppTargetCache,
             @Nullable Map<ChooserTarget, ShortcutInfo> directShareShortcutInfoCache) {
+        final int[] positionsInAllShortcuts = new int[matchingShortcuts.size()];
+        for (int i = 0; i < positionsInAllShortcuts.length; i++) {
+            positionsInAllShortcuts[i] = allShortcuts.indexOf(matchingShortcuts.get(i));
+        }
+        return convertToChooserTarget(
+                matchingShortcuts,
+                positionsInAllShortcuts,
+                allAppTargets,
+                directShareAppTargetCache,
+                directShareShortcutInfoCache);
+    }
+
+    /**
+     * Converts a list of ShareShortcutInfos to ChooserTargets, given the position of each of them
+     * in the list of all the shortcuts returned for the current sharing action. Callers that
+     * convert the shortcuts of many packages should index the positions once and use this
+     * variant rather than having each call search the full list.
+     * @param matchingShortcuts List of shortcuts, all from the same package, that match the current
+     *                         share intent filter.
+     * @param positionsInAllShortcuts The position of each of the {@code matchingShortcuts} in the
+     *                               list of all shortcuts (and of {@code allAppTargets}).
+     * @param allAppTargets List of AppTargets. Null if the results are not from prediction service.
+     * @param directShareAppTargetCache An optional map to store mapping for the new ChooserTarget
+     *  instances back to original allAppTargets.
+     * @param directShareShortcutInfoCache An optional map to store mapping from the new
+     *  ChooserTarget instances back to the original matchingShortcuts' {@code getShortcutInfo()}
+     * @return A list of ChooserTargets sorted by score in descending order.
+     */
+    @NonNull
+    public List<ChooserTarget> convertToChooserTarget(
+            @NonNull List<ShortcutManager.ShareShortcutInfo> matchingShortcuts,
+            @NonNull int[] positionsInAllShortcuts,
+            @Nullable List<AppTarget> allAppTargets,
+            @Nullable Map<ChooserTarget, AppTarget> directShareAppTargetCache,
+            @Nullable Map<ChooserTarget, ShortcutInfo> directShareShortcutInfoCache) {
         // If |appTargets| is not null, results are from AppPredictionService and already sorted.
         final boolean isFromAppPredictor = allAppTargets != null;
-        // A set of distinct scores for the matched shortcuts. We use index of a rank in the sorted
-        // list instead of the actual rank value when converting a rank to a score.
-        List<Integer> scoreList = new ArrayList<>();
+        // The distinct ranks of the matched shortcuts, sorted. We use index of a rank in this
+        // array instead of the actual rank value when converting a rank to a score.
+        int[] distinctRanks = null;
         if (!isFromAppPredictor) {
-            for (int i = 0; i < matchingShortcuts.size(); i++) {
-                int shortcutRank = matchingShortcuts.get(i).getShortcutInfo().getRank();
-                if (!scoreList.contains(shortcutRank)) {
-                    scoreList.add(shortcutRank);
-                }
+            final int[] ranks = new int[matchingShortcuts.size()];
+            for (int i = 0; i < ranks.length; i++) {
+                ranks[i] = matchingShortcuts.get(i).getShortcutInfo().getRank();
             }
-            Collections.sort(scoreList);
+            distinctRanks = Arrays.stream(ranks).sorted().distinct().toArray();
         }
 
         List<ChooserTarget> chooserTargetList = new ArrayList<>(matchingShortcuts.size());
         for (int i = 0; i < matchingShortcuts.size(); i++) {
             ShortcutInfo shortcutInfo = matchingShortcuts.get(i).getShortcutInfo();
-            int indexInAllShortcuts = allShortcuts.indexOf(matchingShortcuts.get(i));
+            int indexInAllShortcuts = positionsInAllShortcuts[i];
 
             float score;
             if (isFromAppPredictor) {
@@ -79,7 +113,7 @@ class ShortcutToChooserTargetConverter {
                 score = Math.max(1.0f - (0.01f * indexInAllShortcuts), 0.0f);
             } else {
                 // Create a score based on the rank of the shortcut.
-                int rankIndex = scoreList.indexOf(shortcutInfo.getRank());
+                int rankIndex = Arrays.binarySearch(distinctRanks, shortcutInfo.getRank());
                 score = Math.max(1.0f - (0.01f * rankIndex), 0.0f);
             }
 
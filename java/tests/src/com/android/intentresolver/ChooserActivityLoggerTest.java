@@ -419,4 +419,90 @@ public final class ChooserActivityLoggerTest {
         assertThat(ChooserActivityLogger.getTargetSelectionCategory(
                 ChooserActivityLogger.SELECTION_TYPE_EDIT)).isEqualTo(0);
     }
+
+    @Test
+    public void testEndPhase_logsDurationHistogram() {
+        int phase = mChooserLogger.beginPhase(ChooserActivityLogger.Phase.TOP_K, null);
+
+        mChooserLogger.endPhase(phase, null);
+
+        verify(mMetricsLogger).histogram(eq("sharesheet_phase_top_k"), anyInt());
+    }
+
+    @Test
+    public void testEndPhase_withQualifierAndOutcome() {
+        int phase = mChooserLogger.beginPhase(
+                ChooserActivityLogger.Phase.PACKAGE_RESOLUTION, "other_profile");
+
+        mChooserLogger.endPhase(phase, ChooserActivityLogger.PHASE_OUTCOME_TIMEOUT);
+
+        verify(mMetricsLogger).histogram(
+                eq("sharesheet_phase_package_resolution_other_profile_timeout"), anyInt());
+    }
+
+    @Test
+    public void testEndPhase_endedPhasesAreIgnored() {
+        int phase = mChooserLogger.beginPhase(ChooserActivityLogger.Phase.RANKER_COMPUTE, null);
+
+        mChooserLogger.endPhase(phase, ChooserActivityLogger.PHASE_OUTCOME_COMPLETED);
+        mChooserLogger.endPhase(phase, ChooserActivityLogger.PHASE_OUTCOME_TIMEOUT);
+        mChooserLogger.endPhase(0, null);
+
+        verify(mMetricsLogger).histogram(
+                eq("sharesheet_phase_ranker_compute_completed"), anyInt());
+    }
+
+    @Test
+    public void testLogFirstRowBound_onlyLoggedOncePerTrigger() {
+        mChooserLogger.logSharesheetTriggered();
+        verify(mUiEventLog).logWithInstanceId(
+                eq(SharesheetStandardEvent.SHARESHEET_TRIGGERED), eq(0), isNull(), any());
+
+        mChooserLogger.logFirstRowBound();
+        mChooserLogger.logFirstRowBound();
+
+        verify(mMetricsLogger, times(1)).histogram(
+                eq("sharesheet_phase_first_row_bind"), anyInt());
+    }
+
+    @Test
+    public void testLogSharesheetTriggered_endsPreviousFirstRowBindAsSuperseded() {
+        mChooserLogger.logSharesheetTriggered();
+        mChooserLogger.logSharesheetTriggered();
+
+        verify(mMetricsLogger).histogram(
+                eq("sharesheet_phase_first_row_bind_superseded"), anyInt());
+
+        mChooserLogger.logFirstRowBound();
+
+        verify(mMetricsLogger).histogram(eq("sharesheet_phase_first_row_bind"), anyInt());
+    }
+
+    @Test
+    public void testLogIconLoadStats_logsPercentilesOfEndedIconLoads() {
+        mChooserLogger.logIconLoadStats();
+        for (int i = 0; i < 3; i++) {
+            mChooserLogger.endPhase(
+                    mChooserLogger.beginPhase(ChooserActivityLogger.Phase.ICON_LOAD, null),
+                    null);
+        }
+
+        mChooserLogger.logIconLoadStats();
+        mChooserLogger.logIconLoadStats();
+
+        verify(mMetricsLogger, times(1)).histogram(eq("sharesheet_phase_icon_load_p50"), anyInt());
+        verify(mMetricsLogger, times(1)).histogram(eq("sharesheet_phase_icon_load_p99"), anyInt());
+    }
+
+    @Test
+    public void testPercentile() {
+        long[] samples = new long[100];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = i + 1;
+        }
+
+        assertThat(ChooserActivityLogger.percentile(samples, 50)).isEqualTo(50);
+        assertThat(ChooserActivityLogger.percentile(samples, 99)).isEqualTo(99);
+        assertThat(ChooserActivityLogger.percentile(new long[] {7}, 99)).isEqualTo(7);
+    }
 }
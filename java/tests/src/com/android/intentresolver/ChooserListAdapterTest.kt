@@ -20,6 +20,7 @@ import android.content.ComponentName
 import android.content.Intent
 import android.content.pm.PackageManager
 import android.content.pm.PackageManager.ResolveInfoFlags
+import android.os.AsyncTask
 import android.view.View
 import android.widget.FrameLayout
 import android.widget.ImageView
@@ -31,12 +32,22 @@ import com.android.intentresolver.chooser.DisplayResolveInfo
 import com.android.intentresolver.chooser.SelectableTargetInfo
 import com.android.intentresolver.chooser.TargetInfo
 import com.android.internal.R
+import com.google.common.truth.Truth.assertThat
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.function.Consumer
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
+import org.mockito.Mockito.anyInt
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.never
 import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 
+private const val MAX_RANKED_TARGETS = 2
+
 @RunWith(AndroidJUnit4::class)
 class ChooserListAdapterTest {
     private val packageManager = mock<PackageManager> {
@@ -47,6 +58,9 @@ class ChooserListAdapterTest {
     private val context = InstrumentationRegistry.getInstrumentation().getContext()
     private val resolverListController = mock<ResolverListController>()
     private val chooserActivityLogger = mock<ChooserActivityLogger>()
+    private val resolverListCommunicator = mock<ResolverListAdapter.ResolverListCommunicator> {
+        whenever(getReplacementIntent(any(), any())).thenAnswer { it.getArgument<Intent>(1) }
+    }
 
     private fun createChooserListAdapter(
         taskProvider: (TargetInfo?) -> LoadDirectShareIconTask
@@ -115,6 +129,161 @@ class ChooserListAdapterTest {
         verify(testTaskProvider, times(1)).invoke()
     }
 
+    @Test
+    fun testSortingTask_rankedPrefixIsPresentedBeforeTheTail() {
+        val components = (0 until 5).map { ResolverDataProvider.createResolvedComponentInfo(it) }
+        doAnswer {
+            it.getArgument<Consumer<List<ResolvedComponentInfo>>>(2)
+                .accept(components.subList(0, MAX_RANKED_TARGETS).toList())
+        }.`when`(resolverListController).topK(any(), anyInt(), anyOrNull())
+        val prefixCounts = ArrayList<Int>()
+        val sorted = CountDownLatch(1)
+        val testSubject = createRankingChooserListAdapter(
+            onPrefixProcessed = { prefixCounts.add(it.displayResolveInfoCount) },
+            onSortedListProcessed = { sorted.countDown() }
+        )
+
+        runOnMainSync {
+            testSubject.finishRebuildingListWithFilteredResults(ArrayList(components), true)
+        }
+
+        assertThat(sorted.await(5, TimeUnit.SECONDS)).isTrue()
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync()
+        assertThat(prefixCounts).containsExactly(MAX_RANKED_TARGETS)
+        assertThat(displayedComponents(testSubject))
+            .containsExactlyElementsIn(components.map { it.name })
+            .inOrder()
+    }
+
+    @Test
+    fun testProcessRankedPrefix_prefixOfSupersededRebuildIsDropped() {
+        whenever(resolverListController.computeAsync(any(), any())).thenReturn(true)
+        val staleComponents =
+            (0 until 5).map { ResolverDataProvider.createResolvedComponentInfo(it) }
+        val components =
+            (5 until 10).map { ResolverDataProvider.createResolvedComponentInfo(it) }
+        val testSubject = createRankingChooserListAdapter()
+
+        runOnMainSync {
+            testSubject.finishRebuildingListWithFilteredResults(staleComponents, true)
+            testSubject.finishRebuildingListWithFilteredResults(components, true)
+            testSubject.processRankedPrefix(
+                staleComponents, staleComponents.subList(0, MAX_RANKED_TARGETS))
+        }
+        assertThat(testSubject.displayResolveInfoCount).isEqualTo(0)
+
+        runOnMainSync {
+            testSubject.processRankedPrefix(components, components.subList(0, MAX_RANKED_TARGETS))
+            testSubject.processSortedList(components, true)
+        }
+        assertThat(displayedComponents(testSubject))
+            .containsExactlyElementsIn(components.map { it.name })
+            .inOrder()
+    }
+
+    @Test
+    fun testRankingUpdate_movingOnlyUnrankedTargets_isNotNotified() {
+        val listener = mock<ChooserListAdapter.OnRankedTargetsMovedListener>()
+
+        val testSubject = buildListAndUpdateRanking(listener) { Collections.swap(it, 3, 4) }
+
+        verify(listener, never()).onRankedTargetsMoved(anyInt(), anyInt())
+        assertThat(displayedComponents(testSubject).take(MAX_RANKED_TARGETS))
+            .containsExactly(
+                ResolverDataProvider.createComponentName(0),
+                ResolverDataProvider.createComponentName(1))
+            .inOrder()
+    }
+
+    @Test
+    fun testRankingUpdate_movingRankedTargets_notifiesTheirPositions() {
+        val listener = mock<ChooserListAdapter.OnRankedTargetsMovedListener>()
+
+        val testSubject = buildListAndUpdateRanking(listener) { Collections.swap(it, 0, 1) }
+
+        verify(listener).onRankedTargetsMoved(0, 1)
+        assertThat(displayedComponents(testSubject).take(MAX_RANKED_TARGETS))
+            .containsExactly(
+                ResolverDataProvider.createComponentName(1),
+                ResolverDataProvider.createComponentName(0))
+            .inOrder()
+    }
+
+    /**
+     * Builds the list of 5 components in their provisional order, then delivers a ranking update
+     * that reorders them with {@code rerank}.
+     */
+    private fun buildListAndUpdateRanking(
+        listener: ChooserListAdapter.OnRankedTargetsMovedListener,
+        rerank: (MutableList<ResolvedComponentInfo>) -> Unit
+    ): ChooserListAdapter {
+        val components = (0 until 5).map { ResolverDataProvider.createResolvedComponentInfo(it) }
+        whenever(resolverListController.computeAsync(any(), any())).thenReturn(true)
+        whenever(resolverListController.updateRanking()).thenReturn(true)
+        doAnswer { rerank(it.getArgument(0)) }
+            .`when`(resolverListController).topK(any(), anyInt())
+        val testSubject = createRankingChooserListAdapter()
+        testSubject.setOnRankedTargetsMovedListener(listener)
+        val rankingUpdatedCallback = argumentCaptor<Runnable>()
+        verify(resolverListController)
+            .setRankingUpdatedCallback(capture(rankingUpdatedCallback))
+        runOnMainSync {
+            testSubject.finishRebuildingListWithFilteredResults(components, false)
+            testSubject.processSortedList(components, false)
+        }
+
+        rankingUpdatedCallback.value.run()
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync()
+        val serialExecutorDone = CountDownLatch(1)
+        AsyncTask.SERIAL_EXECUTOR.execute { serialExecutorDone.countDown() }
+        assertThat(serialExecutorDone.await(5, TimeUnit.SECONDS)).isTrue()
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync()
+        return testSubject
+    }
+
+    private fun createRankingChooserListAdapter(
+        onPrefixProcessed: (ChooserListAdapter) -> Unit = {},
+        onSortedListProcessed: () -> Unit = {}
+    ) = object : ChooserListAdapter(
+            context,
+            emptyList(),
+            emptyArray(),
+            emptyList(),
+            false,
+            resolverListController,
+            null,
+            Intent(),
+            resolverListCommunicator,
+            packageManager,
+            chooserActivityLogger,
+            mock(),
+            MAX_RANKED_TARGETS
+        ) {
+            override fun processRankedPrefix(
+                components: List<ResolvedComponentInfo>,
+                rankedPrefix: List<ResolvedComponentInfo>
+            ) {
+                super.processRankedPrefix(components, rankedPrefix)
+                onPrefixProcessed(this)
+            }
+
+            override fun processSortedList(
+                sortedComponents: List<ResolvedComponentInfo>?,
+                doPostProcessing: Boolean
+            ) {
+                super.processSortedList(sortedComponents, doPostProcessing)
+                onSortedListProcessed()
+            }
+        }
+
+    private fun displayedComponents(adapter: ChooserListAdapter) =
+        (0 until adapter.displayResolveInfoCount).map {
+            adapter.getDisplayResolveInfo(it).resolvedComponentName
+        }
+
+    private fun runOnMainSync(block: () -> Unit) =
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(block)
+
     private fun createSelectableTargetInfo(): TargetInfo =
         SelectableTargetInfo.newSelectableTargetInfo(
             /* sourceInfo = */ DisplayResolveInfo.newDisplayResolveInfo(
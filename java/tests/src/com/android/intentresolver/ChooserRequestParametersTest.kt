@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.ComponentName
+import android.content.Intent
+import android.net.Uri
+import android.os.Bundle
+import android.service.chooser.ChooserTarget
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.Executor
+import org.junit.Assert.assertThrows
+import org.junit.Test
+
+class ChooserRequestParametersTest {
+    private val pendingParsers = ArrayList<Runnable>()
+    private val parseExecutor = Executor { pendingParsers.add(it) }
+    private val targetIntent = Intent(Intent.ACTION_SEND).apply {
+        type = "image/png"
+        putExtra(Intent.EXTRA_STREAM, Uri.parse("content://org.pkg.app/image.png"))
+    }
+
+    @Test
+    fun testFirstFrameParameters_availableBeforeDeferredExtrasAreParsed() {
+        val clientIntent = Intent.createChooser(targetIntent, null)
+            .putExtra(Intent.EXTRA_CHOOSER_TARGETS, arrayOf(createChooserTarget("target")))
+
+        val testSubject = createTestSubject(clientIntent)
+
+        assertThat(pendingParsers).isNotEmpty()
+        assertThat(testSubject.targetType).isEqualTo("image/png")
+        assertThat(testSubject.isSendActionTarget).isTrue()
+        assertThat(testSubject.title).isNull()
+        assertThat(testSubject.defaultTitleResource).isNotEqualTo(0)
+        assertThat(testSubject.callerChooserTargetsAsync.toCompletableFuture().isDone).isFalse()
+    }
+
+    @Test
+    fun testDeferredExtras_parsedOnExecutor() {
+        val alternateIntent = Intent(Intent.ACTION_SEND).setType("image/*")
+        val replacementExtras = Bundle().apply { putBundle("org.pkg.app", Bundle()) }
+        val clientIntent = Intent.createChooser(targetIntent, null)
+            .putExtra(Intent.EXTRA_CHOOSER_TARGETS, arrayOf(createChooserTarget("target")))
+            .putExtra(Intent.EXTRA_ALTERNATE_INTENTS, arrayOf(alternateIntent))
+            .putExtra(Intent.EXTRA_REPLACEMENT_EXTRAS, replacementExtras)
+
+        val testSubject = createTestSubject(clientIntent)
+        runPendingParsers()
+
+        assertThat(testSubject.callerChooserTargets.map { it.title })
+            .containsExactly("target")
+        assertThat(testSubject.additionalTargets).asList().containsExactly(alternateIntent)
+        assertThat(alternateIntent.flags and Intent.FLAG_ACTIVITY_NEW_DOCUMENT).isNotEqualTo(0)
+        assertThat(testSubject.initialIntents).isNull()
+        assertThat(testSubject.replacementExtras?.keySet()).containsExactly("org.pkg.app")
+        assertThat(testSubject.targetIntentFilter?.hasDataAuthority(
+            Uri.parse("content://org.pkg.app/image.png"))).isTrue()
+    }
+
+    @Test
+    fun testDeferredExtras_invalidTypeIsIgnored() {
+        val clientIntent = Intent.createChooser(targetIntent, null)
+            .putExtra(Intent.EXTRA_CHOOSER_TARGETS, arrayOf(Intent()))
+
+        val testSubject = createTestSubject(clientIntent)
+        runPendingParsers()
+
+        assertThat(testSubject.callerChooserTargets).isEmpty()
+    }
+
+    @Test
+    fun testAlternateAndInitialIntents_parsedInConstructor() {
+        val alternateIntent = Intent(Intent.ACTION_SEND).setType("image/*")
+        val initialIntent = Intent(Intent.ACTION_VIEW)
+        val clientIntent = Intent.createChooser(targetIntent, null)
+            .putExtra(Intent.EXTRA_ALTERNATE_INTENTS, arrayOf(alternateIntent))
+            .putExtra(Intent.EXTRA_INITIAL_INTENTS, arrayOf(initialIntent))
+
+        val testSubject = createTestSubject(clientIntent)
+
+        assertThat(testSubject.additionalTargets).asList().containsExactly(alternateIntent)
+        assertThat(testSubject.initialIntents).asList().containsExactly(initialIntent)
+    }
+
+    @Test
+    fun testInvalidAlternateIntents_throwFromConstructor() {
+        val clientIntent = Intent.createChooser(targetIntent, null)
+            .putExtra(Intent.EXTRA_ALTERNATE_INTENTS, arrayOf(createChooserTarget("target")))
+
+        assertThrows(IllegalArgumentException::class.java) { createTestSubject(clientIntent) }
+        assertThat(pendingParsers).isEmpty()
+    }
+
+    @Test
+    fun testInvalidInitialIntents_throwFromConstructor() {
+        val clientIntent = Intent.createChooser(targetIntent, null)
+            .putExtra(Intent.EXTRA_INITIAL_INTENTS, Uri.parse("content://org.pkg.app/image.png"))
+
+        assertThrows(IllegalArgumentException::class.java) { createTestSubject(clientIntent) }
+        assertThat(pendingParsers).isEmpty()
+    }
+
+    private fun createTestSubject(clientIntent: Intent) =
+        ChooserRequestParameters(
+            clientIntent,
+            "org.pkg.referrer",
+            Uri.parse("android-app://org.pkg.referrer"),
+            ChooserIntegratedDeviceComponents(null, null),
+            TestFeatureFlagRepository(emptyMap()),
+            parseExecutor
+        )
+
+    private fun runPendingParsers() {
+        pendingParsers.forEach { it.run() }
+        pendingParsers.clear()
+    }
+
+    private fun createChooserTarget(title: String) =
+        ChooserTarget(
+            title,
+            null,
+            1f,
+            ComponentName("org.pkg.app", "org.pkg.app.Activity"),
+            null
+        )
+}
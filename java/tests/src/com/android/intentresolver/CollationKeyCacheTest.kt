@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import androidx.test.filters.SmallTest
+import com.google.common.truth.Truth.assertThat
+import java.text.Collator
+import java.util.Locale
+import org.junit.Test
+
+@SmallTest
+class CollationKeyCacheTest {
+    private val testSubject = CollationKeyCache(16)
+
+    @Test
+    fun testGetCollationKey_ordersLikeCollator() {
+        val labels = listOf("zebra", "Apple", "éclair", "banana", "Éclair", "apple")
+        val collator = Collator.getInstance(Locale.US)
+
+        val sorted = labels.sortedBy { testSubject.getCollationKey(Locale.US, it) }
+
+        assertThat(sorted).isEqualTo(labels.sortedWith(collator))
+    }
+
+    @Test
+    fun testGetCollationKey_sameLocale_reusesKey() {
+        val key = testSubject.getCollationKey(Locale.US, "label")
+
+        assertThat(testSubject.getCollationKey(Locale.US, StringBuilder("label")))
+            .isSameInstanceAs(key)
+    }
+
+    @Test
+    fun testGetCollationKey_localeChange_recomputesKey() {
+        val key = testSubject.getCollationKey(Locale.US, "label")
+
+        testSubject.getCollationKey(Locale.GERMANY, "label")
+
+        assertThat(testSubject.getCollationKey(Locale.US, "label")).isNotSameInstanceAs(key)
+    }
+
+    @Test
+    fun testGetCollationKey_null_collatesAsEmpty() {
+        assertThat(testSubject.getCollationKey(Locale.US, null).sourceString).isEmpty()
+    }
+}
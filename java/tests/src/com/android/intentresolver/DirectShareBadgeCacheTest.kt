@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.ComponentName
+import android.content.Context
+import android.content.res.Configuration
+import android.content.res.Resources
+import android.graphics.Bitmap
+import androidx.test.filters.SmallTest
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Supplier
+import org.junit.Test
+
+@SmallTest
+class DirectShareBadgeCacheTest {
+    private val resources = mock<Resources> {
+        whenever(configuration).thenReturn(Configuration())
+    }
+    private val context = mock<Context> {
+        whenever(this.resources).thenReturn(this@DirectShareBadgeCacheTest.resources)
+    }
+    private val component = ComponentName("org.pkg.app", "Activity")
+    private val testSubject = DirectShareBadgeCache(1024 * 1024)
+
+    @Test
+    fun testGetBadge_sameComponentAndSize_rendersOnce() {
+        val renderCount = AtomicInteger()
+        val renderer = Supplier { createBadge().also { renderCount.incrementAndGet() } }
+
+        val badge = testSubject.getBadge(context, component, 4, renderer)
+
+        assertThat(testSubject.getBadge(context, component, 4, renderer)).isSameInstanceAs(badge)
+        assertThat(renderCount.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun testGetBadge_differentComponentOrSize_rendersAgain() {
+        val renderCount = AtomicInteger()
+        val renderer = Supplier { createBadge().also { renderCount.incrementAndGet() } }
+
+        testSubject.getBadge(context, component, 4, renderer)
+        testSubject.getBadge(context, component, 8, renderer)
+        testSubject.getBadge(context, ComponentName("org.pkg.other", "Activity"), 4, renderer)
+
+        assertThat(renderCount.get()).isEqualTo(3)
+    }
+
+    @Test
+    fun testGetBadge_afterInvalidate_rendersAgain() {
+        val renderCount = AtomicInteger()
+        val renderer = Supplier { createBadge().also { renderCount.incrementAndGet() } }
+        testSubject.getBadge(context, component, 4, renderer)
+
+        testSubject.invalidate()
+        testSubject.getBadge(context, component, 4, renderer)
+
+        assertThat(renderCount.get()).isEqualTo(2)
+    }
+
+    @Test
+    fun testGetBadge_notRendered_isNotCached() {
+        val renderCount = AtomicInteger()
+
+        testSubject.getBadge(context, component, 4) { null.also { renderCount.incrementAndGet() } }
+        testSubject.getBadge(context, component, 4) { null.also { renderCount.incrementAndGet() } }
+
+        assertThat(renderCount.get()).isEqualTo(2)
+    }
+
+    @Test
+    fun testGetBadge_whileRendering_waitsForThatRendering() {
+        val renderCount = AtomicInteger()
+        val renderingStarted = CountDownLatch(1)
+        val finishRendering = CountDownLatch(1)
+        val badge = createBadge()
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            val rendering = executor.submit<Bitmap?> {
+                testSubject.getBadge(context, component, 4) {
+                    renderCount.incrementAndGet()
+                    renderingStarted.countDown()
+                    finishRendering.await()
+                    badge
+                }
+            }
+            assertThat(renderingStarted.await(5, TimeUnit.SECONDS)).isTrue()
+            val waiting = Executors.newSingleThreadExecutor()
+            try {
+                val waited = waiting.submit<Bitmap?> {
+                    testSubject.getBadge(context, component, 4) {
+                        createBadge().also { renderCount.incrementAndGet() }
+                    }
+                }
+                finishRendering.countDown()
+
+                assertThat(rendering.get(5, TimeUnit.SECONDS)).isSameInstanceAs(badge)
+                assertThat(waited.get(5, TimeUnit.SECONDS)).isSameInstanceAs(badge)
+            } finally {
+                waiting.shutdown()
+            }
+        } finally {
+            executor.shutdown()
+        }
+        assertThat(renderCount.get()).isEqualTo(1)
+    }
+
+    private fun createBadge() = Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888)
+}
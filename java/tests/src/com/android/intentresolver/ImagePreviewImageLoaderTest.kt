@@ -16,14 +16,23 @@
 
 package com.android.intentresolver
 
+import android.content.ContentInterface
 import android.content.ContentResolver
 import android.content.Context
 import android.content.res.Resources
+import android.database.MatrixCursor
+import android.graphics.Bitmap
 import android.net.Uri
+import android.provider.DocumentsContract
+import android.provider.MediaStore
+import android.provider.OpenableColumns
 import android.util.Size
 import androidx.lifecycle.Lifecycle
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.common.truth.Truth.assertThat
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.asCoroutineDispatcher
 import kotlinx.coroutines.test.TestCoroutineScheduler
 import kotlinx.coroutines.test.UnconfinedTestDispatcher
 import kotlinx.coroutines.test.resetMain
@@ -35,6 +44,9 @@ import org.junit.Test
 import org.mockito.Mockito.never
 import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
+import java.io.File
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 
 @OptIn(ExperimentalCoroutinesApi::class)
 class ImagePreviewImageLoaderTest {
@@ -42,6 +54,7 @@ class ImagePreviewImageLoaderTest {
     private val uriOne = Uri.parse("content://org.package.app/image-1.png")
     private val uriTwo = Uri.parse("content://org.package.app/image-2.png")
     private val contentResolver = mock<ContentResolver>()
+    private val metadataResolver = mock<ContentInterface>()
     private val resources = mock<Resources> {
         whenever(getDimensionPixelSize(R.dimen.chooser_preview_image_max_dimen))
             .thenReturn(imageSize.width)
@@ -56,6 +69,12 @@ class ImagePreviewImageLoaderTest {
     private val testSubject = ImagePreviewImageLoader(
         context, lifecycleOwner.lifecycle, 1, dispatcher
     )
+    private val previewCacheDirectory = File(
+        InstrumentationRegistry.getInstrumentation().context.cacheDir,
+        "image_preview_image_loader_test"
+    )
+    private val previewCache =
+        PreviewImageCache(Int.MAX_VALUE, previewCacheDirectory, Long.MAX_VALUE)
 
     @Before
     fun setup() {
@@ -67,6 +86,7 @@ class ImagePreviewImageLoaderTest {
     fun cleanup() {
         lifecycleOwner.state = Lifecycle.State.DESTROYED
         Dispatchers.resetMain()
+        previewCacheDirectory.deleteRecursively()
     }
 
     @Test
@@ -98,4 +118,130 @@ class ImagePreviewImageLoaderTest {
         verify(contentResolver, times(2)).loadThumbnail(uriOne, imageSize, null)
         verify(contentResolver, times(1)).loadThumbnail(uriTwo, imageSize, null)
     }
+
+    @Test
+    fun test_invoke_decodes_at_requested_thumbnail_size() = runTest {
+        val thumbnailSize = Size(100, 100)
+        val testSubject = ImagePreviewImageLoader(
+            context, lifecycleOwner.lifecycle, 1, dispatcher, thumbnailSize
+        )
+
+        testSubject(uriOne)
+
+        verify(contentResolver, times(1)).loadThumbnail(uriOne, thumbnailSize, null)
+    }
+
+    @Test
+    fun test_prePopulate_limits_concurrent_loads() = runTest {
+        val maxConcurrentLoads = 2
+        val runningLoads = AtomicInteger()
+        val maxRunningLoads = AtomicInteger()
+        whenever(contentResolver.loadThumbnail(any(), any(), anyOrNull())).thenAnswer {
+            maxRunningLoads.accumulateAndGet(runningLoads.incrementAndGet(), ::maxOf)
+            Thread.sleep(10)
+            runningLoads.decrementAndGet()
+            null
+        }
+        val uris = List(6) { Uri.parse("content://org.package.app/image-$it.png") }
+        val executor = Executors.newFixedThreadPool(uris.size)
+        try {
+            val testSubject = ImagePreviewImageLoader(
+                context,
+                lifecycleOwner.lifecycle,
+                uris.size,
+                executor.asCoroutineDispatcher(),
+                imageSize,
+                maxConcurrentLoads
+            )
+
+            testSubject.prePopulate(uris)
+            uris.forEach { testSubject(it) }
+        } finally {
+            executor.shutdown()
+        }
+
+        verify(contentResolver, times(uris.size)).loadThumbnail(any(), any(), anyOrNull())
+        assertThat(maxRunningLoads.get()).isAtMost(maxConcurrentLoads)
+    }
+
+    @Test
+    fun test_invoke_versioned_content_is_shared_through_the_preview_cache() = runTest {
+        stubContentVersion(uriOne)
+        whenever(contentResolver.loadThumbnail(uriOne, imageSize, null))
+            .thenReturn(Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888))
+
+        createLoaderWithPreviewCache()(uriOne)
+        val image = createLoaderWithPreviewCache()(uriOne)
+
+        assertThat(image).isNotNull()
+        verify(contentResolver, times(1)).loadThumbnail(uriOne, imageSize, null)
+    }
+
+    @Test
+    fun test_invoke_queries_only_the_version_columns() = runTest {
+        val projection = argumentCaptor<Array<String>>()
+        stubContentVersion(uriOne)
+        whenever(contentResolver.loadThumbnail(uriOne, imageSize, null))
+            .thenReturn(Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888))
+
+        createLoaderWithPreviewCache()(uriOne)
+
+        verify(metadataResolver, times(1))
+            .query(eq(uriOne), capture(projection), anyOrNull(), anyOrNull())
+        assertThat(projection.value).asList()
+            .containsExactly(
+                DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+                MediaStore.MediaColumns.DATE_MODIFIED,
+                OpenableColumns.SIZE
+            )
+    }
+
+    @Test
+    fun test_invoke_inaccessible_content_is_not_served_from_the_preview_cache() = runTest {
+        stubContentVersion(uriOne)
+        whenever(contentResolver.loadThumbnail(uriOne, imageSize, null))
+            .thenReturn(Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888))
+            .thenThrow(SecurityException())
+
+        createLoaderWithPreviewCache()(uriOne)
+        whenever(metadataResolver.query(eq(uriOne), anyOrNull(), anyOrNull(), anyOrNull()))
+            .thenThrow(SecurityException())
+        val image = createLoaderWithPreviewCache()(uriOne)
+
+        assertThat(image).isNull()
+        verify(metadataResolver, times(2))
+            .query(eq(uriOne), anyOrNull(), anyOrNull(), anyOrNull())
+    }
+
+    @Test
+    fun test_invoke_unversioned_content_bypasses_the_preview_cache() = runTest {
+        whenever(contentResolver.loadThumbnail(uriOne, imageSize, null))
+            .thenReturn(Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888))
+
+        createLoaderWithPreviewCache()(uriOne)
+        createLoaderWithPreviewCache()(uriOne)
+
+        verify(contentResolver, times(2)).loadThumbnail(uriOne, imageSize, null)
+    }
+
+    private fun stubContentVersion(uri: Uri) {
+        whenever(metadataResolver.query(eq(uri), anyOrNull(), anyOrNull(), anyOrNull()))
+            .thenAnswer {
+                MatrixCursor(
+                    arrayOf(OpenableColumns.SIZE, DocumentsContract.Document.COLUMN_LAST_MODIFIED)
+                ).apply { addRow(arrayOf<Any>(1024L, 1L)) }
+            }
+    }
+
+    private fun createLoaderWithPreviewCache() =
+        ImagePreviewImageLoader(
+            context,
+            lifecycleOwner.lifecycle,
+            1,
+            dispatcher,
+            imageSize,
+            1,
+            previewCache,
+            metadataResolver
+        )
 }
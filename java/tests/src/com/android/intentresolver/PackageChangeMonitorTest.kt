@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import androidx.test.filters.SmallTest
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+@SmallTest
+class PackageChangeMonitorTest {
+    private val testSubject = PackageChangeMonitor()
+
+    @Test
+    fun testNotifyPackagesChanged_notifiesEveryListener() {
+        var firstCount = 0
+        var secondCount = 0
+        testSubject.addListener { firstCount++ }
+        testSubject.addListener { secondCount++ }
+
+        testSubject.notifyPackagesChanged()
+        testSubject.notifyPackagesChanged()
+
+        assertThat(firstCount).isEqualTo(2)
+        assertThat(secondCount).isEqualTo(2)
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import org.junit.After
+import org.junit.Test
+
+class PreviewImageCacheTest {
+    private val directory = File(
+        InstrumentationRegistry.getInstrumentation().context.cacheDir,
+        "preview_image_cache_test"
+    )
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    @Test
+    fun testGet_afterPutInMemory_returnsSameBitmap() {
+        val testSubject = PreviewImageCache(Int.MAX_VALUE, directory, Long.MAX_VALUE)
+        val bitmap = createBitmap(4, 4)
+
+        testSubject.putInMemory("key", bitmap)
+
+        assertThat(testSubject.get("key")).isSameInstanceAs(bitmap)
+        assertThat(testSubject.get("other key")).isNull()
+    }
+
+    @Test
+    fun testGet_memoryIsBoundedByBytes() {
+        val bitmap = createBitmap(4, 4)
+        val testSubject =
+            PreviewImageCache(bitmap.allocationByteCount, directory, Long.MAX_VALUE)
+
+        testSubject.putInMemory("one", bitmap)
+        testSubject.putInMemory("two", createBitmap(4, 4))
+
+        assertThat(testSubject.get("one")).isNull()
+        assertThat(testSubject.get("two")).isNotNull()
+    }
+
+    @Test
+    fun testGet_afterWriteToDisk_decodesFromDisk() {
+        val testSubject = PreviewImageCache(Int.MAX_VALUE, directory, Long.MAX_VALUE)
+
+        testSubject.writeToDisk("key", createBitmap(8, 6))
+        val cached = testSubject.get("key")
+
+        assertThat(cached).isNotNull()
+        assertThat(cached!!.width).isEqualTo(8)
+        assertThat(cached.height).isEqualTo(6)
+        // Promoted to the memory tier.
+        assertThat(testSubject.get("key")).isSameInstanceAs(cached)
+        assertThat(testSubject.get("other key")).isNull()
+    }
+
+    @Test
+    fun testClear_removesEntriesFromBothTiers() {
+        val testSubject = PreviewImageCache(Int.MAX_VALUE, directory, Long.MAX_VALUE)
+        testSubject.putInMemory("memory", createBitmap(4, 4))
+        testSubject.writeToDisk("disk", createBitmap(4, 4))
+
+        testSubject.clear()
+
+        assertThat(testSubject.get("memory")).isNull()
+        assertThat(testSubject.get("disk")).isNull()
+    }
+
+    private fun createBitmap(width: Int, height: Int) =
+        Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888).apply {
+            eraseColor(Color.BLUE)
+        }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.ComponentName
+import android.content.Intent
+import android.net.Uri
+import android.os.UserHandle
+import androidx.test.filters.SmallTest
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+@SmallTest
+class ResolveResultCacheTest {
+    private val user = UserHandle.of(0)
+    private val sendIntent = Intent(Intent.ACTION_SEND).apply { type = "image/png" }
+    private val testSubject = ResolveResultCache()
+
+    @Test
+    fun testMakeKey_sameFilterSignature_equalKeys() {
+        val other = Intent(Intent.ACTION_SEND).apply {
+            type = "image/png"
+            putExtra(Intent.EXTRA_TEXT, "extras don't participate in resolution")
+        }
+
+        assertThat(ResolveResultCache.makeKey(other, 0, user))
+            .isEqualTo(ResolveResultCache.makeKey(sendIntent, 0, user))
+    }
+
+    @Test
+    fun testMakeKey_differentFlagsOrUser_differentKeys() {
+        val key = ResolveResultCache.makeKey(sendIntent, 0, user)
+
+        assertThat(ResolveResultCache.makeKey(sendIntent, 1, user)).isNotEqualTo(key)
+        assertThat(ResolveResultCache.makeKey(sendIntent, 0, UserHandle.of(10)))
+            .isNotEqualTo(key)
+    }
+
+    @Test
+    fun testMakeKey_differentDataOrIntentFlags_differentKeys() {
+        val view = Intent(Intent.ACTION_VIEW).apply {
+            setDataAndType(Uri.parse("content://authority/path"), "image/png")
+        }
+        val otherAuthority = Intent(view).apply {
+            setDataAndType(Uri.parse("content://other.authority/path"), "image/png")
+        }
+        val otherPath = Intent(view).apply {
+            setDataAndType(Uri.parse("content://authority/other/path"), "image/png")
+        }
+        val withFlags = Intent(view).apply { addFlags(Intent.FLAG_EXCLUDE_STOPPED_PACKAGES) }
+        val key = ResolveResultCache.makeKey(view, 0, user)
+
+        assertThat(ResolveResultCache.makeKey(Intent(view), 0, user)).isEqualTo(key)
+        assertThat(ResolveResultCache.makeKey(otherAuthority, 0, user)).isNotEqualTo(key)
+        assertThat(ResolveResultCache.makeKey(otherPath, 0, user)).isNotEqualTo(key)
+        assertThat(ResolveResultCache.makeKey(withFlags, 0, user)).isNotEqualTo(key)
+    }
+
+    @Test
+    fun testMakeKey_uncacheableIntents() {
+        val explicit = Intent(sendIntent).apply { component = ComponentName("pkg", "Class") }
+        val untyped = Intent(Intent.ACTION_VIEW, Uri.parse("content://authority/path"))
+        val web = Intent(Intent.ACTION_VIEW, Uri.parse("https://example.com"))
+
+        assertThat(ResolveResultCache.makeKey(explicit, 0, user)).isNull()
+        assertThat(ResolveResultCache.makeKey(untyped, 0, user)).isNull()
+        assertThat(ResolveResultCache.makeKey(web, 0, user)).isNull()
+    }
+
+    @Test
+    fun testGet_afterPut_returnsCopyAndCountsHit() {
+        val key = requireNotNull(ResolveResultCache.makeKey(sendIntent, 0, user))
+        val info = ResolverDataProvider.createResolveInfo(1, 0)
+
+        assertThat(testSubject.get(key)).isNull()
+        testSubject.put(key, testSubject.generation, listOf(info))
+        val cached = testSubject.get(key)
+
+        assertThat(cached).hasSize(1)
+        assertThat(cached!![0]).isNotSameInstanceAs(info)
+        assertThat(cached[0].activityInfo.name).isEqualTo(info.activityInfo.name)
+        assertThat(testSubject.hitCount).isEqualTo(1)
+        assertThat(testSubject.missCount).isEqualTo(1)
+    }
+
+    @Test
+    fun testInvalidate_dropsEntriesAndRacingPuts() {
+        val key = requireNotNull(ResolveResultCache.makeKey(sendIntent, 0, user))
+        val infos = listOf(ResolverDataProvider.createResolveInfo(1, 0))
+        testSubject.put(key, testSubject.generation, infos)
+
+        val staleGeneration = testSubject.generation
+        testSubject.invalidate()
+        assertThat(testSubject.get(key)).isNull()
+
+        testSubject.put(key, staleGeneration, infos)
+        assertThat(testSubject.get(key)).isNull()
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.Intent
+import android.os.AsyncTask
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.verify
+
+@RunWith(AndroidJUnit4::class)
+class ResolverListAdapterTest {
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+    private val context = instrumentation.getContext()
+    private val resolverListController = mock<ResolverListController> {
+        // The sorting task is left to the test, by never completing the ranking.
+        whenever(computeAsync(any(), any())).thenReturn(true)
+        whenever(updateRanking()).thenReturn(true)
+    }
+    private val resolverListCommunicator = mock<ResolverListAdapter.ResolverListCommunicator> {
+        whenever(getReplacementIntent(any(), any())).thenAnswer { it.getArgument<Intent>(1) }
+    }
+
+    @Test
+    fun testLateRanking_arrivingWhileTheListIsBuilt_isAppliedOnceBuilt() {
+        val components = (0 until 5).map { ResolverDataProvider.createResolvedComponentInfo(it) }
+        // The updated ranking reverses the provisional order.
+        doAnswer { (it.getArgument<MutableList<ResolvedComponentInfo>>(0)).reverse() }
+            .`when`(resolverListController).sort(any())
+        val testSubject = createResolverListAdapter()
+        val rankingUpdatedCallback = argumentCaptor<Runnable>()
+        verify(resolverListController).setRankingUpdatedCallback(capture(rankingUpdatedCallback))
+        val provisionallySorted = ArrayList(components)
+        instrumentation.runOnMainSync {
+            testSubject.finishRebuildingListWithFilteredResults(provisionallySorted, false)
+        }
+
+        rankingUpdatedCallback.value.run()
+        awaitSerialExecutor()
+
+        assertThat(provisionallySorted).containsExactlyElementsIn(components).inOrder()
+        assertThat(testSubject.displayResolveInfoCount).isEqualTo(0)
+
+        instrumentation.runOnMainSync {
+            testSubject.processSortedList(provisionallySorted, false)
+        }
+
+        assertThat(displayedComponents(testSubject))
+            .containsExactlyElementsIn(components.map { it.name }.reversed())
+            .inOrder()
+    }
+
+    private fun createResolverListAdapter() =
+        ResolverListAdapter(
+            context,
+            emptyList(),
+            null,
+            emptyList(),
+            false,
+            resolverListController,
+            null,
+            Intent(),
+            resolverListCommunicator,
+            false
+        )
+
+    /** Waits for the work queued on the serial executor from the main thread to be delivered. */
+    private fun awaitSerialExecutor() {
+        instrumentation.waitForIdleSync()
+        val done = CountDownLatch(1)
+        AsyncTask.SERIAL_EXECUTOR.execute { done.countDown() }
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue()
+        instrumentation.waitForIdleSync()
+    }
+
+    private fun displayedComponents(adapter: ResolverListAdapter) =
+        (0 until adapter.displayResolveInfoCount).map {
+            adapter.getDisplayResolveInfo(it).resolvedComponentName
+        }
+}
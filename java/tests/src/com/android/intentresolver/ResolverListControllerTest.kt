@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.Context
+import android.content.Intent
+import android.content.pm.PackageManager
+import android.content.pm.ResolveInfo
+import android.os.UserHandle
+import androidx.test.filters.SmallTest
+import com.android.intentresolver.model.AbstractResolverComparator
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.junit.Test
+import org.mockito.ArgumentMatchers.anyInt
+
+@SmallTest
+class ResolverListControllerTest {
+    private val context = mock<Context> {
+        whenever(applicationContext).thenReturn(this)
+    }
+    private val packageManager = mock<PackageManager>()
+    private val comparator = mock<AbstractResolverComparator>()
+    private val user = UserHandle.of(0)
+
+    private val testSubject = ResolverListController(
+        context,
+        packageManager,
+        Intent(Intent.ACTION_SEND),
+        "referrer.package",
+        /* launchedFromUid = */ 0,
+        comparator,
+        ResolveResultCache()
+    )
+
+    @Test
+    fun testGetResolversForIntentAsUser_alternateIntents_mergedInPayloadOrder() {
+        val intents = (0 until 5).map { i -> Intent(Intent.ACTION_SEND).setType("type/$i") }
+        // Every intent resolves to its own component plus a component shared by all of them.
+        intents.forEachIndexed { i, intent ->
+            whenever(packageManager.queryIntentActivitiesAsUser(eq(intent), anyInt(), eq(user)))
+                .thenReturn(listOf(createResolveInfo(i + 1), createResolveInfo(0)))
+        }
+
+        val result = testSubject.getResolversForIntentAsUser(
+            /* shouldGetResolvedFilter = */ true,
+            /* shouldGetActivityMetadata = */ false,
+            /* shouldGetOnlyDefaultActivities = */ true,
+            intents,
+            user
+        )
+
+        assertThat(result.map { it.getResolveInfoAt(0).activityInfo.name })
+            .containsExactly(
+                "activity_name1",
+                "activity_name0",
+                "activity_name2",
+                "activity_name3",
+                "activity_name4",
+                "activity_name5"
+            )
+            .inOrder()
+        val shared = result[1]
+        assertThat(shared.count).isEqualTo(intents.size)
+        intents.forEachIndexed { i, intent -> assertThat(shared.getIntentAt(i)).isEqualTo(intent) }
+    }
+
+    @Test
+    fun testGetResolversForIntentAsUser_alternateIntentsQueriedWhilePrimaryIsQueried() {
+        val primary = Intent(Intent.ACTION_SEND).setType("type/primary")
+        val alternate = Intent(Intent.ACTION_SEND).setType("type/alternate")
+        val alternateStarted = CountDownLatch(1)
+        var alternateStartedFirst = false
+        whenever(packageManager.queryIntentActivitiesAsUser(eq(primary), anyInt(), eq(user)))
+            .thenAnswer {
+                alternateStartedFirst = alternateStarted.await(5, TimeUnit.SECONDS)
+                listOf(createResolveInfo(0))
+            }
+        whenever(packageManager.queryIntentActivitiesAsUser(eq(alternate), anyInt(), eq(user)))
+            .thenAnswer {
+                alternateStarted.countDown()
+                listOf(createResolveInfo(1))
+            }
+
+        val result = testSubject.getResolversForIntentAsUser(
+            /* shouldGetResolvedFilter = */ true,
+            /* shouldGetActivityMetadata = */ false,
+            /* shouldGetOnlyDefaultActivities = */ true,
+            listOf(primary, alternate),
+            user
+        )
+
+        assertThat(alternateStartedFirst).isTrue()
+        assertThat(result.map { it.getResolveInfoAt(0).activityInfo.name })
+            .containsExactly("activity_name0", "activity_name1")
+            .inOrder()
+    }
+
+    @Test
+    fun testAddResolveListDedupe_mergesIntoExistingRecords() {
+        val firstIntent = Intent(Intent.ACTION_SEND)
+        val secondIntent = Intent(Intent.ACTION_SEND_MULTIPLE)
+        val into = ArrayList<ResolvedComponentInfo>()
+
+        testSubject.addResolveListDedupe(
+            into, firstIntent, listOf(createResolveInfo(0), createResolveInfo(1))
+        )
+        testSubject.addResolveListDedupe(
+            into, secondIntent, listOf(createResolveInfo(1), createResolveInfo(2))
+        )
+
+        assertThat(into.map { it.count }).containsExactly(1, 2, 1).inOrder()
+        assertThat(into[1].getIntentAt(1)).isSameInstanceAs(secondIntent)
+    }
+
+    private fun createResolveInfo(i: Int): ResolveInfo =
+        ResolverDataProvider.createResolveInfo(i, UserHandle.USER_CURRENT)
+}
@@ -80,5 +80,10 @@ public class ResolverWrapperAdapter extends ResolverListAdapter {
             super.onPostExecute(result);
             mLabelIdlingResource.decrement();
         }
+
+        @Override
+        protected void onCancelled(CharSequence[] result) {
+            mLabelIdlingResource.decrement();
+        }
     }
 }
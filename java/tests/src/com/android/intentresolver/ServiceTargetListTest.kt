@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.ComponentName
+import androidx.test.filters.SmallTest
+import com.android.intentresolver.chooser.TargetInfo
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+@SmallTest
+class ServiceTargetListTest {
+    private val placeholder = mock<TargetInfo> {
+        whenever(isChooserTargetInfo).thenReturn(false)
+        whenever(modifiedScore).thenReturn(-0.1f)
+    }
+
+    @Test
+    fun testInsert_keepsDescendingScoreOrder() {
+        val testSubject = ServiceTargetList(/* capacity = */ 4)
+        val low = createTarget("low", 0.1f)
+        val high = createTarget("high", 0.9f)
+        val middle = createTarget("middle", 0.5f)
+        val otherMiddle = createTarget("other middle", 0.5f)
+
+        assertThat(testSubject.insert(low)).isTrue()
+        assertThat(testSubject.insert(high)).isTrue()
+        assertThat(testSubject.insert(middle)).isTrue()
+        assertThat(testSubject.insert(otherMiddle)).isTrue()
+
+        assertThat(testSubject).containsExactly(high, middle, otherMiddle, low).inOrder()
+    }
+
+    @Test
+    fun testInsert_similarTarget_isRejected() {
+        val testSubject = ServiceTargetList(/* capacity = */ 4)
+        testSubject.insert(createTarget("label", 0.1f))
+
+        assertThat(testSubject.insert(createTarget("label", 0.9f))).isFalse()
+        assertThat(testSubject).hasSize(1)
+    }
+
+    @Test
+    fun testInsert_fullList_dropsLowestAndKeepsItsSimilarityKey() {
+        val testSubject = ServiceTargetList(/* capacity = */ 2)
+        val low = createTarget("low", 0.1f)
+        val middle = createTarget("middle", 0.5f)
+        val high = createTarget("high", 0.9f)
+        testSubject.insert(low)
+        testSubject.insert(middle)
+
+        assertThat(testSubject.insert(high)).isTrue()
+        assertThat(testSubject.insert(createTarget("lowest", 0.05f))).isFalse()
+        assertThat(testSubject.insert(createTarget("low", 0.7f))).isFalse()
+
+        assertThat(testSubject).containsExactly(high, middle).inOrder()
+    }
+
+    @Test
+    fun testInsert_rankedAheadOfPlaceholders() {
+        val testSubject = ServiceTargetList(/* capacity = */ 2)
+        testSubject.add(placeholder)
+        testSubject.add(placeholder)
+        val target = createTarget("label", 0f)
+
+        assertThat(testSubject.insert(target)).isTrue()
+        testSubject.removeIf { it === placeholder }
+
+        assertThat(testSubject).containsExactly(target)
+    }
+
+    @Test
+    fun testRemove_allowsSimilarTargetAgain() {
+        val testSubject = ServiceTargetList(/* capacity = */ 2)
+        testSubject.insert(createTarget("label", 0.1f))
+
+        testSubject.removeAt(0)
+
+        assertThat(testSubject.insert(createTarget("label", 0.1f))).isTrue()
+    }
+
+    @Test
+    fun testSnapshot_isUnaffectedByLaterInserts() {
+        val testSubject = ServiceTargetList(/* capacity = */ 2)
+        val target = createTarget("label", 0.1f)
+        testSubject.insert(target)
+
+        val snapshot = testSubject.snapshot(2)
+        testSubject.insert(createTarget("other", 0.5f))
+
+        assertThat(snapshot).containsExactly(target)
+    }
+
+    private fun createTarget(label: String, score: Float) = mock<TargetInfo> {
+        whenever(isChooserTargetInfo).thenReturn(true)
+        whenever(chooserTargetComponentName).thenReturn(ComponentName("pkg", "Class"))
+        whenever(displayLabel).thenReturn(label)
+        whenever(extendedInfo).thenReturn(null)
+        whenever(modifiedScore).thenReturn(score)
+    }
+}
@@ -71,7 +71,7 @@ class ShortcutSelectionLogicTest {
 
     @Test
     fun testAddShortcuts_no_limits() {
-        val serviceResults = ArrayList<TargetInfo>()
+        val serviceResults = ServiceTargetList(/* capacity = */ 4)
         val sc1 = packageTargets[PACKAGE_A, 0]
         val sc2 = packageTargets[PACKAGE_A, 1]
         val testSubject = ShortcutSelectionLogic(
@@ -89,7 +89,6 @@ class ShortcutSelectionLogicTest {
             /* userContext = */ mock(),
             /* targetIntent = */ mock(),
             /* refererFillInIntent = */ mock(),
-            /* maxRankedTargets = */ 4,
             /* serviceTargets = */ serviceResults
         )
 
@@ -103,7 +102,7 @@ class ShortcutSelectionLogicTest {
 
     @Test
     fun testAddShortcuts_same_package_with_per_package_limit() {
-        val serviceResults = ArrayList<TargetInfo>()
+        val serviceResults = ServiceTargetList(/* capacity = */ 4)
         val sc1 = packageTargets[PACKAGE_A, 0]
         val sc2 = packageTargets[PACKAGE_A, 1]
         val testSubject = ShortcutSelectionLogic(
@@ -121,7 +120,6 @@ class ShortcutSelectionLogicTest {
             /* userContext = */ mock(),
             /* targetIntent = */ mock(),
             /* refererFillInIntent = */ mock(),
-            /* maxRankedTargets = */ 4,
             /* serviceTargets = */ serviceResults
         )
 
@@ -135,7 +133,7 @@ class ShortcutSelectionLogicTest {
 
     @Test
     fun testAddShortcuts_same_package_no_per_app_limit_with_target_limit() {
-        val serviceResults = ArrayList<TargetInfo>()
+        val serviceResults = ServiceTargetList(/* capacity = */ 1)
         val sc1 = packageTargets[PACKAGE_A, 0]
         val sc2 = packageTargets[PACKAGE_A, 1]
         val testSubject = ShortcutSelectionLogic(
@@ -153,7 +151,6 @@ class ShortcutSelectionLogicTest {
             /* userContext = */ mock(),
             /* targetIntent = */ mock(),
             /* refererFillInIntent = */ mock(),
-            /* maxRankedTargets = */ 1,
             /* serviceTargets = */ serviceResults
         )
 
@@ -167,7 +164,7 @@ class ShortcutSelectionLogicTest {
 
     @Test
     fun testAddShortcuts_different_packages_with_per_package_limit() {
-        val serviceResults = ArrayList<TargetInfo>()
+        val serviceResults = ServiceTargetList(/* capacity = */ 4)
         val pkgAsc1 = packageTargets[PACKAGE_A, 0]
         val pkgAsc2 = packageTargets[PACKAGE_A, 1]
         val pkgBsc1 = packageTargets[PACKAGE_B, 0]
@@ -187,7 +184,6 @@ class ShortcutSelectionLogicTest {
             /* userContext = */ mock(),
             /* targetIntent = */ mock(),
             /* refererFillInIntent = */ mock(),
-            /* maxRankedTargets = */ 4,
             /* serviceTargets = */ serviceResults
         )
         testSubject.addServiceResults(
@@ -200,7 +196,6 @@ class ShortcutSelectionLogicTest {
             /* userContext = */ mock(),
             /* targetIntent = */ mock(),
             /* refererFillInIntent = */ mock(),
-            /* maxRankedTargets = */ 4,
             /* serviceTargets = */ serviceResults
         )
 
@@ -213,7 +208,7 @@ class ShortcutSelectionLogicTest {
 
     @Test
     fun testAddShortcuts_pinned_shortcut() {
-        val serviceResults = ArrayList<TargetInfo>()
+        val serviceResults = ServiceTargetList(/* capacity = */ 4)
         val sc1 = packageTargets[PACKAGE_A, 0]
         val sc2 = packageTargets[PACKAGE_A, 1]
         val testSubject = ShortcutSelectionLogic(
@@ -237,7 +232,6 @@ class ShortcutSelectionLogicTest {
             /* userContext = */ mock(),
             /* targetIntent = */ mock(),
             /* refererFillInIntent = */ mock(),
-            /* maxRankedTargets = */ 4,
             /* serviceTargets = */ serviceResults
         )
 
@@ -251,7 +245,7 @@ class ShortcutSelectionLogicTest {
 
     @Test
     fun test_available_caller_shortcuts_count_is_limited() {
-        val serviceResults = ArrayList<TargetInfo>()
+        val serviceResults = ServiceTargetList(/* capacity = */ 4)
         val sc1 = packageTargets[PACKAGE_A, 0]
         val sc2 = packageTargets[PACKAGE_A, 1]
         val sc3 = packageTargets[PACKAGE_A, 2]
@@ -273,7 +267,6 @@ class ShortcutSelectionLogicTest {
             /* userContext = */ context,
             /* targetIntent = */ mock(),
             /* refererFillInIntent = */ mock(),
-            /* maxRankedTargets = */ 4,
             /* serviceTargets = */ serviceResults
         )
 
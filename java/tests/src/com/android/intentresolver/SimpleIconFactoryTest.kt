@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.RectF
+import android.graphics.drawable.Drawable
+import android.graphics.drawable.LayerDrawable
+import android.graphics.drawable.ShapeDrawable
+import android.graphics.drawable.shapes.OvalShape
+import android.graphics.drawable.shapes.RectShape
+import android.view.ContextThemeWrapper
+import androidx.test.filters.SmallTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.common.truth.Truth.assertThat
+import com.google.common.truth.Truth.assertWithMessage
+import java.nio.ByteBuffer
+import java.util.Random
+import kotlin.math.sqrt
+import org.junit.Test
+
+private const val MIN_VISIBLE_ALPHA = 40
+private const val MAX_SQUARE_AREA_FACTOR = 375.0f / 576
+private const val MAX_CIRCLE_AREA_FACTOR = 380.0f / 576
+private val CIRCLE_AREA_BY_RECT = Math.PI.toFloat() / 4
+private val LINEAR_SCALE_SLOPE =
+    (MAX_CIRCLE_AREA_FACTOR - MAX_SQUARE_AREA_FACTOR) / (1 - CIRCLE_AREA_BY_RECT)
+
+@SmallTest
+class SimpleIconFactoryTest {
+    @Test
+    fun testHasVisibleAlpha_singleValue_matchesPerPixelCheck() {
+        for (position in 0 until Long.SIZE_BYTES) {
+            for (alpha in 0..255) {
+                val word = alpha.toLong() shl (position * 8)
+
+                assertWithMessage("alpha $alpha at $position")
+                    .that(SimpleIconFactory.hasVisibleAlpha(word))
+                    .isEqualTo(alpha > MIN_VISIBLE_ALPHA)
+            }
+        }
+    }
+
+    @Test
+    fun testHasVisibleAlpha_mixedValues_matchesPerPixelCheck() {
+        val random = Random(0)
+        repeat(10_000) {
+            // Mostly faint values, so that words without visible pixels are common.
+            val alphas = IntArray(Long.SIZE_BYTES) {
+                if (random.nextInt(16) == 0) random.nextInt(256) else random.nextInt(48)
+            }
+            val word = alphas.foldIndexed(0L) { i, word, alpha ->
+                word or (alpha.toLong() shl (i * 8))
+            }
+
+            assertWithMessage("alphas ${alphas.contentToString()}")
+                .that(SimpleIconFactory.hasVisibleAlpha(word))
+                .isEqualTo(alphas.any { it > MIN_VISIBLE_ALPHA })
+        }
+    }
+
+    @Test
+    fun testGetScale_renderedDrawable_matchesPerPixelScan() {
+        val context = ContextThemeWrapper(
+            InstrumentationRegistry.getInstrumentation().targetContext,
+            R.style.Theme_DeviceDefault_Resolver
+        )
+        // Odd sizes, so that rows end with a partial word, and a background just too faint to be
+        // visible.
+        val background = ShapeDrawable(RectShape()).apply {
+            intrinsicWidth = 45
+            intrinsicHeight = 43
+            paint.color = Color.argb(MIN_VISIBLE_ALPHA, 0, 0, 0)
+        }
+        val foreground = ShapeDrawable(OvalShape()).apply { paint.color = Color.BLACK }
+        val icon = LayerDrawable(arrayOf<Drawable>(background, foreground)).apply {
+            setLayerInset(1, 3, 9, 11, 2)
+        }
+        SimpleIconFactory.setPoolEnabled(false)
+        val factory = SimpleIconFactory.obtain(context)
+        try {
+            val bounds = RectF()
+            val expectedBounds = RectF()
+
+            val scale = factory.getScale(icon, bounds)
+            val expectedScale = getScaleWithPerPixelScan(icon, expectedBounds)
+
+            assertThat(scale).isEqualTo(expectedScale)
+            assertThat(bounds).isEqualTo(expectedBounds)
+        } finally {
+            factory.recycle()
+            SimpleIconFactory.setPoolEnabled(true)
+        }
+    }
+
+    /** The visible bounds scan of [SimpleIconFactory.getScale], one pixel at a time. */
+    private fun getScaleWithPerPixelScan(d: Drawable, outBounds: RectF): Float {
+        val width = d.intrinsicWidth
+        val height = d.intrinsicHeight
+        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8)
+        d.setBounds(0, 0, width, height)
+        d.draw(Canvas(bitmap))
+        val pixels = ByteArray(width * height)
+        bitmap.copyPixelsToBuffer(ByteBuffer.wrap(pixels))
+
+        val leftBorder = FloatArray(height)
+        val rightBorder = FloatArray(height)
+        var topY = -1
+        var bottomY = -1
+        var leftX = width + 1
+        var rightX = -1
+        for (y in 0 until height) {
+            var firstX = -1
+            var lastX = -1
+            for (x in 0 until width) {
+                if ((pixels[y * width + x].toInt() and 0xFF) > MIN_VISIBLE_ALPHA) {
+                    if (firstX == -1) firstX = x
+                    lastX = x
+                }
+            }
+            leftBorder[y] = firstX.toFloat()
+            rightBorder[y] = lastX.toFloat()
+            if (firstX != -1) {
+                bottomY = y
+                if (topY == -1) topY = y
+                leftX = minOf(leftX, firstX)
+                rightX = maxOf(rightX, lastX)
+            }
+        }
+        if (topY == -1 || rightX == -1) return 1f
+
+        SimpleIconFactory.convertToConvexArray(leftBorder, 1, topY, bottomY)
+        SimpleIconFactory.convertToConvexArray(rightBorder, -1, topY, bottomY)
+
+        var area = 0f
+        for (y in 0 until height) {
+            if (leftBorder[y] <= -1) continue
+            area += rightBorder[y] - leftBorder[y] + 1
+        }
+        val rectArea = ((bottomY + 1 - topY) * (rightX + 1 - leftX)).toFloat()
+        val hullByRect = area / rectArea
+        val scaleRequired = if (hullByRect < CIRCLE_AREA_BY_RECT) {
+            MAX_CIRCLE_AREA_FACTOR
+        } else {
+            MAX_SQUARE_AREA_FACTOR + LINEAR_SCALE_SLOPE * (1 - hullByRect)
+        }
+        outBounds.set(
+            leftX.toFloat() / width,
+            topY.toFloat() / height,
+            1 - rightX.toFloat() / width,
+            1 - bottomY.toFloat() / height
+        )
+        val areaScale = area / (width * height)
+        return if (areaScale > scaleRequired) sqrt(scaleRequired / areaScale) else 1f
+    }
+}
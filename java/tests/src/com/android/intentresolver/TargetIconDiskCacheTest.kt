@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import org.junit.After
+import org.junit.Test
+
+class TargetIconDiskCacheTest {
+    private val directory = File(
+        InstrumentationRegistry.getInstrumentation().context.cacheDir,
+        "target_icon_disk_cache_test"
+    )
+    private val testSubject = TargetIconDiskCache(directory, Long.MAX_VALUE)
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    @Test
+    fun testGet_afterPut_returnsSamePixels() {
+        val bitmap = Bitmap.createBitmap(3, 2, Bitmap.Config.ARGB_8888).apply {
+            eraseColor(Color.BLUE)
+            setPixel(1, 1, Color.RED)
+        }
+
+        testSubject.put("key", bitmap)
+        val cached = testSubject.get("key")
+
+        assertThat(cached).isNotNull()
+        assertThat(cached!!.sameAs(bitmap)).isTrue()
+    }
+
+    @Test
+    fun testGet_unknownKey_returnsNull() {
+        testSubject.put("key", Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888))
+
+        assertThat(testSubject.get("other key")).isNull()
+    }
+}
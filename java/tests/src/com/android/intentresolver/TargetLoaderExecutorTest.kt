@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import androidx.test.filters.SmallTest
+import com.android.intentresolver.TargetLoaderExecutor.PRIORITY_HIGH
+import com.android.intentresolver.TargetLoaderExecutor.PRIORITY_LOW
+import com.google.common.truth.Truth.assertThat
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.junit.Test
+
+private const val TIMEOUT_SECONDS = 5L
+
+@SmallTest
+class TargetLoaderExecutorTest {
+    // A single worker, so that the queue order is observable.
+    private val testSubject = TargetLoaderExecutor(1)
+    private val workerBlocked = CountDownLatch(1)
+    private val releaseWorker = CountDownLatch(1)
+
+    @Test
+    fun testQueuedWork_runsByPriorityThenMostRecentFirst() {
+        blockWorker()
+        val ran = Collections.synchronizedList(ArrayList<String>())
+        val done = CountDownLatch(4)
+        fun submit(name: String, priority: Int) =
+            testSubject.forPriority(priority).execute {
+                ran.add(name)
+                done.countDown()
+            }
+
+        submit("low-1", PRIORITY_LOW)
+        submit("high-1", PRIORITY_HIGH)
+        submit("low-2", PRIORITY_LOW)
+        submit("high-2", PRIORITY_HIGH)
+        releaseWorker.countDown()
+
+        assertThat(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        assertThat(ran).containsExactly("high-2", "high-1", "low-2", "low-1").inOrder()
+    }
+
+    @Test
+    fun testCancelIfNotStarted_queuedTask_isCancelledAndNeverLoads() {
+        blockWorker()
+        // Queued first at the same priority, so it runs after the cancelled task.
+        val later = TestTask()
+        later.executeOnExecutor(testSubject.forPriority(PRIORITY_LOW))
+        val task = TestTask()
+        task.executeOnExecutor(testSubject.forPriority(PRIORITY_LOW))
+
+        assertThat(task.cancelIfNotStarted()).isTrue()
+        releaseWorker.countDown()
+
+        assertThat(later.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isEqualTo(RESULT)
+        assertThat(task.isCancelled).isTrue()
+        assertThat(task.loadCount).isEqualTo(0)
+    }
+
+    @Test
+    fun testCancelIfNotStarted_runningTask_isNotCancelled() {
+        val release = CountDownLatch(1)
+        val task = TestTask(release)
+        task.executeOnExecutor(testSubject.forPriority(PRIORITY_LOW))
+        assertThat(task.started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+
+        assertThat(task.cancelIfNotStarted()).isFalse()
+        release.countDown()
+
+        assertThat(task.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isEqualTo(RESULT)
+        assertThat(task.isCancelled).isFalse()
+        assertThat(task.loadCount).isEqualTo(1)
+    }
+
+    private fun blockWorker() {
+        testSubject.forPriority(PRIORITY_HIGH).execute {
+            workerBlocked.countDown()
+            releaseWorker.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        }
+        assertThat(workerBlocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+    }
+
+    private class TestTask(
+        private val release: CountDownLatch = CountDownLatch(0)
+    ) : TargetLoaderExecutor.Task<String>() {
+        val started = CountDownLatch(1)
+        @Volatile
+        var loadCount = 0
+
+        override fun loadInBackground(): String {
+            loadCount++
+            started.countDown()
+            release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            return RESULT
+        }
+    }
+
+    private companion object {
+        const val RESULT = "loaded"
+    }
+}
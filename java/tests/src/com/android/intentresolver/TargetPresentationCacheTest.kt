@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.graphics.Bitmap
+import androidx.test.filters.SmallTest
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+@SmallTest
+class TargetPresentationCacheTest {
+    // Room for exactly two 4x4 ARGB_8888 icons.
+    private val testSubject = TargetPresentationCache(2 * 4 * 4 * 4, 1024)
+
+    @Test
+    fun testGetIcon_afterPut_returnsSameInstanceAndCountsHit() {
+        val icon = createIcon()
+
+        assertThat(testSubject.getIcon("key")).isNull()
+        testSubject.putIcon("key", icon)
+
+        assertThat(testSubject.getIcon("key")).isSameInstanceAs(icon)
+        assertThat(testSubject.hitCount).isEqualTo(1)
+        assertThat(testSubject.missCount).isEqualTo(1)
+    }
+
+    @Test
+    fun testPutIcon_overByteBudget_evictsLeastRecentlyUsed() {
+        testSubject.putIcon("a", createIcon())
+        testSubject.putIcon("b", createIcon())
+        testSubject.getIcon("a")
+
+        testSubject.putIcon("c", createIcon())
+
+        assertThat(testSubject.getIcon("a")).isNotNull()
+        assertThat(testSubject.getIcon("b")).isNull()
+        assertThat(testSubject.getIcon("c")).isNotNull()
+        assertThat(testSubject.evictionCount).isEqualTo(1)
+    }
+
+    @Test
+    fun testInvalidate_dropsIconsAndLabels() {
+        testSubject.putIcon("icon", createIcon())
+        testSubject.putLabel("label", "Label")
+
+        testSubject.invalidate()
+
+        assertThat(testSubject.getIcon("icon")).isNull()
+        assertThat(testSubject.getLabel("label")).isNull()
+    }
+
+    private fun createIcon() = Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888)
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import androidx.test.filters.SmallTest
+import com.google.common.truth.Truth.assertThat
+import kotlin.random.Random
+import org.junit.Test
+
+@SmallTest
+class TopKSelectorTest {
+    @Test
+    fun testSelectTopK_prefixMatchesFullSort() {
+        val random = Random(42)
+        repeat(200) { iteration ->
+            val size = random.nextInt(1, 100)
+            val k = random.nextInt(0, size + 2)
+            // Small value ranges exercise runs of equal elements.
+            val values = IntArray(size) { random.nextInt(if (iteration % 2 == 0) 4 else 1000) }
+            val indices = IntArray(size) { it }
+
+            TopKSelector.selectTopK(indices, k) { lhs, rhs -> values[lhs].compareTo(values[rhs]) }
+
+            val expected = values.sorted().take(k)
+            assertThat(indices.take(k).map { values[it] }).isEqualTo(expected)
+            assertThat(indices.sorted()).isEqualTo((0 until size).toList())
+        }
+    }
+
+    @Test
+    fun testSelectTopK_nonPositiveK_leavesIndicesUntouched() {
+        val indices = intArrayOf(2, 0, 1)
+
+        TopKSelector.selectTopK(indices, 0) { lhs, rhs -> lhs.compareTo(rhs) }
+
+        assertThat(indices.toList()).containsExactly(2, 0, 1).inOrder()
+    }
+}
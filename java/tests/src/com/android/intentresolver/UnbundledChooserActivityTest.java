@@ -520,7 +520,7 @@ public class UnbundledChooserActivityTest {
         waitForIdle();
         UsageStatsManager usm = activity.getUsageStatsManager();
         verify(ChooserActivityOverrideData.getInstance().resolverListController, times(1))
-                .topK(any(List.class), anyInt());
+                .topK(any(List.class), anyInt(), any());
         assertThat(activity.getIsSelected(), is(false));
         ChooserActivityOverrideData.getInstance().onSafelyStartCallback = targetInfo -> {
             return true;
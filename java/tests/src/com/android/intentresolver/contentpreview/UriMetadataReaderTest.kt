@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.contentpreview
+
+import android.content.ContentInterface
+import android.database.MatrixCursor
+import android.net.Uri
+import android.provider.DocumentsContract
+import android.provider.OpenableColumns
+import com.android.intentresolver.any
+import com.android.intentresolver.anyOrNull
+import com.android.intentresolver.eq
+import com.android.intentresolver.mock
+import com.android.intentresolver.whenever
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import java.util.concurrent.Executor
+import java.util.function.Predicate
+
+class UriMetadataReaderTest {
+    private val imageUri = Uri.parse("content://org.pkg.app/image.png")
+    private val otherImageUri = Uri.parse("content://org.pkg.other/image.jpg")
+    private val fileUri = Uri.parse("content://org.pkg.app/doc.pdf")
+    private val contentResolver = mock<ContentInterface> {
+        whenever(getType(imageUri)).thenReturn("image/png")
+        whenever(getType(otherImageUri)).thenReturn("image/jpeg")
+        whenever(getType(fileUri)).thenReturn("application/pdf")
+    }
+    private val testSubject = UriMetadataReader(contentResolver, Executor { it.run() })
+
+    @Test
+    fun testAllTypesMatch() {
+        val isImage = Predicate<String> { type -> type?.startsWith("image/") == true }
+
+        assertThat(testSubject.allTypesMatch(listOf(imageUri, null, otherImageUri), isImage))
+            .isTrue()
+        assertThat(testSubject.allTypesMatch(listOf(imageUri, fileUri), isImage)).isFalse()
+    }
+
+    @Test
+    fun testGetType_isCachedAcrossBatches() {
+        testSubject.allTypesMatch(listOf(imageUri, otherImageUri)) { true }
+
+        assertThat(testSubject.getType(imageUri)).isEqualTo("image/png")
+        assertThat(testSubject.getType(otherImageUri)).isEqualTo("image/jpeg")
+        verify(contentResolver, times(1)).getType(imageUri)
+        verify(contentResolver, times(1)).getType(otherImageUri)
+    }
+
+    @Test
+    fun testGetFileInfo_prefetched_queriesNarrowProjectionOnce() {
+        val cursor = MatrixCursor(
+            arrayOf(OpenableColumns.DISPLAY_NAME, DocumentsContract.Document.COLUMN_FLAGS)
+        ).apply {
+            addRow(arrayOf<Any>("doc.pdf", DocumentsContract.Document.FLAG_SUPPORTS_THUMBNAIL))
+        }
+        whenever(contentResolver.query(eq(fileUri), any(), anyOrNull(), anyOrNull()))
+            .thenReturn(cursor)
+
+        testSubject.prefetchFileInfo(fileUri)
+        val fileInfo = testSubject.getFileInfo(fileUri)
+
+        assertThat(fileInfo.name).isEqualTo("doc.pdf")
+        assertThat(fileInfo.hasThumbnail).isTrue()
+        verify(contentResolver, times(1)).query(eq(fileUri), any(), anyOrNull(), anyOrNull())
+    }
+
+    @Test
+    fun testGetFileInfo_unsupportedProjection_fallsBackToAllColumns() {
+        val cursor = MatrixCursor(arrayOf(OpenableColumns.DISPLAY_NAME))
+            .apply { addRow(arrayOf<Any>("doc.pdf")) }
+        whenever(contentResolver.query(eq(fileUri), any(), anyOrNull(), anyOrNull()))
+            .thenThrow(IllegalArgumentException("Invalid column"))
+        whenever(contentResolver.query(fileUri, null, null, null)).thenReturn(cursor)
+
+        val fileInfo = testSubject.getFileInfo(fileUri)
+
+        assertThat(fileInfo.name).isEqualTo("doc.pdf")
+        assertThat(fileInfo.hasThumbnail).isFalse()
+    }
+}
@@ -17,6 +17,8 @@
 package com.android.intentresolver.model;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
 
 import android.content.ComponentName;
 import android.content.Context;
@@ -31,7 +33,10 @@ import com.android.intentresolver.ResolvedComponentInfo;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class AbstractResolverComparatorTest {
 
@@ -77,6 +82,178 @@ public class AbstractResolverComparatorTest {
         assertEquals("Both pinned should rank alphabetically", -1, comparator.compare(r1, r2));
     }
 
+    @Test
+    public void testGetSortKeys_consistentWithCompare() {
+        List<ResolvedComponentInfo> targets = new ArrayList<>();
+        float[] scores = {0.9f, 0.1f, 0.5f, 0.5f};
+        for (int i = 0; i < scores.length; i++) {
+            targets.add(createTarget("package" + i, scores[i]));
+        }
+        targets.get(1).setPinned(true);
+        ResolvedComponentInfo crossProfile = createTarget("other", 1f);
+        crossProfile.getResolveInfoAt(0).targetUserId = 10;
+        targets.add(crossProfile);
+
+        Context context = InstrumentationRegistry.getTargetContext();
+        AbstractResolverComparator comparator = getScoringComparator(context);
+        float[] keys = new float[targets.size()];
+        comparator.getSortKeys(targets, keys);
+
+        for (int i = 0; i < targets.size(); i++) {
+            for (int j = 0; j < targets.size(); j++) {
+                if (keys[i] > keys[j]) {
+                    assertTrue("Greater key ranks first",
+                            comparator.compare(targets.get(i), targets.get(j)) < 0);
+                }
+            }
+        }
+        assertTrue("Pinned ranks over higher score", keys[1] > keys[0]);
+        assertEquals("Equal scores fall back to compare()", keys[2], keys[3]);
+    }
+
+    @Test
+    public void testGetSortKeys_missingScore_onlySpecialCases() {
+        List<ResolvedComponentInfo> targets = new ArrayList<>();
+        targets.add(createTarget("package0", 0.9f));
+        targets.add(createTarget("package1", Float.NaN));
+        targets.add(createTarget("package2", 0.1f));
+
+        Context context = InstrumentationRegistry.getTargetContext();
+        float[] keys = new float[targets.size()];
+        getScoringComparator(context).getSortKeys(targets, keys);
+
+        assertEquals(keys[0], keys[1]);
+        assertEquals(keys[0], keys[2]);
+    }
+
+    @Test
+    public void testApplyLateResult_resultAfterTimeout_appliedOnDemand() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        List<Object> handledResults = new ArrayList<>();
+        AbstractResolverComparator comparator = getResultComparator(context, handledResults);
+        CountDownLatch computed = new CountDownLatch(1);
+        CountDownLatch lateResultReceived = new CountDownLatch(1);
+        comparator.setCallBack(computed::countDown);
+        comparator.setLateResultCallback(lateResultReceived::countDown);
+
+        // doCompute() never sends a result, so the compute times out.
+        comparator.compute(new ArrayList<>());
+        assertTrue(computed.await(5, TimeUnit.SECONDS));
+        Object result = new Object();
+        comparator.mHandler.obtainMessage(
+                AbstractResolverComparator.RANKER_SERVICE_RESULT, result).sendToTarget();
+        assertTrue(lateResultReceived.await(5, TimeUnit.SECONDS));
+
+        assertTrue("Late result not applied before asked to", handledResults.isEmpty());
+        assertTrue(comparator.applyLateResult());
+        assertEquals(1, handledResults.size());
+        assertEquals(result, handledResults.get(0));
+        assertFalse("Late result applied only once", comparator.applyLateResult());
+    }
+
+    @Test
+    public void testApplyLateResult_resultInTime_nothingToApply() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        List<Object> handledResults = new ArrayList<>();
+        AbstractResolverComparator comparator = getResultComparator(context, handledResults);
+        CountDownLatch computed = new CountDownLatch(1);
+        comparator.setCallBack(computed::countDown);
+
+        comparator.compute(new ArrayList<>());
+        comparator.mHandler.obtainMessage(
+                AbstractResolverComparator.RANKER_SERVICE_RESULT, new Object()).sendToTarget();
+        assertTrue(computed.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1, handledResults.size());
+        assertFalse(comparator.applyLateResult());
+    }
+
+    @Test
+    public void testApplyLateResult_resultAfterProvisionalCompute_appliedOnDemand()
+            throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        List<Object> handledResults = new ArrayList<>();
+        AbstractResolverComparator comparator = getResultComparator(context, handledResults);
+        CountDownLatch computed = new CountDownLatch(1);
+        CountDownLatch lateResultReceived = new CountDownLatch(1);
+        comparator.setCallBack(computed::countDown);
+        comparator.setLateResultCallback(lateResultReceived::countDown);
+
+        comparator.compute(new ArrayList<>());
+        comparator.finishComputeProvisionally();
+        assertEquals("Finished without waiting", 0, computed.getCount());
+        Object result = new Object();
+        comparator.mHandler.obtainMessage(
+                AbstractResolverComparator.RANKER_SERVICE_RESULT, result).sendToTarget();
+        assertTrue(lateResultReceived.await(5, TimeUnit.SECONDS));
+
+        assertTrue(handledResults.isEmpty());
+        assertTrue(comparator.applyLateResult());
+        assertEquals(result, handledResults.get(0));
+    }
+
+    private static ResolvedComponentInfo createTarget(String packageName, float score) {
+        ResolveInfo info = new ResolveInfo();
+        info.activityInfo = new ActivityInfo();
+        info.activityInfo.packageName = packageName;
+        info.activityInfo.name = "class";
+        // Stash the test score where the scoring comparator can find it.
+        info.priority = Float.floatToIntBits(score);
+        return new ResolvedComponentInfo(
+                new ComponentName(packageName, "class"), new Intent(), info);
+    }
+
+    private AbstractResolverComparator getScoringComparator(Context context) {
+        return new AbstractResolverComparator(context, new Intent()) {
+            @Override
+            int compare(ResolveInfo lhs, ResolveInfo rhs) {
+                int result = Float.compare(getOrderingScore(rhs), getOrderingScore(lhs));
+                return (result != 0)
+                        ? result
+                        : lhs.activityInfo.packageName.compareTo(rhs.activityInfo.packageName);
+            }
+
+            @Override
+            float getOrderingScore(ResolveInfo target) {
+                return Float.intBitsToFloat(target.priority);
+            }
+
+            @Override
+            void doCompute(List<ResolvedComponentInfo> targets) {}
+
+            @Override
+            public float getScore(ComponentName name) {
+                return 0;
+            }
+
+            @Override
+            void handleResultMessage(Message message) {}
+        };
+    }
+
+    private AbstractResolverComparator getResultComparator(
+            Context context, List<Object> handledResults) {
+        return new AbstractResolverComparator(context, new Intent()) {
+            @Override
+            int compare(ResolveInfo lhs, ResolveInfo rhs) {
+                return 0;
+            }
+
+            @Override
+            void doCompute(List<ResolvedComponentInfo> targets) {}
+
+            @Override
+            public float getScore(ComponentName name) {
+                return 0;
+            }
+
+            @Override
+            void handleResultMessage(Message message) {
+                handledResults.add(message.obj);
+            }
+        };
+    }
+
     private AbstractResolverComparator getTestComparator(Context context) {
         Intent intent = new Intent();
 
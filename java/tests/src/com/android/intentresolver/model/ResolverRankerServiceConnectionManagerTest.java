@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.UserHandle;
+import android.service.resolver.IResolverRankerService;
+import android.service.resolver.ResolverRankerService;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Collections;
+
+public class ResolverRankerServiceConnectionManagerTest {
+    private static final ComponentName RANKER = new ComponentName("org.pkg.ranker", "Ranker");
+
+    private final Context mContext = mock(Context.class);
+    private final PackageManager mPackageManager = mock(PackageManager.class);
+    private final ResolverRankerServiceConnectionManager.Listener mListener =
+            mock(ResolverRankerServiceConnectionManager.Listener.class);
+    private final ResolverRankerServiceConnectionManager.Listener mOtherListener =
+            mock(ResolverRankerServiceConnectionManager.Listener.class);
+
+    @Before
+    public void setUp() throws Exception {
+        ServiceInfo serviceInfo = new ServiceInfo();
+        serviceInfo.packageName = RANKER.getPackageName();
+        serviceInfo.name = RANKER.getClassName();
+        serviceInfo.applicationInfo = new ApplicationInfo();
+        serviceInfo.applicationInfo.packageName = RANKER.getPackageName();
+        serviceInfo.permission = ResolverRankerService.BIND_PERMISSION;
+        ResolveInfo resolveInfo = new ResolveInfo();
+        resolveInfo.serviceInfo = serviceInfo;
+
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
+        when(mContext.bindServiceAsUser(any(), any(), anyInt(), any(UserHandle.class)))
+                .thenReturn(true);
+        when(mPackageManager.queryIntentServices(any(), anyInt()))
+                .thenReturn(Collections.singletonList(resolveInfo));
+        when(mPackageManager.getServiceInfo(eq(RANKER), anyInt())).thenReturn(serviceInfo);
+        when(mPackageManager.checkPermission(anyString(), anyString()))
+                .thenReturn(PackageManager.PERMISSION_GRANTED);
+    }
+
+    @Test
+    public void testAcquire_sharesResolutionAndBinding() {
+        ResolverRankerServiceConnectionManager testSubject =
+                new ResolverRankerServiceConnectionManager(mContext, Long.MAX_VALUE);
+
+        assertThat(testSubject.acquire(mListener)).isEqualTo(RANKER);
+        assertThat(testSubject.acquire(mOtherListener)).isEqualTo(RANKER);
+        testSubject.release(mListener);
+        testSubject.release(mOtherListener);
+        assertThat(testSubject.acquire(mListener)).isEqualTo(RANKER);
+
+        verify(mPackageManager, times(1)).queryIntentServices(any(), anyInt());
+        verify(mContext, times(1)).bindServiceAsUser(
+                any(), any(), anyInt(), eq(UserHandle.SYSTEM));
+        verify(mContext, never()).unbindService(any());
+    }
+
+    @Test
+    public void testAcquire_connected_notifiesListenerRightAway() {
+        ResolverRankerServiceConnectionManager testSubject =
+                new ResolverRankerServiceConnectionManager(mContext, Long.MAX_VALUE);
+        testSubject.acquire(mListener);
+        ServiceConnection connection = captureConnection();
+
+        connection.onServiceConnected(RANKER, new Binder());
+        testSubject.acquire(mOtherListener);
+
+        verify(mListener, times(1)).onRankerConnected(any(IResolverRankerService.class));
+        verify(mOtherListener, times(1)).onRankerConnected(any(IResolverRankerService.class));
+    }
+
+    @Test
+    public void testRelease_unbindsOnceIdle() {
+        ResolverRankerServiceConnectionManager testSubject =
+                new ResolverRankerServiceConnectionManager(mContext, 0);
+        testSubject.acquire(mListener);
+        ServiceConnection connection = captureConnection();
+
+        testSubject.release(mListener);
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        verify(mContext, times(1)).unbindService(connection);
+    }
+
+    @Test
+    public void testInvalidate_resolvesAgainOnNextAcquire() {
+        ResolverRankerServiceConnectionManager testSubject =
+                new ResolverRankerServiceConnectionManager(mContext, Long.MAX_VALUE);
+        testSubject.acquire(mListener);
+        ServiceConnection connection = captureConnection();
+        testSubject.release(mListener);
+
+        testSubject.invalidate();
+        verify(mContext, times(1)).unbindService(connection);
+        when(mPackageManager.queryIntentServices(any(), anyInt()))
+                .thenReturn(Collections.emptyList());
+
+        assertThat(testSubject.acquire(mListener)).isNull();
+        verify(mPackageManager, times(2)).queryIntentServices(any(), anyInt());
+    }
+
+    private ServiceConnection captureConnection() {
+        ArgumentCaptor<ServiceConnection> connection =
+                ArgumentCaptor.forClass(ServiceConnection.class);
+        verify(mContext).bindServiceAsUser(
+                any(Intent.class), connection.capture(), anyInt(), any(UserHandle.class));
+        return connection.getValue();
+    }
+}
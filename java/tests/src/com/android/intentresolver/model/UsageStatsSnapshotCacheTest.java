@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStats;
+import android.content.Intent;
+import android.util.ArrayMap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+public class UsageStatsSnapshotCacheTest {
+    private static final String PACKAGE = "org.pkg.app";
+    private static final String OTHER_PACKAGE = "org.pkg.other";
+
+    @Test
+    public void testFromUsageStats_readsAggregates() {
+        UsageStats stats = createUsageStats(PACKAGE);
+        stats.mLastTimeUsed = 1000;
+        stats.mTotalTimeInForeground = 2000;
+        stats.mLaunchCount = 3;
+        ArrayMap<String, Integer> counts = new ArrayMap<>();
+        counts.put("text/plain", 4);
+        counts.put(null, 5);
+        stats.mChooserCounts = new ArrayMap<>();
+        stats.mChooserCounts.put(Intent.ACTION_SEND, counts);
+        Map<String, UsageStats> statsMap = new ArrayMap<>();
+        statsMap.put(PACKAGE, stats);
+
+        UsageStatsSnapshotCache.Snapshot snapshot =
+                UsageStatsSnapshotCache.Snapshot.fromUsageStats(statsMap, 0, 10000);
+
+        int index = snapshot.indexOf(PACKAGE);
+        assertThat(index).isAtLeast(0);
+        assertThat(snapshot.indexOf("org.pkg.other")).isEqualTo(-1);
+        assertThat(snapshot.getLastTimeUsed(index)).isEqualTo(1000);
+        assertThat(snapshot.getTotalTimeInForeground(index)).isEqualTo(2000);
+        assertThat(snapshot.getLaunchCount(index)).isEqualTo(3);
+        assertThat(snapshot.getChooserCount(PACKAGE, Intent.ACTION_SEND, "text/plain"))
+                .isEqualTo(4);
+        assertThat(snapshot.getChooserCount(PACKAGE, Intent.ACTION_SEND, null)).isEqualTo(5);
+        assertThat(snapshot.getChooserCount(PACKAGE, Intent.ACTION_VIEW, "text/plain"))
+                .isEqualTo(0);
+        assertThat(snapshot.getChooserCount(PACKAGE, null, "text/plain")).isEqualTo(0);
+    }
+
+    @Test
+    public void testWithChooserSelection_countsTypeAndAnnotations() {
+        UsageStatsSnapshotCache.Snapshot snapshot =
+                UsageStatsSnapshotCache.Snapshot.fromUsageStats(new ArrayMap<>(), 0, 10000);
+
+        UsageStatsSnapshotCache.Snapshot updated = snapshot
+                .withChooserSelection(
+                        PACKAGE, "image/png", new String[] {"mountain"}, Intent.ACTION_SEND)
+                .withChooserSelection(PACKAGE, "image/png", null, Intent.ACTION_SEND);
+
+        assertThat(updated.indexOf(PACKAGE)).isAtLeast(0);
+        assertThat(updated.getChooserCount(PACKAGE, Intent.ACTION_SEND, "image/png"))
+                .isEqualTo(2);
+        assertThat(updated.getChooserCount(PACKAGE, Intent.ACTION_SEND, "mountain"))
+                .isEqualTo(1);
+        // Snapshots are immutable.
+        assertThat(snapshot.indexOf(PACKAGE)).isEqualTo(-1);
+        assertThat(snapshot.getChooserCount(PACKAGE, Intent.ACTION_SEND, "image/png"))
+                .isEqualTo(0);
+    }
+
+    @Test
+    public void testWithEvents_countsLaunchesAndTimeInForeground() {
+        UsageStatsSnapshotCache.Snapshot snapshot =
+                UsageStatsSnapshotCache.Snapshot.fromUsageStats(new ArrayMap<>(), 0, 10000);
+
+        UsageStatsSnapshotCache.Snapshot updated = snapshot.withEvents(
+                createUsageEvents(
+                        createEvent(PACKAGE, UsageEvents.Event.ACTIVITY_RESUMED, 11000),
+                        createEvent(PACKAGE, UsageEvents.Event.ACTIVITY_PAUSED, 11500),
+                        createEvent(OTHER_PACKAGE, UsageEvents.Event.ACTIVITY_RESUMED, 11600),
+                        createEvent(OTHER_PACKAGE, UsageEvents.Event.ACTIVITY_PAUSED, 11900),
+                        createEvent(PACKAGE, UsageEvents.Event.ACTIVITY_RESUMED, 12000)),
+                20000);
+
+        int index = updated.indexOf(PACKAGE);
+        assertThat(index).isAtLeast(0);
+        assertThat(updated.getLaunchCount(index)).isEqualTo(2);
+        assertThat(updated.getLastTimeUsed(index)).isEqualTo(12000);
+        // Still in the foreground since 12000.
+        assertThat(updated.getTotalTimeInForeground(index)).isEqualTo(500);
+        int otherIndex = updated.indexOf(OTHER_PACKAGE);
+        assertThat(updated.getLaunchCount(otherIndex)).isEqualTo(1);
+        assertThat(updated.getTotalTimeInForeground(otherIndex)).isEqualTo(300);
+        // Snapshots are immutable.
+        assertThat(snapshot.indexOf(PACKAGE)).isEqualTo(-1);
+
+        UsageStatsSnapshotCache.Snapshot paused = updated.withEvents(
+                createUsageEvents(
+                        createEvent(PACKAGE, UsageEvents.Event.ACTIVITY_PAUSED, 21000)),
+                30000);
+
+        assertThat(paused.getTotalTimeInForeground(index)).isEqualTo(500 + 9000);
+    }
+
+    @Test
+    public void testWithEvents_foregroundPackageOfAggregatesIsNotCountedAsLaunchedAgain() {
+        UsageStats stats = createUsageStats(PACKAGE);
+        stats.mLastTimeUsed = 5000;
+        stats.mTotalTimeInForeground = 2000;
+        stats.mLaunchCount = 3;
+        stats.mLastEvent = UsageEvents.Event.ACTIVITY_RESUMED;
+        Map<String, UsageStats> statsMap = new ArrayMap<>();
+        statsMap.put(PACKAGE, stats);
+        UsageStatsSnapshotCache.Snapshot snapshot =
+                UsageStatsSnapshotCache.Snapshot.fromUsageStats(statsMap, 0, 10000);
+
+        UsageStatsSnapshotCache.Snapshot updated = snapshot.withEvents(
+                createUsageEvents(
+                        createEvent(PACKAGE, UsageEvents.Event.ACTIVITY_RESUMED, 11000),
+                        createEvent(PACKAGE, UsageEvents.Event.ACTIVITY_PAUSED, 12000)),
+                20000);
+
+        int index = updated.indexOf(PACKAGE);
+        assertThat(updated.getLaunchCount(index)).isEqualTo(3);
+        assertThat(updated.getLastTimeUsed(index)).isEqualTo(12000);
+        // In the foreground since it was last used according to the aggregates.
+        assertThat(updated.getTotalTimeInForeground(index)).isEqualTo(2000 + 7000);
+    }
+
+    private static UsageEvents createUsageEvents(UsageEvents.Event... events) {
+        return new UsageEvents(
+                Arrays.asList(events), new String[] {OTHER_PACKAGE, PACKAGE}, false);
+    }
+
+    private static UsageEvents.Event createEvent(String packageName, int type, long timestamp) {
+        UsageEvents.Event event = new UsageEvents.Event(type, timestamp);
+        event.mPackage = packageName;
+        return event;
+    }
+
+    private static UsageStats createUsageStats(String packageName) {
+        UsageStats stats = new UsageStats();
+        stats.mPackageName = packageName;
+        return stats;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.shortcuts
+
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageManager
+import android.content.pm.PackageManager.ApplicationInfoFlags
+import android.os.UserHandle
+import androidx.test.filters.SmallTest
+import com.android.intentresolver.any
+import com.android.intentresolver.eq
+import com.android.intentresolver.mock
+import com.android.intentresolver.whenever
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+
+@SmallTest
+class PackageStateCacheTest {
+    private val appInfo = ApplicationInfo().apply {
+        enabled = true
+        flags = 0
+    }
+    private val pm = mock<PackageManager> {
+        whenever(getApplicationInfo(any(), any<ApplicationInfoFlags>())).thenReturn(appInfo)
+    }
+    private val testSubject = PackageStateCache()
+
+    @Test
+    fun testIsPackageEnabled_sameUser_queriesOnce() {
+        assertThat(testSubject.isPackageEnabled(pm, UserHandle.of(0), PACKAGE)).isTrue()
+        assertThat(testSubject.isPackageEnabled(pm, UserHandle.of(0), PACKAGE)).isTrue()
+
+        verify(pm, times(1)).getApplicationInfo(eq(PACKAGE), any<ApplicationInfoFlags>())
+    }
+
+    @Test
+    fun testIsPackageEnabled_differentUser_queriesAgain() {
+        testSubject.isPackageEnabled(pm, UserHandle.of(0), PACKAGE)
+        testSubject.isPackageEnabled(pm, UserHandle.of(10), PACKAGE)
+
+        verify(pm, times(2)).getApplicationInfo(eq(PACKAGE), any<ApplicationInfoFlags>())
+    }
+
+    @Test
+    fun testIsPackageEnabled_afterInvalidate_queriesAgain() {
+        testSubject.isPackageEnabled(pm, UserHandle.of(0), PACKAGE)
+        appInfo.flags = ApplicationInfo.FLAG_SUSPENDED
+
+        testSubject.invalidate()
+
+        assertThat(testSubject.isPackageEnabled(pm, UserHandle.of(0), PACKAGE)).isFalse()
+        verify(pm, times(2)).getApplicationInfo(eq(PACKAGE), any<ApplicationInfoFlags>())
+    }
+
+    @Test
+    fun testIsPackageEnabled_unknownPackage_returnsFalse() {
+        whenever(pm.getApplicationInfo(eq("unknown.pkg"), any<ApplicationInfoFlags>()))
+            .thenThrow(PackageManager.NameNotFoundException())
+
+        assertThat(testSubject.isPackageEnabled(pm, UserHandle.of(0), "unknown.pkg"))
+            .isFalse()
+    }
+
+    private companion object {
+        const val PACKAGE = "org.pkg.app"
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.shortcuts
+
+import android.content.Intent
+import android.content.IntentFilter
+import android.os.UserHandle
+import androidx.test.filters.SmallTest
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+@SmallTest
+class ShareTargetsCacheTest {
+    private var now = 0L
+    private val testSubject = ShareTargetsCache(ttlMillis = 1000, clock = { now })
+    private val shareTargets = ShareTargetsCache.ShareTargets(emptyList(), false, null)
+
+    @Test
+    fun testGet_equivalentFilter_sameUser_returnsEntry() {
+        testSubject.put(createFilter("text/plain"), UserHandle.of(0), shareTargets)
+
+        assertThat(testSubject.get(createFilter("text/plain"), UserHandle.of(0)))
+            .isSameInstanceAs(shareTargets)
+    }
+
+    @Test
+    fun testGet_differentFilterOrUser_returnsNull() {
+        testSubject.put(createFilter("text/plain"), UserHandle.of(0), shareTargets)
+
+        assertThat(testSubject.get(createFilter("image/png"), UserHandle.of(0))).isNull()
+        assertThat(testSubject.get(createFilter("text/plain"), UserHandle.of(10))).isNull()
+    }
+
+    @Test
+    fun testGet_expiredEntry_returnsNull() {
+        testSubject.put(createFilter("text/plain"), UserHandle.of(0), shareTargets)
+
+        now = 1000
+        assertThat(testSubject.get(createFilter("text/plain"), UserHandle.of(0))).isNotNull()
+        now = 1001
+        assertThat(testSubject.get(createFilter("text/plain"), UserHandle.of(0))).isNull()
+    }
+
+    @Test
+    fun testInvalidate_dropsEntries() {
+        testSubject.put(createFilter("text/plain"), UserHandle.of(0), shareTargets)
+
+        testSubject.invalidate()
+
+        assertThat(testSubject.get(createFilter("text/plain"), UserHandle.of(0))).isNull()
+    }
+
+    private fun createFilter(type: String) = IntentFilter(Intent.ACTION_SEND, type)
+}
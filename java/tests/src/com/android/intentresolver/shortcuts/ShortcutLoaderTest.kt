@@ -24,6 +24,7 @@ import android.content.pm.ApplicationInfo
 import android.content.pm.PackageManager
 import android.content.pm.PackageManager.ApplicationInfoFlags
 import android.content.pm.ShortcutManager
+import android.os.SystemClock
 import android.os.UserHandle
 import android.os.UserManager
 import androidx.test.filters.SmallTest
@@ -34,6 +35,7 @@ import com.android.intentresolver.chooser.DisplayResolveInfo
 import com.android.intentresolver.createAppTarget
 import com.android.intentresolver.createShareShortcutInfo
 import com.android.intentresolver.createShortcutInfo
+import com.android.intentresolver.eq
 import com.android.intentresolver.mock
 import com.android.intentresolver.whenever
 import org.junit.Assert.assertArrayEquals
@@ -237,6 +239,312 @@ class ShortcutLoaderTest {
         }
     }
 
+    @Test
+    fun test_prewarm_shortcutsAreMatchedWhenAppTargetsArrive() {
+        val componentName = ComponentName("pkg", "Class")
+        val appTarget = mock<DisplayResolveInfo> {
+            whenever(resolvedComponentName).thenReturn(componentName)
+        }
+        val appTargets = arrayOf(appTarget)
+        val matchingShortcutInfo = createShortcutInfo("id-0", componentName, 1)
+        val shortcutManager = mock<ShortcutManager> {
+            whenever(getShareTargets(intentFilter)).thenReturn(
+                listOf(ShortcutManager.ShareShortcutInfo(matchingShortcutInfo, componentName))
+            )
+        }
+        whenever(context.getSystemService(Context.SHORTCUT_SERVICE)).thenReturn(shortcutManager)
+        val testSubject = ShortcutLoader(
+            context,
+            null,
+            UserHandle.of(0),
+            true,
+            intentFilter,
+            executor,
+            executor,
+            callback
+        )
+
+        testSubject.prewarm()
+
+        verify(shortcutManager, times(1)).getShareTargets(intentFilter)
+        verify(callback, never()).accept(any())
+
+        testSubject.queryShortcuts(appTargets)
+
+        verify(shortcutManager, times(1)).getShareTargets(intentFilter)
+        val resultCaptor = argumentCaptor<ShortcutLoader.Result>()
+        verify(callback, times(1)).accept(capture(resultCaptor))
+        val result = resultCaptor.value
+        assertArrayEquals("Wrong input app targets in the result", appTargets, result.appTargets)
+        assertEquals("Wrong shortcut count", 1, result.shortcutsByApp.size)
+        assertEquals("Wrong app target", appTarget, result.shortcutsByApp[0].appTarget)
+    }
+
+    @Test
+    fun test_prewarm_inFlightAppPredictorRequestIsMatchedWithAppTargets() {
+        val componentName = ComponentName("pkg", "Class")
+        val appTarget = mock<DisplayResolveInfo> {
+            whenever(resolvedComponentName).thenReturn(componentName)
+        }
+        val appTargets = arrayOf(appTarget)
+        val testSubject = ShortcutLoader(
+            context,
+            appPredictor,
+            UserHandle.of(0),
+            true,
+            intentFilter,
+            executor,
+            executor,
+            callback
+        )
+
+        testSubject.prewarm()
+        testSubject.queryShortcuts(appTargets)
+
+        verify(appPredictor, times(1)).requestPredictionUpdate()
+        val appPredictorCallbackCaptor = argumentCaptor<AppPredictor.Callback>()
+        verify(appPredictor, times(1))
+            .registerPredictionUpdates(any(), capture(appPredictorCallbackCaptor))
+        appPredictorCallbackCaptor.value.onTargetsAvailable(
+            listOf(createAppTarget(createShortcutInfo("id-0", componentName, 1)))
+        )
+
+        val resultCaptor = argumentCaptor<ShortcutLoader.Result>()
+        verify(callback, times(1)).accept(capture(resultCaptor))
+        val result = resultCaptor.value
+        assertTrue("An app predictor result is expected", result.isFromAppPredictor)
+        assertArrayEquals("Wrong input app targets in the result", appTargets, result.appTargets)
+        assertEquals("Wrong shortcut count", 1, result.shortcutsByApp.size)
+    }
+
+    @Test
+    fun test_queryShortcuts_packageStateIsQueriedOncePerPackage() {
+        val componentName = ComponentName("pkg", "Class")
+        val appTarget = mock<DisplayResolveInfo> {
+            whenever(resolvedComponentName).thenReturn(componentName)
+        }
+        val shortcutManager = mock<ShortcutManager> {
+            whenever(getShareTargets(intentFilter)).thenReturn(
+                listOf(
+                    createShareShortcutInfo("id-0", componentName, 1),
+                    createShareShortcutInfo("id-1", componentName, 2),
+                    createShareShortcutInfo("id-2", ComponentName("pkg", "OtherClass"), 3)
+                )
+            )
+        }
+        whenever(context.getSystemService(Context.SHORTCUT_SERVICE)).thenReturn(shortcutManager)
+        val testSubject = ShortcutLoader(
+            context,
+            null,
+            UserHandle.of(0),
+            true,
+            intentFilter,
+            executor,
+            executor,
+            callback
+        )
+
+        testSubject.queryShortcuts(arrayOf(appTarget))
+
+        verify(pm, times(1)).getApplicationInfo(eq("pkg"), any<ApplicationInfoFlags>())
+        val resultCaptor = argumentCaptor<ShortcutLoader.Result>()
+        verify(callback, times(1)).accept(capture(resultCaptor))
+        assertEquals("Wrong shortcut count", 1, resultCaptor.value.shortcutsByApp.size)
+        assertEquals(
+            "Wrong shortcut count for the app",
+            2,
+            resultCaptor.value.shortcutsByApp[0].shortcuts.size
+        )
+    }
+
+    @Test
+    fun test_queryShortcuts_supersededQueuedLoadIsSkipped() {
+        val componentName = ComponentName("pkg", "Class")
+        val appTarget = mock<DisplayResolveInfo> {
+            whenever(resolvedComponentName).thenReturn(componentName)
+        }
+        val shortcutManager = mock<ShortcutManager> {
+            whenever(getShareTargets(intentFilter)).thenReturn(
+                listOf(createShareShortcutInfo("id-0", componentName, 1))
+            )
+        }
+        whenever(context.getSystemService(Context.SHORTCUT_SERVICE)).thenReturn(shortcutManager)
+        val backgroundExecutor = QueuedExecutor()
+        val testSubject = ShortcutLoader(
+            context,
+            null,
+            UserHandle.of(0),
+            true,
+            intentFilter,
+            backgroundExecutor,
+            executor,
+            callback
+        )
+
+        testSubject.queryShortcuts(arrayOf(mock()))
+        val latestAppTargets = arrayOf(appTarget)
+        testSubject.queryShortcuts(latestAppTargets)
+        backgroundExecutor.runAll()
+
+        verify(shortcutManager, times(1)).getShareTargets(intentFilter)
+        val resultCaptor = argumentCaptor<ShortcutLoader.Result>()
+        verify(callback, times(1)).accept(capture(resultCaptor))
+        assertArrayEquals(
+            "Wrong input app targets in the result",
+            latestAppTargets,
+            resultCaptor.value.appTargets
+        )
+    }
+
+    @Test
+    fun test_queryShortcuts_unrequestedAppPredictorUpdateIsNotTimed() {
+        val componentName = ComponentName("pkg", "Class")
+        val appTarget = mock<DisplayResolveInfo> {
+            whenever(resolvedComponentName).thenReturn(componentName)
+        }
+        val testSubject = ShortcutLoader(
+            context,
+            appPredictor,
+            UserHandle.of(0),
+            true,
+            intentFilter,
+            executor,
+            executor,
+            callback
+        )
+        val appPredictorCallbackCaptor = argumentCaptor<AppPredictor.Callback>()
+        verify(appPredictor).registerPredictionUpdates(any(), capture(appPredictorCallbackCaptor))
+        val appPredictorTargets =
+            listOf(createAppTarget(createShortcutInfo("id-0", componentName, 1)))
+
+        testSubject.queryShortcuts(arrayOf(appTarget))
+        SystemClock.sleep(LOAD_DURATION_MILLIS)
+        appPredictorCallbackCaptor.value.onTargetsAvailable(appPredictorTargets)
+        SystemClock.sleep(LOAD_DURATION_MILLIS)
+        appPredictorCallbackCaptor.value.onTargetsAvailable(appPredictorTargets)
+
+        val resultCaptor = argumentCaptor<ShortcutLoader.Result>()
+        verify(callback, times(2)).accept(capture(resultCaptor))
+        val (requested, unrequested) = resultCaptor.allValues
+        assertTrue("Requested load isn't timed", requested.loadMillis >= LOAD_DURATION_MILLIS)
+        assertEquals("Unrequested update is timed", 0, unrequested.loadMillis)
+        assertEquals("Unrequested update is timed", 0, unrequested.queueWaitMillis)
+    }
+
+    @Test
+    fun test_prewarm_reusesRecentlyCachedShareTargets() {
+        val componentName = ComponentName("pkg", "Class")
+        val appTarget = mock<DisplayResolveInfo> {
+            whenever(resolvedComponentName).thenReturn(componentName)
+        }
+        val shortcutManager = mock<ShortcutManager> {
+            whenever(getShareTargets(intentFilter)).thenReturn(
+                listOf(createShareShortcutInfo("id-0", componentName, 1))
+            )
+        }
+        whenever(context.getSystemService(Context.SHORTCUT_SERVICE)).thenReturn(shortcutManager)
+        val cache = ShareTargetsCache(ttlMillis = 1000, clock = { 0L })
+        val createLoader = {
+            ShortcutLoader(
+                context,
+                null,
+                UserHandle.of(0),
+                true,
+                intentFilter,
+                executor,
+                executor,
+                callback,
+                cache
+            )
+        }
+        createLoader().queryShortcuts(arrayOf(appTarget))
+
+        val testSubject = createLoader()
+        testSubject.prewarm()
+        testSubject.queryShortcuts(arrayOf(appTarget))
+
+        verify(shortcutManager, times(1)).getShareTargets(intentFilter)
+        val resultCaptor = argumentCaptor<ShortcutLoader.Result>()
+        verify(callback, times(2)).accept(capture(resultCaptor))
+        assertEquals("Wrong shortcut count", 1, resultCaptor.value.shortcutsByApp.size)
+    }
+
+    @Test
+    fun test_prewarm_prewarmedShareTargetsAreMatchedInBackground() {
+        val componentName = ComponentName("pkg", "Class")
+        val appTarget = mock<DisplayResolveInfo> {
+            whenever(resolvedComponentName).thenReturn(componentName)
+        }
+        val cache = ShareTargetsCache(ttlMillis = 1000, clock = { 0L })
+        cache.put(
+            intentFilter,
+            UserHandle.of(0),
+            ShareTargetsCache.ShareTargets(
+                listOf(createShareShortcutInfo("id-0", componentName, 1)), false, null
+            )
+        )
+        val backgroundExecutor = QueuedExecutor()
+        val testSubject = ShortcutLoader(
+            context,
+            null,
+            UserHandle.of(0),
+            true,
+            intentFilter,
+            backgroundExecutor,
+            executor,
+            callback,
+            cache
+        )
+
+        testSubject.prewarm()
+        testSubject.queryShortcuts(arrayOf(appTarget))
+
+        verify(callback, never()).accept(any())
+        backgroundExecutor.runAll()
+        val resultCaptor = argumentCaptor<ShortcutLoader.Result>()
+        verify(callback, times(1)).accept(capture(resultCaptor))
+        assertEquals("Wrong shortcut count", 1, resultCaptor.value.shortcutsByApp.size)
+    }
+
+    @Test
+    fun test_prewarm_cachedShareTargetsAreNotUsedForPausedWorkProfile() {
+        val userHandle = UserHandle.of(10)
+        with(userManager) {
+            whenever(isUserRunning(userHandle)).thenReturn(true)
+            whenever(isUserUnlocked(userHandle)).thenReturn(true)
+            whenever(isQuietModeEnabled(userHandle)).thenReturn(true)
+        }
+        whenever(context.getSystemService(Context.USER_SERVICE)).thenReturn(userManager)
+        val componentName = ComponentName("pkg", "Class")
+        val appTarget = mock<DisplayResolveInfo> {
+            whenever(resolvedComponentName).thenReturn(componentName)
+        }
+        val cache = ShareTargetsCache(ttlMillis = 1000, clock = { 0L })
+        cache.put(
+            intentFilter,
+            userHandle,
+            ShareTargetsCache.ShareTargets(
+                listOf(createShareShortcutInfo("id-0", componentName, 1)), false, null
+            )
+        )
+        val testSubject = ShortcutLoader(
+            context,
+            null,
+            userHandle,
+            false,
+            intentFilter,
+            executor,
+            executor,
+            callback,
+            cache
+        )
+
+        testSubject.prewarm()
+        testSubject.queryShortcuts(arrayOf(appTarget))
+
+        verify(callback, never()).accept(any())
+    }
+
     @Test
     fun test_queryShortcuts_do_not_call_services_for_not_running_work_profile() {
         testDisabledWorkProfileDoNotCallSystem(isUserRunning = false)
@@ -328,8 +636,24 @@ class ShortcutLoaderTest {
     }
 }
 
+private const val LOAD_DURATION_MILLIS = 20L
+
 private class ImmediateExecutor : Executor {
     override fun execute(r: Runnable) {
         r.run()
     }
 }
+
+private class QueuedExecutor : Executor {
+    private val queue = ArrayDeque<Runnable>()
+
+    override fun execute(r: Runnable) {
+        queue.addLast(r)
+    }
+
+    fun runAll() {
+        while (queue.isNotEmpty()) {
+            queue.removeFirst().run()
+        }
+    }
+}
@@ -139,6 +139,48 @@ class ShortcutToChooserTargetConverterTest {
         assertShortcutInfoCache(chooserTargets, shortcutInfoCache)
     }
 
+    @Test
+    fun testConvertToChooserTarget_predictionService_withPositions() {
+        val appTargets = shortcuts.map { createAppTarget(it.shortcutInfo) }
+        val subset = listOf(shortcuts[3], shortcuts[1])
+        val appTargetCache = HashMap<ChooserTarget, AppTarget>()
+
+        val chooserTargets = testSubject.convertToChooserTarget(
+            subset,
+            intArrayOf(3, 1),
+            appTargets,
+            appTargetCache,
+            null,
+        )
+
+        assertCorrectShortcutToChooserTargetConversion(
+            shortcuts,
+            chooserTargets,
+            expectedOrder = intArrayOf(1, 3),
+            expectedScores = floatArrayOf(0.99f, 0.97f),
+        )
+        assertEquals(appTargets[1], appTargetCache[chooserTargets[0]])
+        assertEquals(appTargets[3], appTargetCache[chooserTargets[1]])
+    }
+
+    @Test
+    fun testConvertToChooserTarget_shortcutManager_withPositions() {
+        val chooserTargets = testSubject.convertToChooserTarget(
+            shortcuts,
+            intArrayOf(0, 1, 2, 3),
+            null,
+            null,
+            null,
+        )
+
+        assertCorrectShortcutToChooserTargetConversion(
+            shortcuts,
+            chooserTargets,
+            expectedOrder = intArrayOf(2, 0, 3, 1),
+            expectedScores = floatArrayOf(1.0f, 0.99f, 0.99f, 0.98f),
+        )
+    }
+
     private fun assertCorrectShortcutToChooserTargetConversion(
         shortcuts: List<ShareShortcutInfo>,
         chooserTargets: List<ChooserTarget>,